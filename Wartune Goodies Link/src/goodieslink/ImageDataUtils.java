@@ -5,6 +5,7 @@ import java.awt.image.DataBufferByte;
 
 import org.opencv.core.Mat;
 
+import goodieslink.processing.PixelBuffer;
 import goodieslink.ui.swing.ImagePreview;
 
 /**
@@ -38,10 +39,31 @@ public class ImageDataUtils {
 		if (m.channels() > 1) {
 			type = BufferedImage.TYPE_3BYTE_BGR;
 		}
-		BufferedImage image = new BufferedImage(m.cols(), m.rows(), type);
-		byte[] b = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-		m.get(0, 0, b);
-		return image;
+		PixelBuffer buffer = new PixelBuffer(m.cols(), m.rows(), type);
+		buffer.copyFrom(m);
+		return buffer.getImage();
+	}
+
+	/**
+	 * Copies an OpenCV image matrix into a {@link PixelBuffer}, reusing the
+	 * buffer from a previous frame when it has the same dimensions so no new
+	 * image is allocated
+	 * 
+	 * @param m
+	 *            Matrix to convert
+	 * @param reuse
+	 *            Buffer to fill, may be null
+	 * @return Buffer holding the matrix data, either <code>reuse</code> or a
+	 *         new buffer
+	 */
+	public static PixelBuffer toPixelBuffer(Mat m, PixelBuffer reuse) {
+		int type = BufferedImage.TYPE_BYTE_GRAY;
+		if (m.channels() > 1) {
+			type = BufferedImage.TYPE_3BYTE_BGR;
+		}
+		PixelBuffer buffer = PixelBuffer.reuse(reuse, m.cols(), m.rows(), type);
+		buffer.copyFrom(m);
+		return buffer;
 	}
 
 	/**
@@ -0,0 +1,485 @@
+package goodieslink.controller;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+import goodieslink.processing.PixelBuffer;
+import goodieslink.processing.contour.ContourSquareFinder;
+import goodieslink.processing.edge.ColorKeyEdgeDetector;
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.edge.EdgeDetector;
+import goodieslink.processing.edge.OpenCVEdgeDetector;
+import goodieslink.processing.edge.OrientedEdges;
+import goodieslink.processing.edge.TiledCannyEdgeDetector;
+import goodieslink.processing.hough.SquareTransform;
+import goodieslink.processing.lattice.LatticeDetector;
+
+/**
+ * Owns every buffer used to detect squares in a frame: the converted screen
+ * capture, the {@link EdgeDetector}, the edge image or bitmaps, the
+ * {@link SquareTransform} with its accumulator, the {@link LatticeDetector}
+ * and the {@link ContourSquareFinder}. The buffers are kept between frames and only
+ * reallocated when the capture region changes size, so a steady detection
+ * loop allocates almost nothing. The edge detector and the square detectors
+ * share one thread pool, which lives until the context is closed.
+ * <br>
+ * A context is not thread safe, each thread detecting squares should use its
+ * own.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class DetectionContext {
+	/**
+	 * System property choosing the edge detector, <code>JAVA</code> for the
+	 * {@link TiledCannyEdgeDetector}, <code>OPENCV</code> for the
+	 * {@link OpenCVEdgeDetector} or <code>COLORKEY</code> for the
+	 * {@link ColorKeyEdgeDetector}
+	 */
+	public static final String EDGE_DETECTOR_PROPERTY = "goodieslink.edgeDetector";
+
+	/**
+	 * Thread pool shared by the detectors, or null on a single processor
+	 */
+	private ExecutorService executor;
+	/**
+	 * Whether {@link #close()} has been called
+	 */
+	private boolean closed;
+	/**
+	 * Radius constraints of squares to detect
+	 */
+	private int minRadius, maxRadius;
+	/**
+	 * Screen capture converted to interleaved bytes
+	 */
+	private PixelBuffer frameBuffer;
+	/**
+	 * Finds the edges of each frame
+	 */
+	private EdgeDetector edgeDetector;
+	/**
+	 * Grayscale frame copied out of the edge detector, for measuring the
+	 * gradient direction of edges
+	 */
+	private PixelBuffer grayBuffer;
+	/**
+	 * Edges copied out of the edge detector as an image
+	 */
+	private PixelBuffer edgeBuffer;
+	/**
+	 * Edges packed into a bitmap
+	 */
+	private EdgeBitmap edgeBitmap;
+	/**
+	 * Frame the edge bitmap was filled for
+	 */
+	private long edgeBitmapFrame;
+	/**
+	 * Frame the edge image was filled for
+	 */
+	private long edgeImageFrame;
+	/**
+	 * Edges split by gradient direction
+	 */
+	private OrientedEdges orientedEdges;
+	/**
+	 * Square detector, keeping its accumulator between frames
+	 */
+	private SquareTransform squareDetector;
+	/**
+	 * Second square detector voting without orientation, to measure how many
+	 * peaks oriented voting removes
+	 */
+	private SquareTransform comparisonDetector;
+	/**
+	 * Lattice detector for the game board
+	 */
+	private LatticeDetector latticeDetector;
+	/**
+	 * Connected component square finder, keeping its labels between frames
+	 */
+	private ContourSquareFinder contourFinder;
+	/**
+	 * Number of frames whose edges have been detected
+	 */
+	private long frameCount;
+	/**
+	 * Number of times a buffer was allocated or reallocated
+	 */
+	private long allocationCount;
+	/**
+	 * Total bytes of the buffers allocated
+	 */
+	private long allocatedBytes;
+
+	/**
+	 * Creates a context with no buffers, they are allocated by the first
+	 * frame. The edge detector is chosen by {@link #createEdgeDetector()}.
+	 *
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public DetectionContext(int minRadius, int maxRadius) {
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (processors > 1) {
+			executor = new ForkJoinPool(processors);
+		}
+		setEdgeDetector(createEdgeDetector());
+	}
+
+	/**
+	 * Creates the edge detector named by {@link #EDGE_DETECTOR_PROPERTY}. The
+	 * pure Java detector finds the same edges as OpenCV, so it is used unless
+	 * OpenCV is asked for and its native library is loaded, or the frame
+	 * colours of the Wartune tiles are asked for instead of edges.
+	 *
+	 * The tiled detector runs on the context's thread pool once it is given
+	 * to {@link #setEdgeDetector(EdgeDetector)}.
+	 *
+	 * @return Edge detector for a new context
+	 */
+	public static EdgeDetector createEdgeDetector() {
+		String property = System.getProperty(EDGE_DETECTOR_PROPERTY, "JAVA").trim();
+		if (property.equalsIgnoreCase("OPENCV") && OpenCVEdgeDetector.isAvailable()) {
+			return new OpenCVEdgeDetector();
+		}
+		if (property.equalsIgnoreCase("COLORKEY")) {
+			return new ColorKeyEdgeDetector();
+		}
+		return new TiledCannyEdgeDetector();
+	}
+
+	/**
+	 * Changes the edge detector used by the next frame. A
+	 * {@link TiledCannyEdgeDetector} is given the context's thread pool.
+	 *
+	 * @param edgeDetector
+	 *            Edge detector
+	 */
+	public void setEdgeDetector(EdgeDetector edgeDetector) {
+		this.edgeDetector = edgeDetector;
+		if (executor != null && edgeDetector instanceof TiledCannyEdgeDetector) {
+			TiledCannyEdgeDetector tiled = (TiledCannyEdgeDetector) edgeDetector;
+			tiled.setThreadCount(Runtime.getRuntime().availableProcessors());
+			tiled.setExecutor(executor);
+		}
+	}
+
+	/**
+	 * Gets the edge detector
+	 *
+	 * @return
+	 */
+	public EdgeDetector getEdgeDetector() {
+		return edgeDetector;
+	}
+
+	/**
+	 * Changes the radius constraints of squares to detect. The detectors are
+	 * sized for their radii, so they are discarded and created again by the
+	 * next frame when the constraints change.
+	 *
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public void setRadiusRange(int minRadius, int maxRadius) {
+		if (minRadius == this.minRadius && maxRadius == this.maxRadius) {
+			return;
+		}
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+		if (squareDetector != null) {
+			// the accumulator may be off the heap
+			squareDetector.close();
+		}
+		squareDetector = null;
+		comparisonDetector = null;
+		latticeDetector = null;
+		contourFinder = null;
+	}
+
+	/**
+	 * Converts a screen capture to <code>TYPE_3BYTE_BGR</code>, drawing into
+	 * the image of the previous frame when it has the same size
+	 *
+	 * @param capture
+	 *            Image returned by the robot
+	 * @return Converted frame, owned by this context
+	 */
+	public BufferedImage convertCapture(BufferedImage capture) {
+		PixelBuffer buffer = PixelBuffer.reuse(frameBuffer, capture.getWidth(), capture.getHeight(),
+				BufferedImage.TYPE_3BYTE_BGR);
+		if (buffer != frameBuffer) {
+			recordAllocation(buffer.getPixels().length);
+			frameBuffer = buffer;
+		}
+		frameBuffer.copyFrom(capture);
+		return frameBuffer.getImage();
+	}
+
+	/**
+	 * Finds the edges of a frame with the edge detector
+	 *
+	 * @param frame
+	 *            Frame stored as <code>TYPE_3BYTE_BGR</code>
+	 */
+	public void detectEdges(BufferedImage frame) {
+		checkOpen();
+		edgeDetector.detect(frame);
+		frameCount++;
+	}
+
+	/**
+	 * Copies the edges found by {@link #detectEdges(BufferedImage)} into an
+	 * image reused between frames
+	 *
+	 * @return Grayscale edge image, owned by this context
+	 */
+	public BufferedImage getEdgeImage() {
+		if (edgeBuffer != null && edgeImageFrame == frameCount) {
+			return edgeBuffer.getImage();
+		}
+		PixelBuffer buffer = edgeDetector.getEdgeImage(edgeBuffer);
+		if (buffer != edgeBuffer) {
+			recordAllocation(buffer.getPixels().length);
+			edgeBuffer = buffer;
+		}
+		edgeImageFrame = frameCount;
+		return edgeBuffer.getImage();
+	}
+
+	/**
+	 * Packs the edges found by {@link #detectEdges(BufferedImage)} into a
+	 * bitmap reused between frames
+	 *
+	 * @return Bit-packed edge image, owned by this context
+	 */
+	public EdgeBitmap getEdgeBitmap() {
+		if (edgeBitmap != null && edgeBitmapFrame == frameCount) {
+			return edgeBitmap;
+		}
+		EdgeBitmap bitmap = edgeDetector.getEdgeBitmap(edgeBitmap);
+		if (bitmap != edgeBitmap) {
+			recordAllocation(bitmap.getMemoryUsage());
+			edgeBitmap = bitmap;
+		}
+		edgeBitmapFrame = frameCount;
+		return edgeBitmap;
+	}
+
+	/**
+	 * Splits the edges found by {@link #detectEdges(BufferedImage)} by the
+	 * direction of the Sobel gradient of the grayscale frame
+	 *
+	 * @return Oriented edges, owned by this context
+	 */
+	public OrientedEdges getOrientedEdges() {
+		EdgeBitmap edges = getEdgeBitmap();
+		PixelBuffer buffer = edgeDetector.getGrayImage(grayBuffer);
+		if (buffer != grayBuffer) {
+			recordAllocation(buffer.getPixels().length);
+			grayBuffer = buffer;
+		}
+		OrientedEdges oriented = OrientedEdges.fromGray(grayBuffer.getPixels(), edges,
+				OrientedEdges.DEFAULT_DIAGONAL_RATIO, orientedEdges);
+		if (oriented != orientedEdges) {
+			recordAllocation(oriented.getMemoryUsage());
+			orientedEdges = oriented;
+		}
+		return orientedEdges;
+	}
+
+	/**
+	 * Gets the square detector, pointed at an edge image
+	 *
+	 * @param edgeImage
+	 *            Edge image to scan
+	 * @return Square detector reused between frames
+	 */
+	public SquareTransform getSquareDetector(BufferedImage edgeImage) {
+		checkOpen();
+		if (squareDetector == null) {
+			squareDetector = new SquareTransform(edgeImage, minRadius, maxRadius);
+			configureSquareDetector();
+		} else {
+			// reuse the accumulator from the previous frame
+			squareDetector.setImage(edgeImage);
+		}
+		return squareDetector;
+	}
+
+	/**
+	 * Gets the square detector, pointed at a bit-packed edge image
+	 *
+	 * @param edges
+	 *            Bit-packed edge image to scan
+	 * @return Square detector reused between frames
+	 */
+	public SquareTransform getSquareDetector(EdgeBitmap edges) {
+		checkOpen();
+		if (squareDetector == null) {
+			squareDetector = new SquareTransform(edges, minRadius, maxRadius);
+			configureSquareDetector();
+		} else {
+			squareDetector.setEdges(edges);
+		}
+		return squareDetector;
+	}
+
+	/**
+	 * Gets the square detector, pointed at edges split by orientation
+	 *
+	 * @param edges
+	 *            Oriented edges to scan
+	 * @return Square detector reused between frames
+	 */
+	public SquareTransform getSquareDetector(OrientedEdges edges) {
+		SquareTransform detector = getSquareDetector(edges.getEdges());
+		detector.setOrientedEdges(edges);
+		return detector;
+	}
+
+	/**
+	 * Gets a second square detector that votes without orientation, pointed at
+	 * a bit-packed edge image
+	 *
+	 * @param edges
+	 *            Bit-packed edge image to scan
+	 * @return Comparison detector reused between frames
+	 */
+	public SquareTransform getComparisonDetector(EdgeBitmap edges) {
+		checkOpen();
+		if (comparisonDetector == null) {
+			comparisonDetector = new SquareTransform(edges, minRadius, maxRadius);
+			// only the number of peaks is needed
+			comparisonDetector.setStreaming(true);
+			comparisonDetector.setThreadCount(Runtime.getRuntime().availableProcessors());
+			comparisonDetector.setExecutor(executor);
+		} else {
+			comparisonDetector.setEdges(edges);
+		}
+		return comparisonDetector;
+	}
+
+	/**
+	 * Gets the square detector used by the last frame
+	 *
+	 * @return Square detector, or null if no frame has been scanned
+	 */
+	public SquareTransform getSquareDetector() {
+		return squareDetector;
+	}
+
+	/**
+	 * Makes sure the context hasn't been closed
+	 */
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Detection context is closed");
+		}
+	}
+
+	/**
+	 * Applies the settings shared by every frame to a newly created square
+	 * detector
+	 */
+	private void configureSquareDetector() {
+		// shorts hold the votes of any icon, and large capture regions move
+		// the bins off the heap
+		squareDetector.setCellType(null);
+		squareDetector.setThreadCount(Runtime.getRuntime().availableProcessors());
+		squareDetector.setExecutor(executor);
+	}
+
+	/**
+	 * Gets the lattice detector
+	 *
+	 * @return Lattice detector reused between frames
+	 */
+	public LatticeDetector getLatticeDetector() {
+		if (latticeDetector == null) {
+			latticeDetector = new LatticeDetector(minRadius, maxRadius);
+		}
+		return latticeDetector;
+	}
+
+	/**
+	 * Gets the connected component square finder
+	 *
+	 * @return Contour square finder reused between frames
+	 */
+	public ContourSquareFinder getContourFinder() {
+		if (contourFinder == null) {
+			contourFinder = new ContourSquareFinder(minRadius, maxRadius);
+		}
+		return contourFinder;
+	}
+
+	/**
+	 * Shuts down the thread pool and frees the accumulator. Detecting edges or
+	 * squares with the context afterwards throws an
+	 * {@link IllegalStateException}.
+	 */
+	public void close() {
+		closed = true;
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		if (squareDetector != null) {
+			squareDetector.close();
+		}
+		squareDetector = null;
+		comparisonDetector = null;
+	}
+
+	/**
+	 * Counts a buffer allocation
+	 *
+	 * @param bytes
+	 *            Size of the buffer
+	 */
+	private void recordAllocation(long bytes) {
+		allocationCount++;
+		allocatedBytes += bytes;
+	}
+
+	/**
+	 * Gets the number of frames whose edges have been detected
+	 *
+	 * @return
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Gets the number of times a frame buffer was allocated, including the
+	 * buffers of the edge detector but not the accumulator which keeps its
+	 * own statistics
+	 *
+	 * @return
+	 */
+	public long getAllocationCount() {
+		return allocationCount + edgeDetector.getAllocationCount();
+	}
+
+	/**
+	 * Gets the total bytes of frame buffers allocated, including the buffers
+	 * of the edge detector but not the accumulator which keeps its own
+	 * statistics
+	 *
+	 * @return
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes + edgeDetector.getAllocatedBytes();
+	}
+}
@@ -0,0 +1,298 @@
+package goodieslink.controller;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import goodieslink.processing.PixelBuffer;
+
+/**
+ * Small least recently used cache of results computed from a frame, keyed by
+ * a 64 bit hash of the frame's content. The game's animations often lag
+ * behind the clicks, so the same frame is captured several times in a row and
+ * its results can be reused instead of detected again.
+ * <br>
+ * Frames are hashed with xxHash64 over every few rows. The icons are much
+ * taller than the gap between sampled rows, so changing an icon always
+ * changes the hash.
+ *
+ * @author Jonathan Schram
+ *
+ * @param <V>
+ *            Type of result cached for each frame
+ */
+public class FrameCache<V> {
+	/**
+	 * Default number of frames remembered
+	 */
+	public static final int DEFAULT_CAPACITY = 8;
+	/**
+	 * Default number of rows between sampled rows
+	 */
+	public static final int DEFAULT_ROW_STEP = 4;
+
+	/**
+	 * Primes of xxHash64
+	 */
+	private static final long PRIME1 = 0x9E3779B185EBCA87L, PRIME2 = 0xC2B2AE3D27D4EB4FL,
+			PRIME3 = 0x165667B19E3779F9L, PRIME4 = 0x85EBCA77C2B2AE63L, PRIME5 = 0x27D4EB2F165667C5L;
+
+	/**
+	 * Cached results in access order, the least recently used first
+	 */
+	private LinkedHashMap<Long, V> entries;
+	/**
+	 * Number of frames remembered
+	 */
+	private int capacity;
+	/**
+	 * Number of lookups that found or didn't find a result
+	 */
+	private long hitCount, missCount;
+
+	/**
+	 * Creates a cache remembering the {@link #DEFAULT_CAPACITY}
+	 */
+	public FrameCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param capacity
+	 *            Number of frames remembered before the least recently used
+	 *            one is dropped
+	 */
+	public FrameCache(int capacity) {
+		this.capacity = Math.max(capacity, 1);
+		entries = new LinkedHashMap<Long, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+				return size() > FrameCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets the result cached for a key, counting a hit or a miss
+	 *
+	 * @param key
+	 *            Hash of the frame, possibly combined with the state the
+	 *            result depends on
+	 * @return Cached result, or null if none is cached
+	 */
+	public V get(long key) {
+		V value = entries.get(key);
+		if (value == null) {
+			missCount++;
+		} else {
+			hitCount++;
+		}
+		return value;
+	}
+
+	/**
+	 * Caches a result, dropping the least recently used one when the cache
+	 * is full
+	 *
+	 * @param key
+	 *            Hash of the frame, possibly combined with the state the
+	 *            result depends on
+	 * @param value
+	 *            Result to cache, which must not be modified afterwards
+	 */
+	public void put(long key, V value) {
+		entries.put(key, value);
+	}
+
+	/**
+	 * Drops every cached result, keeping the counters
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Gets the number of results cached
+	 *
+	 * @return
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of frames remembered
+	 *
+	 * @return
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of lookups that found a result
+	 *
+	 * @return
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Gets the number of lookups that didn't find a result
+	 *
+	 * @return
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Hashes a frame over every {@link #DEFAULT_ROW_STEP} rows
+	 *
+	 * @param frame
+	 *            Frame stored as interleaved bytes
+	 * @return 64 bit hash of the frame
+	 */
+	public static long hash(BufferedImage frame) {
+		return hash(frame, DEFAULT_ROW_STEP);
+	}
+
+	/**
+	 * Hashes the sampled rows of a frame, each row seeded with the hash of the
+	 * previous one and the first with the dimensions of the frame
+	 *
+	 * @param frame
+	 *            Frame stored as interleaved bytes
+	 * @param rowStep
+	 *            Number of rows between sampled rows, 1 to hash every row
+	 * @return 64 bit hash of the frame
+	 */
+	public static long hash(BufferedImage frame, int rowStep) {
+		PixelBuffer buffer = PixelBuffer.wrap(frame);
+		byte[] pixels = buffer.getPixels();
+		int rowBytes = frame.getWidth() * buffer.getPixelSize();
+		ByteBuffer data = ByteBuffer.wrap(pixels).order(ByteOrder.LITTLE_ENDIAN);
+		long hash = ((long) frame.getWidth() << 32) | frame.getHeight();
+		for (int y = 0; y < frame.getHeight(); y += Math.max(rowStep, 1)) {
+			hash = hash(data, y * rowBytes, rowBytes, hash);
+		}
+		return hash;
+	}
+
+	/**
+	 * Hashes bytes with xxHash64
+	 *
+	 * @param bytes
+	 *            Bytes to hash
+	 * @param seed
+	 *            Seed of the hash
+	 * @return 64 bit hash
+	 */
+	public static long hash(byte[] bytes, long seed) {
+		return hash(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 0, bytes.length, seed);
+	}
+
+	/**
+	 * Combines a hash with another value the cached result depends on
+	 *
+	 * @param hash
+	 *            Hash of a frame
+	 * @param value
+	 *            Value to mix in
+	 * @return 64 bit hash of both
+	 */
+	public static long combine(long hash, long value) {
+		hash ^= round(0, value);
+		return avalanche(Long.rotateLeft(hash, 27) * PRIME1 + PRIME4);
+	}
+
+	/**
+	 * Hashes a range of bytes with xxHash64
+	 *
+	 * @param data
+	 *            Little endian view of the bytes
+	 * @param offset
+	 *            Index of first byte
+	 * @param length
+	 *            Number of bytes
+	 * @param seed
+	 *            Seed of the hash
+	 * @return 64 bit hash
+	 */
+	private static long hash(ByteBuffer data, int offset, int length, long seed) {
+		int p = offset;
+		int end = offset + length;
+		long hash;
+		if (length >= 32) {
+			long v1 = seed + PRIME1 + PRIME2;
+			long v2 = seed + PRIME2;
+			long v3 = seed;
+			long v4 = seed - PRIME1;
+			for (int limit = end - 32; p <= limit; p += 32) {
+				v1 = round(v1, data.getLong(p));
+				v2 = round(v2, data.getLong(p + 8));
+				v3 = round(v3, data.getLong(p + 16));
+				v4 = round(v4, data.getLong(p + 24));
+			}
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+					+ Long.rotateLeft(v4, 18);
+			hash = merge(hash, v1);
+			hash = merge(hash, v2);
+			hash = merge(hash, v3);
+			hash = merge(hash, v4);
+		} else {
+			hash = seed + PRIME5;
+		}
+		hash += length;
+		for (; p + 8 <= end; p += 8) {
+			hash ^= round(0, data.getLong(p));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if (p + 4 <= end) {
+			hash ^= (data.getInt(p) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			p += 4;
+		}
+		for (; p < end; p++) {
+			hash ^= (data.get(p) & 0xff) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+		return avalanche(hash);
+	}
+
+	/**
+	 * Mixes 8 bytes of input into an accumulator
+	 */
+	private static long round(long accumulator, long input) {
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+
+	/**
+	 * Merges an accumulator into the hash of a long input
+	 */
+	private static long merge(long hash, long accumulator) {
+		hash ^= round(0, accumulator);
+		return hash * PRIME1 + PRIME4;
+	}
+
+	/**
+	 * Spreads every bit of the hash over the whole result
+	 */
+	private static long avalanche(long hash) {
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+}
@@ -7,22 +7,25 @@ import java.awt.Rectangle;
 import java.awt.Robot;
 import java.awt.event.InputEvent;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.prefs.Preferences;
 
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
-
-import goodieslink.ImageDataUtils;
 import goodieslink.logging.ImageDecorator;
 import goodieslink.logging.ProgressLogger;
 import goodieslink.model.GameBoard;
+import goodieslink.processing.PixelBuffer;
 import goodieslink.processing.Square;
+import goodieslink.processing.contour.ContourSquareFinder;
+import goodieslink.processing.edge.ColorKeyEdgeDetector;
+import goodieslink.processing.hough.Accumulator;
+import goodieslink.processing.hough.CandidateBuffer;
+import goodieslink.processing.hough.DetectionEngine;
 import goodieslink.processing.hough.GridFilter;
+import goodieslink.processing.hough.ScoreIndex;
 import goodieslink.processing.hough.SquareTransform;
+import goodieslink.processing.lattice.LatticeDetector;
 import goodieslink.processing.pathfinding.GoodiePath;
 import goodieslink.processing.pathfinding.Pathfinder;
 import goodieslink.ui.javafx.console.DebugConsole.DebugStream;
@@ -36,6 +39,15 @@ import goodieslink.ui.javafx.console.DebugConsole.DebugStream;
  *
  */
 public class GoodieAgent {
+	/**
+	 * System property turning on diagnostic messages when set to
+	 * <code>true</code>, see {@link #setDiagnostics(boolean)}
+	 */
+	public static final String DIAGNOSTICS_PROPERTY = "goodieslink.diagnostics";
+	/**
+	 * Fewest squares a radius band must find before it is trusted and cached
+	 */
+	private static final int MIN_CALIBRATION_SQUARES = 4;
 
 	private int delayBetweenClicks = 100;
 	private int delayUpDown = 100;
@@ -51,13 +63,43 @@ public class GoodieAgent {
 
 	private Pathfinder matchDetector;
 
-	private SquareTransform squareDetector;
+	private ThreadLocal<DetectionContext> detectionContexts;
 
 	private DebugStream debugStream;
-	private double squareDetectionThreshold;
+	private volatile double squareDetectionThreshold;
+	private double lowestDetectionThreshold;
+	/**
+	 * Score index of the last frame scanned with the square Hough transform,
+	 * read by {@link #redetectSquares()} on any thread
+	 */
+	private volatile ScoredFrame scoredFrame;
+	/**
+	 * Squares found by {@link #redetectSquares()} that haven't replaced the
+	 * grid of the board yet
+	 */
+	private AtomicReference<List<Square>> redetectedSquares;
 	private int minSquareRadius;
 
 	private int maxSquareRadius;
+	private DetectionEngine detectionEngine;
+	private boolean streamingDetection;
+	private boolean pyramidDetection;
+	private boolean latticeDetection;
+	private boolean contourDetection;
+	private boolean earlyRejection;
+	private boolean orientedVoting;
+	private boolean orientedPeakReport;
+	private RadiusCalibration radiusCalibration;
+	private int calibratedWidth;
+	private int calibratedHeight;
+	private boolean calibrationPending;
+	private boolean calibrationLoaded;
+	private boolean frameCaching;
+	private boolean diagnostics;
+	private long frameHash;
+	private long scannedFrameKey;
+	private FrameCache<List<Square>> squareCache;
+	private FrameCache<int[][]> iconCache;
 
 	private ImageDecorator decorator;
 	private ProgressLogger logger;
@@ -87,14 +129,66 @@ public class GoodieAgent {
 	 */
 	public GoodieAgent(double squareDetectionThreshold, int minRadius, int maxRadius, int locationTolerance,
 			int searchMargin, int similarityThreshold) throws AWTException {
+		this(new Robot(), squareDetectionThreshold, minRadius, maxRadius, locationTolerance, searchMargin,
+				similarityThreshold);
+	}
+
+	/**
+	 * Initializes a GoodieAgent that captures the screen and clicks with the
+	 * given robot
+	 * 
+	 * @param robot
+	 *            Robot to capture the screen and click with, or null if frames
+	 *            are only given with {@link #setFrame(BufferedImage)} and
+	 *            nothing is clicked
+	 * @param squareDetectionThreshold
+	 *            Proportion of border that must be present in edge image for a
+	 *            square to be detected
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 * @param locationTolerance
+	 *            Maximum difference in square location before squares are no
+	 *            longer considered to be in the same row/column
+	 * @param searchMargin
+	 *            Maximum distance to shift squares when searching for a
+	 *            matching icon
+	 * @param similarityThreshold
+	 *            Similarity score required for two icons to be considered
+	 *            identical. Must be positive. Closer to 0 is a closer match.
+	 */
+	public GoodieAgent(Robot robot, double squareDetectionThreshold, int minRadius, int maxRadius,
+			int locationTolerance, int searchMargin, int similarityThreshold) {
 		this.squareDetectionThreshold = squareDetectionThreshold;
+		lowestDetectionThreshold = squareDetectionThreshold;
 		minSquareRadius = minRadius;
 		maxSquareRadius = maxRadius;
+		detectionEngine = DetectionEngine.WINDOW_SCAN;
+		streamingDetection = false;
+		pyramidDetection = false;
+		latticeDetection = false;
+		contourDetection = false;
+		earlyRejection = true;
+		orientedVoting = false;
+		orientedPeakReport = false;
+		frameCaching = true;
+		diagnostics = Boolean.getBoolean(DIAGNOSTICS_PROPERTY);
+		squareCache = new FrameCache<>();
+		iconCache = new FrameCache<>();
+		redetectedSquares = new AtomicReference<>();
 		board = new GameBoard(locationTolerance, searchMargin, similarityThreshold);
 		screenRegion = new Rectangle();
-		goodieRobot = new Robot();
+		goodieRobot = robot;
 		matchDetector = new Pathfinder(board);
 		debugStream = null;
+		// each thread reuses its own buffers between frames
+		detectionContexts = new ThreadLocal<DetectionContext>() {
+			@Override
+			protected DetectionContext initialValue() {
+				return new DetectionContext(minSquareRadius, maxSquareRadius);
+			}
+		};
 	}
 
 	/**
@@ -107,16 +201,30 @@ public class GoodieAgent {
 	 * 
 	 */
 	public void captureScreen() {
-		BufferedImage boardImage = goodieRobot.createScreenCapture(screenRegion);
+		setFrame(goodieRobot.createScreenCapture(screenRegion));
+	}
+
+	/**
+	 * Stores a frame captured elsewhere, such as a saved screenshot, the same
+	 * way as {@link #captureScreen()}
+	 * 
+	 * @param boardImage
+	 *            Image of the screen region holding the board
+	 */
+	public void setFrame(BufferedImage boardImage) {
+		// a new frame starts counting copied pixels from zero
+		PixelBuffer.resetBytesCopied();
 		// effectively convert screen capture to another image type such that
 		// the resulting image is a specific format
-		// TYPE_3BYTE_BGR is stored as bytes
-		BufferedImage convertedImage = new BufferedImage(boardImage.getWidth(), boardImage.getHeight(),
-				BufferedImage.TYPE_3BYTE_BGR);
-		convertedImage.getGraphics().drawImage(boardImage, 0, 0, null);
+		// TYPE_3BYTE_BGR is stored as bytes. The converted image is reused
+		// between frames, the board is given the new frame before it is read
+		BufferedImage convertedImage = detectionContexts.get().convertCapture(boardImage);
 		// ImagePreview ip = new ImagePreview(convertedImage);
 		// ip.show();
 		this.image = convertedImage;
+		if (frameCaching) {
+			frameHash = FrameCache.hash(convertedImage);
+		}
 	}
 
 	/**
@@ -181,6 +289,15 @@ public class GoodieAgent {
 		return board.getCountRemaining();
 	}
 
+	/**
+	 * Closes the detection context of the calling thread, shutting down its
+	 * thread pool. The thread gets a new context if it detects squares again.
+	 */
+	public void releaseDetectionContext() {
+		detectionContexts.get().close();
+		detectionContexts.remove();
+	}
+
 	public void delayBetweenClicks() {
 		goodieRobot.delay(delayBetweenClicks);
 	}
@@ -192,24 +309,78 @@ public class GoodieAgent {
 		trySendText("Goodie agent processed screenshot");
 	}
 
-	public void detectSquares() {
-		// conversion of bufferedImage to OpenCV Mat is adapted from:
-		// http://enfanote.blogspot.com/2013/06/converting-java-bufferedimage-to-opencv.html
-		byte[] imageData = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-		Mat imageMat = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC3);
-		imageMat.put(0, 0, imageData);
-
-		// edge detection requires a blurred grayscale image
-		Imgproc.blur(imageMat, imageMat, new Size(1, 1));
-		Imgproc.cvtColor(imageMat, imageMat, Imgproc.COLOR_RGBA2GRAY);
-		Imgproc.Canny(imageMat, imageMat, 50, 150, 3, false);
-		BufferedImage edgeImage = ImageDataUtils.toBufferedImage(imageMat);
-
-		squareDetector = new SquareTransform(edgeImage, minSquareRadius, maxSquareRadius);
+	/**
+	 * Finds squares in an edge matrix independently with the square Hough
+	 * transform
+	 * 
+	 * @param context
+	 *            Buffers holding the output of the Canny edge detector
+	 * @return Squares found, after removing duplicates
+	 */
+	private List<Square> detectHoughSquares(DetectionContext context) {
+		boolean logEdges = logger != null && logger.isLogging();
+		BufferedImage edgeImage = null;
+		SquareTransform squareDetector;
+		// oriented edges can only be counted from bitmaps
+		DetectionEngine engine = orientedVoting ? DetectionEngine.BITMAP_POPCOUNT : detectionEngine;
+		if (orientedVoting) {
+			squareDetector = context.getSquareDetector(context.getOrientedEdges());
+			if (logEdges) {
+				edgeImage = context.getEdgeImage();
+			}
+		} else if (engine == DetectionEngine.BITMAP_POPCOUNT) {
+			// pack the edges straight from the matrix, without an edge image
+			squareDetector = context.getSquareDetector(context.getEdgeBitmap());
+			if (logEdges) {
+				edgeImage = context.getEdgeImage();
+			}
+		} else {
+			// the edge image is refilled in place every frame
+			edgeImage = context.getEdgeImage();
+			squareDetector = context.getSquareDetector(edgeImage);
+		}
+		squareDetector.setEngine(engine);
+		// only keep the bins that can pass the detection threshold
+		squareDetector.setStreaming(streamingDetection);
+		// bins are indexed down to the lowest threshold the squares may be
+		// detected again with
+		squareDetector.setMinimumBorderProportion(Math.min(squareDetectionThreshold, lowestDetectionThreshold));
+		squareDetector.setPyramid(pyramidDetection);
+		// the sparse engine votes from edge pixels, so it has no centers to skip
+		squareDetector.setEarlyRejection(earlyRejection && engine != DetectionEngine.SPARSE_EDGES);
 		squareDetector.process();
 
+		if (orientedVoting && orientedPeakReport && debugStream != null) {
+			reportOrientedPeaks(context, squareDetector);
+		}
+
+		if (isDiagnosing()) {
+			if (squareDetector.isEarlyRejection()) {
+				long skipped = squareDetector.getSkippedCenterCount();
+				long total = skipped + squareDetector.getScannedCenterCount();
+				trySendDiagnostic("Early rejection skipped " + skipped + " of " + total + " centers, saving about "
+						+ squareDetector.getEstimatedTimeSaved() / 1000000 + " ms");
+			}
+
+			if (pyramidDetection) {
+				trySendDiagnostic("Pyramid detection counted " + squareDetector.getRefinedCenterCount()
+						+ " centers at full resolution");
+			}
+
+			if (streamingDetection) {
+				CandidateBuffer candidates = squareDetector.getCandidates();
+				trySendDiagnostic("Streaming detection kept " + candidates.size() + " candidates using "
+						+ candidates.getMemoryUsage() / 1024 + " KB");
+			} else {
+				Accumulator acc = squareDetector.getAccumulator();
+				trySendDiagnostic("Accumulator using " + acc.getMemoryUsage() / 1024 + " KB, "
+						+ acc.getAllocatedBytes() / 1024 + " KB allocated in " + acc.getAllocationCount()
+						+ " allocations over " + acc.getFrameCount() + " frames");
+			}
+		}
+
 		if (logger != null) {
-			if (logger.isLogging()) {
+			if (logger.isLogging() && edgeImage != null) {
 				// use a copy of the image
 				try {
 					logger.logImage(edgeImage);
@@ -219,9 +390,271 @@ public class GoodieAgent {
 			}
 		}
 
-		int averageRadius = (minSquareRadius + maxSquareRadius) / 2;
-		List<Square> squares = squareDetector.getBoxes(squareDetectionThreshold,
-				new GridFilter(averageRadius, averageRadius));
+		return squareDetector.getBoxes(squareDetectionThreshold, createGridFilter());
+	}
+
+	/**
+	 * Reports how many fewer raw peaks reach consolidation with oriented
+	 * voting, by voting on the same edges again without orientation
+	 * 
+	 * @param context
+	 *            Buffers holding the edges of the frame
+	 * @param squareDetector
+	 *            Detector that voted with oriented edges
+	 */
+	private void reportOrientedPeaks(DetectionContext context, SquareTransform squareDetector) {
+		SquareTransform unoriented = context.getComparisonDetector(context.getEdgeBitmap());
+		unoriented.setMinimumBorderProportion(squareDetectionThreshold);
+		unoriented.setEarlyRejection(earlyRejection);
+		unoriented.process();
+		int orientedPeaks = squareDetector.getScoreIndex().countPeaks(squareDetectionThreshold);
+		int unorientedPeaks = unoriented.getScoreIndex().countPeaks(squareDetectionThreshold);
+		trySendText("Oriented voting passed " + orientedPeaks + " raw peaks to consolidation, "
+				+ (unorientedPeaks - orientedPeaks) + " fewer than without orientation");
+	}
+
+	/**
+	 * Creates the filter that removes duplicate squares found by the square
+	 * Hough transform
+	 * 
+	 * @return
+	 */
+	private GridFilter createGridFilter() {
+		return createGridFilter(minSquareRadius, maxSquareRadius);
+	}
+
+	/**
+	 * Creates the filter that removes duplicate squares found within a radius
+	 * band
+	 * 
+	 * @param minRadius
+	 *            Minimum radius of squares detected
+	 * @param maxRadius
+	 *            Maximum radius of squares detected
+	 * @return
+	 */
+	private static GridFilter createGridFilter(int minRadius, int maxRadius) {
+		int averageRadius = (minRadius + maxRadius) / 2;
+		return new GridFilter(averageRadius, averageRadius);
+	}
+
+	/**
+	 * Detects the squares of the last frame again with the current detection
+	 * threshold. The square Hough transform indexes its bins by score, so this
+	 * is a binary search instead of another scan of the image, cheap enough
+	 * to follow a threshold slider.
+	 * <br>
+	 * May be called from any thread, such as the UI thread while another one
+	 * clicks. It only reads the score index published when the last frame was
+	 * detected, and the squares replace the grid of the board when the
+	 * detecting thread next processes a screenshot.
+	 * 
+	 * @return Number of squares found, or -1 if the last frame wasn't scanned
+	 *         with the square Hough transform or the threshold is below the
+	 *         lowest detection threshold
+	 */
+	public int redetectSquares() {
+		ScoredFrame frame = scoredFrame;
+		double threshold = squareDetectionThreshold;
+		if (frame == null || threshold < frame.scoreIndex.getMinimumProportion()) {
+			return -1;
+		}
+		List<Square> squares = Accumulator.consolidate(frame.scoreIndex.getPeaks(threshold),
+				createGridFilter(frame.minRadius, frame.maxRadius), frame.scoreIndex);
+		redetectedSquares.set(squares);
+		return squares.size();
+	}
+
+	/**
+	 * Finds squares in an edge matrix by fitting the lattice of the game board
+	 * 
+	 * @param context
+	 *            Buffers holding the output of the Canny edge detector
+	 * @return Squares in the occupied cells of the lattice
+	 */
+	private List<Square> detectLattice(DetectionContext context) {
+		LatticeDetector latticeDetector = context.getLatticeDetector();
+		List<Square> squares = latticeDetector.detect(context.getEdgeBitmap());
+		if (latticeDetector.getColumnPitch() == -1) {
+			trySendDiagnostic("No lattice found");
+		} else {
+			trySendDiagnostic("Lattice pitch " + latticeDetector.getColumnPitch() + " with side length "
+					+ latticeDetector.getSideLength() + " at (" + latticeDetector.getOriginX() + ", "
+					+ latticeDetector.getOriginY() + ")");
+		}
+
+		if (logger != null && logger.isLogging()) {
+			try {
+				logger.logImage(context.getEdgeImage());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return squares;
+	}
+
+	/**
+	 * Finds squares in an edge matrix from the bounding boxes of connected
+	 * edge components
+	 * 
+	 * @param context
+	 *            Buffers holding the output of the Canny edge detector
+	 * @return Squares found, after removing duplicates
+	 */
+	private List<Square> detectContourSquares(DetectionContext context) {
+		ContourSquareFinder contourFinder = context.getContourFinder();
+		List<Square> squares = contourFinder.find(context.getEdgeBitmap(), createGridFilter());
+		trySendDiagnostic("Contour detection labelled " + contourFinder.getComponentCount() + " components, "
+				+ contourFinder.getCornerSquareCount() + " squares found against the runs of components");
+
+		if (logger != null && logger.isLogging()) {
+			try {
+				logger.logImage(context.getEdgeImage());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return squares;
+	}
+
+	/**
+	 * Narrows the radius constraints to a band around the icon radius
+	 * estimated from the edges of the frame, or cached by an earlier session
+	 * with the same capture region size. Only done once per region size.
+	 * 
+	 * @param context
+	 *            Buffers holding the output of the Canny edge detector
+	 */
+	private void calibrateRadius(DetectionContext context) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (width == calibratedWidth && height == calibratedHeight) {
+			return;
+		}
+		// a square spanning two colour keyed tiles is as complete as a tile
+		radiusCalibration.setBelowHalfPitch(context.getEdgeDetector() instanceof ColorKeyEdgeDetector);
+		if (radiusCalibration.load(width, height)) {
+			trySendDiagnostic("Loaded radius band " + radiusCalibration.getMinRadius() + " to "
+					+ radiusCalibration.getMaxRadius() + " cached for " + width + "x" + height);
+			calibrationLoaded = true;
+		} else if (radiusCalibration.calibrate(context.getEdgeBitmap())) {
+			trySendDiagnostic("Calibrated radius band " + radiusCalibration.getMinRadius() + " to "
+					+ radiusCalibration.getMaxRadius() + " from lattice pitch "
+					+ radiusCalibration.getEstimator().getPitch());
+			calibrationLoaded = false;
+		} else {
+			// try again with the next frame
+			trySendDiagnostic("Radius calibration found no lattice, searching radii "
+					+ radiusCalibration.getSearchMinRadius() + " to " + radiusCalibration.getSearchMaxRadius());
+			minSquareRadius = radiusCalibration.getSearchMinRadius();
+			maxSquareRadius = radiusCalibration.getSearchMaxRadius();
+			return;
+		}
+		minSquareRadius = radiusCalibration.getMinRadius();
+		maxSquareRadius = radiusCalibration.getMaxRadius();
+		calibratedWidth = width;
+		calibratedHeight = height;
+		calibrationPending = true;
+	}
+
+	/**
+	 * Checks the radius band against the squares detected with it. A band
+	 * that finds a grid is cached for later sessions. A band that doesn't is
+	 * forgotten, so the next detection estimates the radius again.
+	 * 
+	 * @param squares
+	 *            Squares detected with the band of the last calibration
+	 * @return False if a cached band found no grid and the frame should be
+	 *         detected again with a new estimate
+	 */
+	private boolean confirmCalibration(List<Square> squares) {
+		if (!calibrationPending) {
+			return true;
+		}
+		calibrationPending = false;
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (squares.size() >= MIN_CALIBRATION_SQUARES) {
+			if (!calibrationLoaded) {
+				radiusCalibration.save(width, height);
+				trySendDiagnostic("Saved radius band " + minSquareRadius + " to " + maxSquareRadius + " for " + width
+						+ "x" + height + " after finding " + squares.size() + " squares");
+			}
+			return true;
+		}
+		calibratedWidth = 0;
+		calibratedHeight = 0;
+		if (calibrationLoaded) {
+			// the page may have been zoomed since the band was cached
+			radiusCalibration.clear(width, height);
+			trySendDiagnostic("Cached radius band found " + squares.size() + " squares, estimating it again");
+			return false;
+		}
+		trySendDiagnostic("Radius band found " + squares.size() + " squares, estimating it again with the next frame");
+		return true;
+	}
+
+	/**
+	 * Determines whether the radius band used for the current frame size is
+	 * already known, so the squares can be looked up before finding edges
+	 * 
+	 * @return True if no calibration is needed for the frame
+	 */
+	private boolean isRadiusCalibrated() {
+		return radiusCalibration == null
+				|| (image.getWidth() == calibratedWidth && image.getHeight() == calibratedHeight);
+	}
+
+	/**
+	 * Hashes every setting the detected squares depend on, to combine with
+	 * the frame hash as the key of the square cache
+	 * 
+	 * @return Hash of the detection settings
+	 */
+	private long hashDetectionSettings() {
+		long hash = Double.doubleToLongBits(squareDetectionThreshold);
+		hash = FrameCache.combine(hash, Double.doubleToLongBits(lowestDetectionThreshold));
+		hash = FrameCache.combine(hash, ((long) minSquareRadius << 32) | maxSquareRadius);
+		hash = FrameCache.combine(hash, detectionEngine.ordinal());
+		int flags = (streamingDetection ? 1 : 0) | (pyramidDetection ? 2 : 0) | (latticeDetection ? 4 : 0)
+				| (contourDetection ? 8 : 0) | (earlyRejection ? 16 : 0) | (orientedVoting ? 32 : 0);
+		return FrameCache.combine(hash, flags);
+	}
+
+	public void detectSquares() {
+		// icon IDs of cached frames were computed for the previous grid
+		iconCache.clear();
+		// squares detected again with the last frame are out of date
+		redetectedSquares.set(null);
+		List<Square> squares = null;
+		long key = 0;
+		if (frameCaching && isRadiusCalibrated()) {
+			key = FrameCache.combine(frameHash, hashDetectionSettings());
+			squares = squareCache.get(key);
+		}
+		if (squares != null) {
+			// the edges and squares of an unchanged frame are the same
+			trySendDiagnostic("Frame unchanged, reusing " + squares.size() + " cached squares");
+			if (key != scannedFrameKey) {
+				// the published score index is of another frame
+				scoredFrame = null;
+			}
+		} else {
+			squares = detectFrameSquares();
+			if (radiusCalibration != null && !confirmCalibration(squares)) {
+				squares = detectFrameSquares();
+				confirmCalibration(squares);
+			}
+			if (frameCaching) {
+				// the radius band may have been calibrated by this frame
+				scannedFrameKey = FrameCache.combine(frameHash, hashDetectionSettings());
+				squareCache.put(scannedFrameKey, squares);
+			}
+		}
+		if (frameCaching && isDiagnosing()) {
+			trySendDiagnostic("Square cache " + squareCache.getHitCount() + " hits, " + squareCache.getMissCount()
+					+ " misses");
+		}
 
 		if (logger != null && logger.isLogging() && decorator != null) {
 			try {
@@ -242,6 +675,43 @@ public class GoodieAgent {
 		board.setGridLocations(squares);
 	}
 
+	/**
+	 * Finds the edges of the frame and detects the squares in them with the
+	 * selected detector
+	 * 
+	 * @return Squares found
+	 */
+	private List<Square> detectFrameSquares() {
+		// the context keeps the matrices between frames of the same size
+		DetectionContext context = detectionContexts.get();
+		context.detectEdges(image);
+		if (radiusCalibration != null) {
+			calibrateRadius(context);
+		}
+		context.setRadiusRange(minSquareRadius, maxSquareRadius);
+		List<Square> squares;
+		if (latticeDetection) {
+			squares = detectLattice(context);
+		} else if (contourDetection) {
+			squares = detectContourSquares(context);
+		} else {
+			squares = detectHoughSquares(context);
+		}
+		if (latticeDetection || contourDetection) {
+			scoredFrame = null;
+		} else {
+			// the index is built for the first query and not modified again
+			scoredFrame = new ScoredFrame(context.getSquareDetector().getScoreIndex(), minSquareRadius,
+					maxSquareRadius);
+		}
+		if (isDiagnosing()) {
+			trySendDiagnostic("Frame copied " + PixelBuffer.getBytesCopied() / 1024 + " KB of pixel data");
+			trySendDiagnostic("Detection buffers allocated " + context.getAllocatedBytes() / 1024 + " KB in "
+					+ context.getAllocationCount() + " allocations over " + context.getFrameCount() + " frames");
+		}
+		return squares;
+	}
+
 	public int getDelayBetweenClicks() {
 		return delayBetweenClicks;
 	}
@@ -254,6 +724,70 @@ public class GoodieAgent {
 		return delayUpDown;
 	}
 
+	public double getSquareDetectionThreshold() {
+		return squareDetectionThreshold;
+	}
+
+	public double getLowestDetectionThreshold() {
+		return lowestDetectionThreshold;
+	}
+
+	public DetectionEngine getDetectionEngine() {
+		return detectionEngine;
+	}
+
+	public boolean isEarlyRejection() {
+		return earlyRejection;
+	}
+
+	public boolean isOrientedVoting() {
+		return orientedVoting;
+	}
+
+	public boolean isOrientedPeakReport() {
+		return orientedPeakReport;
+	}
+
+	public boolean isLatticeDetection() {
+		return latticeDetection;
+	}
+
+	public boolean isRadiusCalibration() {
+		return radiusCalibration != null;
+	}
+
+	public int getMinSquareRadius() {
+		return minSquareRadius;
+	}
+
+	public int getMaxSquareRadius() {
+		return maxSquareRadius;
+	}
+
+	public boolean isContourDetection() {
+		return contourDetection;
+	}
+
+	public boolean isPyramidDetection() {
+		return pyramidDetection;
+	}
+
+	public boolean isStreamingDetection() {
+		return streamingDetection;
+	}
+
+	public boolean isFrameCaching() {
+		return frameCaching;
+	}
+
+	public FrameCache<List<Square>> getSquareCache() {
+		return squareCache;
+	}
+
+	public FrameCache<int[][]> getIconCache() {
+		return iconCache;
+	}
+
 	public boolean isDone() {
 		return board.isEmpty();
 	}
@@ -279,7 +813,28 @@ public class GoodieAgent {
 	// }
 
 	public void processScreen() {
-		board.setImage(image);
+		List<Square> redetected = redetectedSquares.getAndSet(null);
+		if (redetected != null) {
+			// icon IDs of cached frames were computed for the previous grid
+			iconCache.clear();
+			board.setGridLocations(redetected);
+		}
+		if (!frameCaching || !board.isInitialized()) {
+			board.setImage(image);
+			return;
+		}
+		// squares are only ever removed from the grid, so the number
+		// remaining identifies which ones the icon IDs were computed without
+		long key = FrameCache.combine(frameHash, board.getCountRemaining());
+		int[][] iconIds = iconCache.get(key);
+		if (iconIds != null) {
+			board.setImage(image, iconIds);
+			trySendDiagnostic("Frame unchanged, reusing cached icon IDs");
+		} else {
+			board.setImage(image);
+			iconCache.put(key, board.copyIconIds());
+		}
+		trySendDiagnostic("Icon cache " + iconCache.getHitCount() + " hits, " + iconCache.getMissCount() + " misses");
 	}
 
 	public void setDebugStream(DebugStream stream) {
@@ -312,6 +867,214 @@ public class GoodieAgent {
 		}
 	}
 
+	/**
+	 * Chooses the algorithm used to count edge pixels when detecting squares.
+	 * All engines detect the same squares.
+	 * 
+	 * @param engine
+	 *            Detection engine used by the next call to
+	 *            {@link #detectSquares()}
+	 */
+	public void setDetectionEngine(DetectionEngine engine) {
+		if (engine != null) {
+			this.detectionEngine = engine;
+		}
+	}
+
+	/**
+	 * Sets whether squares are detected without a full accumulator, keeping
+	 * only the bins that meet the detection threshold. Uses far less memory on
+	 * large captures, but can't be combined with
+	 * {@link DetectionEngine#SPARSE_EDGES}.
+	 * 
+	 * @param streamingDetection
+	 *            True to keep only candidate squares
+	 */
+	public void setStreamingDetection(boolean streamingDetection) {
+		this.streamingDetection = streamingDetection;
+	}
+
+	/**
+	 * Sets whether centers that can't reach the detection threshold are
+	 * skipped by the square Hough transform. Doesn't change the squares found.
+	 * 
+	 * @param earlyRejection
+	 *            True to skip centers in sparse areas of the image
+	 */
+	public void setEarlyRejection(boolean earlyRejection) {
+		this.earlyRejection = earlyRejection;
+	}
+
+	/**
+	 * Sets the proportion of a square's border that must be present in the
+	 * edge image for it to be detected. Takes effect on the next call to
+	 * {@link #detectSquares()}, or immediately with
+	 * {@link #redetectSquares()}.
+	 * 
+	 * @param squareDetectionThreshold
+	 *            Proportion of border that must be present
+	 */
+	public void setSquareDetectionThreshold(double squareDetectionThreshold) {
+		this.squareDetectionThreshold = squareDetectionThreshold;
+	}
+
+	/**
+	 * Sets the lowest detection threshold that {@link #redetectSquares()} can
+	 * use without scanning the image again. Lower values keep more bins in the
+	 * score index of each frame.
+	 * 
+	 * @param lowestDetectionThreshold
+	 *            Proportion of border that must be present
+	 */
+	public void setLowestDetectionThreshold(double lowestDetectionThreshold) {
+		this.lowestDetectionThreshold = lowestDetectionThreshold;
+	}
+
+	/**
+	 * Sets whether edge pixels only vote for the sides of a square that match
+	 * their gradient direction, horizontal edges for the top and bottom and
+	 * vertical edges for the left and right. Fewer false peaks reach
+	 * consolidation. Always counts with {@link DetectionEngine#BITMAP_POPCOUNT}.
+	 * 
+	 * @param orientedVoting
+	 *            True to vote by edge orientation
+	 */
+	public void setOrientedVoting(boolean orientedVoting) {
+		this.orientedVoting = orientedVoting;
+	}
+
+	/**
+	 * Sets whether oriented voting reports how many fewer raw peaks it passes
+	 * to consolidation. The report detects every frame a second time without
+	 * orientation, so it is only meant for diagnosing oriented voting.
+	 * 
+	 * @param orientedPeakReport
+	 *            True to compare with unoriented voting every frame
+	 */
+	public void setOrientedPeakReport(boolean orientedPeakReport) {
+		this.orientedPeakReport = orientedPeakReport;
+	}
+
+	/**
+	 * Sets whether squares are found by fitting the regular lattice of the
+	 * game board instead of with the square Hough transform. Works best when
+	 * the screen region is cropped close to the board.
+	 * 
+	 * @param latticeDetection
+	 *            True to fit a lattice
+	 */
+	public void setLatticeDetection(boolean latticeDetection) {
+		this.latticeDetection = latticeDetection;
+	}
+
+	/**
+	 * Sets whether the radius constraints given to the constructor are a wide
+	 * search range, narrowed to a band around the icon radius estimated from
+	 * the first frame of each capture region size. The band is cached in the
+	 * user's preferences for later sessions.
+	 * 
+	 * @param calibrate
+	 *            True to estimate the radius of the icons
+	 */
+	public void setRadiusCalibration(boolean calibrate) {
+		if (calibrate && radiusCalibration == null) {
+			setRadiusCalibration(new RadiusCalibration(
+					Preferences.userNodeForPackage(GoodieAgent.class).node("radiusCalibration"), minSquareRadius,
+					maxSquareRadius));
+		} else if (!calibrate) {
+			setRadiusCalibration(null);
+		}
+	}
+
+	/**
+	 * Sets the calibration narrowing the radius constraints, such as one
+	 * caching its bands in another preferences node
+	 * 
+	 * @param calibration
+	 *            Calibration whose search range replaces the radius
+	 *            constraints, or null to search the range of the current
+	 *            calibration
+	 */
+	public void setRadiusCalibration(RadiusCalibration calibration) {
+		if (radiusCalibration != null) {
+			minSquareRadius = radiusCalibration.getSearchMinRadius();
+			maxSquareRadius = radiusCalibration.getSearchMaxRadius();
+		}
+		radiusCalibration = calibration;
+		if (calibration != null) {
+			minSquareRadius = calibration.getSearchMinRadius();
+			maxSquareRadius = calibration.getSearchMaxRadius();
+		}
+		calibratedWidth = 0;
+		calibratedHeight = 0;
+		calibrationPending = false;
+	}
+
+	/**
+	 * Sets whether squares are found from the bounding boxes of connected edge
+	 * components instead of with the square Hough transform. Takes time linear
+	 * in the number of edge pixels, and finds icons partially covered by
+	 * another icon. Ignored when lattice detection is enabled.
+	 * 
+	 * @param contourDetection
+	 *            True to label connected components
+	 */
+	public void setContourDetection(boolean contourDetection) {
+		this.contourDetection = contourDetection;
+	}
+
+	/**
+	 * Sets whether squares are first found in a half resolution edge image,
+	 * so only their neighborhoods are counted at full resolution. Can't be
+	 * combined with {@link DetectionEngine#SPARSE_EDGES}.
+	 * 
+	 * @param pyramidDetection
+	 *            True to search a half resolution image first
+	 */
+	public void setPyramidDetection(boolean pyramidDetection) {
+		this.pyramidDetection = pyramidDetection;
+	}
+
+	/**
+	 * Sets whether the squares and icon IDs of recent frames are remembered by
+	 * a hash of the frame, so capturing an unchanged frame again reuses them
+	 * instead of detecting them again. The game's animations lag behind the
+	 * clicks, so the same frame is often captured when no match is found.
+	 * <br>
+	 * Frames aren't hashed while caching is off, so turning it on hashes the
+	 * last captured frame.
+	 * 
+	 * @param frameCaching
+	 *            True to cache the results of recent frames
+	 */
+	public void setFrameCaching(boolean frameCaching) {
+		if (frameCaching && !this.frameCaching && image != null) {
+			frameHash = FrameCache.hash(image);
+		}
+		this.frameCaching = frameCaching;
+		if (!frameCaching) {
+			squareCache.clear();
+			iconCache.clear();
+		}
+	}
+
+	/**
+	 * Sets whether the timings, buffer statistics, cache counters and
+	 * calibration steps of each frame are sent to the debug stream. They are
+	 * off unless the {@link #DIAGNOSTICS_PROPERTY} is set, so the click loop
+	 * only reports its progress.
+	 * 
+	 * @param diagnostics
+	 *            True to send diagnostic messages
+	 */
+	public void setDiagnostics(boolean diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	public boolean isDiagnostics() {
+		return diagnostics;
+	}
+
 	public void setScreenRegion(Rectangle region) {
 		this.screenRegion = region;
 	}
@@ -321,4 +1084,42 @@ public class GoodieAgent {
 			debugStream.sendText(text);
 		}
 	}
+
+	/**
+	 * Whether diagnostic messages are sent to the debug stream
+	 * 
+	 * @return
+	 */
+	private boolean isDiagnosing() {
+		return diagnostics && debugStream != null;
+	}
+
+	/**
+	 * Sends a diagnostic message to the debug stream, only if diagnostics are
+	 * turned on
+	 * 
+	 * @param text
+	 *            Message to send
+	 */
+	private void trySendDiagnostic(String text) {
+		if (isDiagnosing()) {
+			debugStream.sendText(text);
+		}
+	}
+
+	/**
+	 * Score index of a frame with the radius band it was detected with. The
+	 * index isn't modified after detection, so it is shared with other
+	 * threads through a volatile field.
+	 */
+	private static class ScoredFrame {
+		private final ScoreIndex scoreIndex;
+		private final int minRadius, maxRadius;
+
+		private ScoredFrame(ScoreIndex scoreIndex, int minRadius, int maxRadius) {
+			this.scoreIndex = scoreIndex;
+			this.minRadius = minRadius;
+			this.maxRadius = maxRadius;
+		}
+	}
 }
@@ -0,0 +1,309 @@
+package goodieslink.controller;
+
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.lattice.RadiusEstimator;
+
+/**
+ * Narrows a wide range of icon radii to a tight band around the radius
+ * estimated from the first frame, so zooming the browser only needs a wider
+ * search range instead of a slower square Hough transform. Every radius
+ * searched adds a pass over the image, so a band of 5 radii found within a
+ * range of 16 is about three times faster.
+ * <br>
+ * The band is remembered per capture region size in the user's
+ * {@link Preferences}, so later sessions with the same region skip the
+ * estimate. An estimate is only saved once squares have been found with it,
+ * since other periodic parts of the capture can fool the estimator.
+ * <br>
+ * Edge detectors that draw the outline of every tile, such as the
+ * {@link goodieslink.processing.edge.ColorKeyEdgeDetector}, make a square
+ * spanning two neighbouring tiles as complete as a tile itself. The band can
+ * be kept below half the pitch of the lattice for them, see
+ * {@link #setBelowHalfPitch(boolean)}.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class RadiusCalibration {
+	/**
+	 * Default number of radii kept on each side of the estimated radius
+	 */
+	public static final int DEFAULT_MARGIN = 2;
+
+	/**
+	 * Preferences holding a child node for every calibrated region size
+	 */
+	private Preferences preferences;
+	/**
+	 * Estimates the radius from the periodicity of the edge image
+	 */
+	private RadiusEstimator estimator;
+	/**
+	 * Wide range of radii searched
+	 */
+	private int searchMinRadius, searchMaxRadius;
+	/**
+	 * Number of radii kept on each side of the estimated radius
+	 */
+	private int margin;
+	/**
+	 * Band of radii found by the last calibration or loaded from the cache
+	 */
+	private int minRadius, maxRadius;
+	/**
+	 * Pitch of the lattice the band was estimated from, or -1 if unknown
+	 */
+	private int pitch = -1;
+	/**
+	 * Whether the largest radius of the band is kept below half the pitch
+	 */
+	private boolean belowHalfPitch;
+
+	/**
+	 * Creates a calibration for a wide range of radii, using the
+	 * {@link #DEFAULT_MARGIN}
+	 *
+	 * @param preferences
+	 *            Preferences node the bands are cached in
+	 * @param searchMinRadius
+	 *            Smallest radius an icon could have
+	 * @param searchMaxRadius
+	 *            Largest radius an icon could have
+	 */
+	public RadiusCalibration(Preferences preferences, int searchMinRadius, int searchMaxRadius) {
+		this(preferences, searchMinRadius, searchMaxRadius, DEFAULT_MARGIN);
+	}
+
+	/**
+	 * Creates a calibration for a wide range of radii
+	 *
+	 * @param preferences
+	 *            Preferences node the bands are cached in
+	 * @param searchMinRadius
+	 *            Smallest radius an icon could have
+	 * @param searchMaxRadius
+	 *            Largest radius an icon could have
+	 * @param margin
+	 *            Number of radii kept on each side of the estimated radius
+	 */
+	public RadiusCalibration(Preferences preferences, int searchMinRadius, int searchMaxRadius, int margin) {
+		this.preferences = preferences;
+		this.searchMinRadius = searchMinRadius;
+		this.searchMaxRadius = searchMaxRadius;
+		this.margin = margin;
+		estimator = new RadiusEstimator(searchMinRadius, searchMaxRadius);
+		minRadius = searchMinRadius;
+		maxRadius = searchMaxRadius;
+	}
+
+	/**
+	 * Loads the band cached for a capture region size by an earlier
+	 * calibration
+	 *
+	 * @param width
+	 *            Width of capture region
+	 * @param height
+	 *            Height of capture region
+	 * @return True if a band was cached, false if the region must be
+	 *         calibrated
+	 */
+	public boolean load(int width, int height) {
+		try {
+			if (!preferences.nodeExists(regionKey(width, height))) {
+				return false;
+			}
+		} catch (BackingStoreException e) {
+			return false;
+		}
+		Preferences region = preferences.node(regionKey(width, height));
+		int cachedMin = region.getInt("minRadius", -1);
+		int cachedMax = region.getInt("maxRadius", -1);
+		int cachedPitch = region.getInt("pitch", -1);
+		if (belowHalfPitch) {
+			// bands cached before the pitch was saved must be estimated again
+			if (cachedPitch == -1) {
+				return false;
+			}
+			cachedMax = Math.min(cachedMax, maxRadiusBelowHalf(cachedPitch));
+		}
+		// the search range may have changed since the band was cached
+		cachedMin = Math.max(searchMinRadius, cachedMin);
+		cachedMax = Math.min(searchMaxRadius, cachedMax);
+		if (cachedMin > cachedMax) {
+			return false;
+		}
+		minRadius = cachedMin;
+		maxRadius = cachedMax;
+		pitch = cachedPitch;
+		return true;
+	}
+
+	/**
+	 * Estimates the radius of the icons in a frame. The band around it is
+	 * used for this session but not cached until {@link #save(int, int)}.
+	 *
+	 * @param edges
+	 *            Edges of a frame showing the game board
+	 * @return True if a band was found, false if the frame has no periodic
+	 *         structure and the whole search range must be used
+	 */
+	public boolean calibrate(EdgeBitmap edges) {
+		int radius = estimator.estimateRadius(edges);
+		pitch = estimator.getPitch();
+		if (radius == -1) {
+			minRadius = searchMinRadius;
+			maxRadius = searchMaxRadius;
+			return false;
+		}
+		minRadius = Math.max(searchMinRadius, radius - margin);
+		maxRadius = Math.min(searchMaxRadius, radius + margin);
+		if (belowHalfPitch) {
+			maxRadius = Math.max(minRadius, Math.min(maxRadius, maxRadiusBelowHalf(pitch)));
+		}
+		return true;
+	}
+
+	/**
+	 * Caches the current band for a capture region size, once squares found
+	 * with it have confirmed the estimate
+	 *
+	 * @param width
+	 *            Width of capture region
+	 * @param height
+	 *            Height of capture region
+	 */
+	public void save(int width, int height) {
+		Preferences region = preferences.node(regionKey(width, height));
+		region.putInt("minRadius", minRadius);
+		region.putInt("maxRadius", maxRadius);
+		region.putInt("pitch", pitch);
+		try {
+			region.flush();
+		} catch (BackingStoreException e) {
+			// still calibrated for this session
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Forgets the band cached for a capture region size
+	 *
+	 * @param width
+	 *            Width of capture region
+	 * @param height
+	 *            Height of capture region
+	 */
+	public void clear(int width, int height) {
+		try {
+			if (preferences.nodeExists(regionKey(width, height))) {
+				preferences.node(regionKey(width, height)).removeNode();
+			}
+		} catch (BackingStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Gets the largest radius of a square that fits within one tile of a
+	 * lattice, whose side is shorter than the pitch
+	 *
+	 * @param pitch
+	 *            Pitch of the lattice
+	 * @return
+	 */
+	private static int maxRadiusBelowHalf(int pitch) {
+		return (pitch - 2) / 2;
+	}
+
+	/**
+	 * Sets whether the largest radius of the band is kept below half the
+	 * pitch of the lattice, so that squares spanning two neighbouring tiles
+	 * aren't searched. Needed when the edge detector draws the outline of
+	 * every tile. Takes effect with the next load or calibration.
+	 *
+	 * @param belowHalfPitch
+	 *            True to keep the band below half the pitch
+	 */
+	public void setBelowHalfPitch(boolean belowHalfPitch) {
+		this.belowHalfPitch = belowHalfPitch;
+	}
+
+	/**
+	 * Gets whether the largest radius of the band is kept below half the
+	 * pitch of the lattice
+	 *
+	 * @return
+	 */
+	public boolean isBelowHalfPitch() {
+		return belowHalfPitch;
+	}
+
+	/**
+	 * Gets the pitch of the lattice the band was estimated from, by the last
+	 * calibration or an earlier session
+	 *
+	 * @return -1 if unknown
+	 */
+	public int getPitch() {
+		return pitch;
+	}
+
+	/**
+	 * Gets the name of the preferences node for a capture region size
+	 *
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	private static String regionKey(int width, int height) {
+		return width + "x" + height;
+	}
+
+	/**
+	 * Gets the estimator used by the last calibration
+	 *
+	 * @return
+	 */
+	public RadiusEstimator getEstimator() {
+		return estimator;
+	}
+
+	/**
+	 * Gets the smallest radius of the band
+	 *
+	 * @return
+	 */
+	public int getMinRadius() {
+		return minRadius;
+	}
+
+	/**
+	 * Gets the largest radius of the band
+	 *
+	 * @return
+	 */
+	public int getMaxRadius() {
+		return maxRadius;
+	}
+
+	/**
+	 * Gets the smallest radius of the search range
+	 *
+	 * @return
+	 */
+	public int getSearchMinRadius() {
+		return searchMinRadius;
+	}
+
+	/**
+	 * Gets the largest radius of the search range
+	 *
+	 * @return
+	 */
+	public int getSearchMaxRadius() {
+		return searchMaxRadius;
+	}
+}
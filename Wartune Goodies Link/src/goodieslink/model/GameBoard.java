@@ -654,6 +654,42 @@ public class GameBoard {
 		computeSquareIds();
 	}
 
+	/**
+	 * Assigns a new image with the icon IDs already computed for an identical
+	 * image, instead of comparing the icons again
+	 *
+	 * @param newImage
+	 *            New source image
+	 * @param cachedIds
+	 *            Icon IDs returned by {@link #copyIconIds()} for the same
+	 *            image, grid and removed squares
+	 */
+	public void setImage(BufferedImage newImage, int[][] cachedIds) {
+		matcher.setImage(newImage);
+		hasImage = true;
+		iconIds = new int[cachedIds.length][];
+		for (int row = 0; row < cachedIds.length; row++) {
+			iconIds[row] = cachedIds[row].clone();
+		}
+	}
+
+	/**
+	 * Copies the icon IDs of every grid location
+	 *
+	 * @return Icon IDs by row and column, or null if they haven't been
+	 *         computed
+	 */
+	public int[][] copyIconIds() {
+		if (iconIds == null) {
+			return null;
+		}
+		int[][] copy = new int[iconIds.length][];
+		for (int row = 0; row < iconIds.length; row++) {
+			copy[row] = iconIds[row].clone();
+		}
+		return copy;
+	}
+
 	/**
 	 * Sets image of matcher without trigging a computation of square IDs,
 	 * required when setting up the game board for the first time
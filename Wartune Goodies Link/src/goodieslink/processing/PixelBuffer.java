@@ -0,0 +1,244 @@
+package goodieslink.processing;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+
+/**
+ * Interleaved byte pixels shared by the stages of the vision pipeline. The
+ * pixels are the backing array of a {@link BufferedImage}, so the screen
+ * capture, the OpenCV matrices, the square Hough transform and the region
+ * matcher all read the same memory instead of calling
+ * {@link BufferedImage#getData()}, which copies the whole raster.
+ * <br>
+ * Every copy that cannot be avoided, such as moving pixels in and out of
+ * native OpenCV memory, goes through this class and is added to a running
+ * total of bytes copied. Resetting the total at the start of each frame shows
+ * how many bytes the frame copied.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class PixelBuffer {
+	/**
+	 * Total number of pixel bytes copied since the last reset
+	 */
+	private static final AtomicLong bytesCopied = new AtomicLong();
+
+	/**
+	 * Image sharing its pixels with this buffer
+	 */
+	private BufferedImage image;
+	/**
+	 * Backing array of the image
+	 */
+	private byte[] pixels;
+	/**
+	 * Number of bytes per pixel
+	 */
+	private int pixelSize;
+
+	/**
+	 * Allocates a buffer with a new image
+	 *
+	 * @param width
+	 *            Width of image
+	 * @param height
+	 *            Height of image
+	 * @param type
+	 *            Byte based image type, such as
+	 *            <code>BufferedImage.TYPE_3BYTE_BGR</code> or
+	 *            <code>BufferedImage.TYPE_BYTE_GRAY</code>
+	 */
+	public PixelBuffer(int width, int height, int type) {
+		this(new BufferedImage(width, height, type));
+	}
+
+	/**
+	 * Creates a buffer sharing the pixels of an image
+	 *
+	 * @param image
+	 *            Image stored as interleaved bytes
+	 */
+	private PixelBuffer(BufferedImage image) {
+		this.image = image;
+		this.pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		this.pixelSize = image.getColorModel().getNumComponents();
+	}
+
+	/**
+	 * Gets the pixels of an image without copying them when possible. Images
+	 * stored as a whole array of interleaved bytes are shared, any other image
+	 * is converted to <code>TYPE_3BYTE_BGR</code>, which is counted as a copy.
+	 *
+	 * @param image
+	 *            Image to read
+	 * @return A buffer holding the pixels of the image
+	 */
+	public static PixelBuffer wrap(BufferedImage image) {
+		if (isShareable(image)) {
+			return new PixelBuffer(image);
+		}
+		PixelBuffer converted = new PixelBuffer(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+		converted.copyFrom(image);
+		return converted;
+	}
+
+	/**
+	 * Gets a buffer with the given dimensions, reusing an existing buffer when
+	 * it already matches
+	 *
+	 * @param buffer
+	 *            Buffer from a previous frame, may be null
+	 * @param width
+	 *            Width of image
+	 * @param height
+	 *            Height of image
+	 * @param type
+	 *            Byte based image type
+	 * @return The existing buffer, or a new one if it did not match
+	 */
+	public static PixelBuffer reuse(PixelBuffer buffer, int width, int height, int type) {
+		if (buffer != null && buffer.getWidth() == width && buffer.getHeight() == height
+				&& buffer.image.getType() == type) {
+			return buffer;
+		}
+		return new PixelBuffer(width, height, type);
+	}
+
+	/**
+	 * Determines whether the pixels of an image can be used directly, which
+	 * requires the raster to hold exactly the image's interleaved bytes
+	 *
+	 * @param image
+	 * @return True if the backing array can be shared
+	 */
+	private static boolean isShareable(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		if (!(buffer instanceof DataBufferByte) || buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+			return false;
+		}
+		int type = image.getType();
+		if (type != BufferedImage.TYPE_BYTE_GRAY && type != BufferedImage.TYPE_3BYTE_BGR
+				&& type != BufferedImage.TYPE_4BYTE_ABGR) {
+			return false;
+		}
+		// sub-images share a larger parent array
+		int pixelSize = image.getColorModel().getNumComponents();
+		return ((DataBufferByte) buffer).getData().length == image.getWidth() * image.getHeight() * pixelSize;
+	}
+
+	/**
+	 * Draws another image into this buffer, converting its pixel format
+	 *
+	 * @param source
+	 *            Image with the same dimensions
+	 */
+	public void copyFrom(BufferedImage source) {
+		Graphics g = image.getGraphics();
+		g.drawImage(source, 0, 0, null);
+		g.dispose();
+		recordCopy(pixels.length);
+	}
+
+	/**
+	 * Copies the pixels of an OpenCV matrix into this buffer
+	 *
+	 * @param m
+	 *            Matrix with the same dimensions and number of channels
+	 */
+	public void copyFrom(Mat m) {
+		m.get(0, 0, pixels);
+		recordCopy(pixels.length);
+	}
+
+	/**
+	 * Copies the pixels of this buffer into an OpenCV matrix
+	 *
+	 * @param m
+	 *            Matrix with the same dimensions and number of channels
+	 */
+	public void copyTo(Mat m) {
+		m.put(0, 0, pixels);
+		recordCopy(pixels.length);
+	}
+
+	/**
+	 * Adds to the total number of bytes copied, for copies made outside this
+	 * class
+	 *
+	 * @param bytes
+	 *            Number of bytes copied
+	 */
+	public static void recordCopy(long bytes) {
+		bytesCopied.addAndGet(bytes);
+	}
+
+	/**
+	 * Gets the number of bytes copied since the last reset
+	 *
+	 * @return
+	 */
+	public static long getBytesCopied() {
+		return bytesCopied.get();
+	}
+
+	/**
+	 * Starts counting copied bytes from zero, such as at the start of a frame
+	 *
+	 * @return The number of bytes copied before the reset
+	 */
+	public static long resetBytesCopied() {
+		return bytesCopied.getAndSet(0);
+	}
+
+	/**
+	 * Gets the image sharing this buffer's pixels
+	 *
+	 * @return
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Gets the shared pixel array, with <code>getPixelSize()</code> bytes per
+	 * pixel in row order
+	 *
+	 * @return
+	 */
+	public byte[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Gets the number of bytes per pixel
+	 *
+	 * @return
+	 */
+	public int getPixelSize() {
+		return pixelSize;
+	}
+
+	/**
+	 * Gets width of image
+	 *
+	 * @return
+	 */
+	public int getWidth() {
+		return image.getWidth();
+	}
+
+	/**
+	 * Gets height of image
+	 *
+	 * @return
+	 */
+	public int getHeight() {
+		return image.getHeight();
+	}
+}
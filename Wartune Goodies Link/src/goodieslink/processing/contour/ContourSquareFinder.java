@@ -0,0 +1,580 @@
+package goodieslink.processing.contour;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import goodieslink.processing.Square;
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.hough.Accumulator;
+import goodieslink.processing.hough.PeakFilter;
+import goodieslink.processing.hough.VoteQuery;
+
+/**
+ * Finds squares by labelling the connected components of an edge image,
+ * instead of voting for every possible square with the
+ * {@link goodieslink.processing.hough.SquareTransform}.
+ * <br>
+ * The edge pixels are labelled in a single raster pass with a union-find
+ * structure, 8-connected, keeping the bounding box of every component. A
+ * component whose bounding box is square and within the radius constraints is
+ * the border of an icon. Components that aren't, such as two icons whose
+ * borders touch, an icon partially covered by another or a border broken into
+ * pieces by the edge detector, are given a second chance. Every long straight
+ * run of edge pixels within their bounding box may be a side of a square, so
+ * squares are placed against both ends of each run and kept if enough of
+ * their border, and of both their horizontal and vertical sides, is present
+ * in the edge image.
+ * Labelling takes time linear in the number of edge pixels, and the second
+ * step time linear in the area of the bounding boxes it searches.
+ * <br>
+ * The squares found can be consolidated with the same {@link PeakFilter}s as
+ * the square Hough transform, such as the
+ * {@link goodieslink.processing.hough.GridFilter}, using this finder as the
+ * {@link VoteQuery}. The votes of a square are the number of edge pixels on
+ * its border.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class ContourSquareFinder implements VoteQuery {
+	/**
+	 * Default largest difference between the width and height of a
+	 * component's bounding box for it to be considered square
+	 */
+	public static final int DEFAULT_ASPECT_TOLERANCE = 3;
+	/**
+	 * Default proportion of the border that must be present for a square
+	 * placed against a run of a component. Lower than the threshold of the
+	 * square Hough transform so that partially covered icons are still found.
+	 */
+	public static final double DEFAULT_BORDER_PROPORTION = 0.6;
+	/**
+	 * Proportion of both the horizontal and the vertical sides of a square
+	 * placed against a run that must be present. Keeps two parallel lines,
+	 * such as the grid lines or the frame of the board, from being taken for
+	 * a square by their length alone. The shaded side of an icon can be
+	 * faint, so each side isn't required on its own.
+	 */
+	public static final double MIN_SIDE_PAIR_PROPORTION = 0.45;
+
+	/**
+	 * Radius constraints of squares to detect
+	 */
+	private int minRadius, maxRadius;
+	/**
+	 * Largest difference between the width and height of a square component
+	 */
+	private int aspectTolerance;
+	/**
+	 * Proportion of the border that must be present for a square placed
+	 * against a run of a component
+	 */
+	private double borderProportion;
+
+	/**
+	 * Edge image searched by the last call to {@link #find(EdgeBitmap)}
+	 */
+	private EdgeBitmap edges;
+	/**
+	 * Union-find parent of each label. A label is the root of its component
+	 * when it is its own parent.
+	 */
+	private int[] parent;
+	/**
+	 * Bounding box of each label, only up to date for roots
+	 */
+	private int[] minX, minY, maxX, maxY;
+	/**
+	 * Number of labels handed out by the last labelling pass
+	 */
+	private int labelCount;
+	/**
+	 * Labels of the pixels in the previous and current rows. An entry is only
+	 * valid if the matching entry of the row arrays holds the row being
+	 * labelled, so the lines never need to be cleared.
+	 */
+	private int[] previousLabels, currentLabels;
+	/**
+	 * Row each entry of the label lines was written for
+	 */
+	private int[] previousRows, currentRows;
+	/**
+	 * Number of connected components found in the last frame
+	 */
+	private int componentCount;
+	/**
+	 * Number of squares found by placing squares against the runs of
+	 * components in the last frame
+	 */
+	private int cornerSquareCount;
+
+	/**
+	 * Creates a finder for squares within the given radius constraints, using
+	 * the {@link #DEFAULT_ASPECT_TOLERANCE} and
+	 * {@link #DEFAULT_BORDER_PROPORTION}
+	 *
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public ContourSquareFinder(int minRadius, int maxRadius) {
+		this(minRadius, maxRadius, DEFAULT_ASPECT_TOLERANCE, DEFAULT_BORDER_PROPORTION);
+	}
+
+	/**
+	 * Creates a finder for squares within the given radius constraints
+	 *
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 * @param aspectTolerance
+	 *            Largest difference between the width and height of a
+	 *            component's bounding box for it to be considered square
+	 * @param borderProportion
+	 *            Proportion of the border that must be present in the edge
+	 *            image for a square placed against a run of a component
+	 */
+	public ContourSquareFinder(int minRadius, int maxRadius, int aspectTolerance, double borderProportion) {
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+		this.aspectTolerance = aspectTolerance;
+		this.borderProportion = borderProportion;
+		parent = new int[256];
+		minX = new int[256];
+		minY = new int[256];
+		maxX = new int[256];
+		maxY = new int[256];
+	}
+
+	/**
+	 * Finds the squares formed by the connected components of an edge image
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 * @return Squares found, ordered by the position of the first pixel of
+	 *         their component. Squares found against the runs of one
+	 *         component may overlap squares of another, so the list should be
+	 *         consolidated with a {@link PeakFilter}.
+	 */
+	public List<Square> find(EdgeBitmap edges) {
+		this.edges = edges;
+		label(edges);
+
+		int minSide = 2 * minRadius + 1;
+		int maxSide = 2 * maxRadius + 1;
+		ArrayList<Square> squares = new ArrayList<>();
+		componentCount = 0;
+		cornerSquareCount = 0;
+		for (int l = 0; l < labelCount; l++) {
+			if (parent[l] != l) {
+				continue;
+			}
+			componentCount++;
+			int width = maxX[l] - minX[l] + 1;
+			int height = maxY[l] - minY[l] + 1;
+			if (width >= minSide && width <= maxSide && height >= minSide && height <= maxSide
+					&& Math.abs(width - height) <= aspectTolerance) {
+				squares.add(fromBox(minX[l], minY[l], width, height));
+			} else if (Math.max(width, height) >= minSide) {
+				// too large, too small in one direction or not square, but
+				// long enough to hold at least one side of a square
+				cornerSquareCount += findCornerSquares(minX[l], minY[l], maxX[l], maxY[l], squares);
+			}
+		}
+		return squares;
+	}
+
+	/**
+	 * Finds the squares formed by the connected components of an edge image
+	 * and removes duplicate squares using the given {@link PeakFilter}
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 * @param filter
+	 *            PeakFilter that will be used to determine how to resolve
+	 *            similar squares
+	 * @return Squares found, with duplicates removed by the filter
+	 */
+	public List<Square> find(EdgeBitmap edges, PeakFilter<Square> filter) {
+		return Accumulator.consolidate(find(edges), filter, this);
+	}
+
+	/**
+	 * Labels the 8-connected components of an edge image in a single raster
+	 * pass, keeping the bounding box of each component at its root label
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 */
+	private void label(EdgeBitmap edges) {
+		int width = edges.getWidth();
+		int height = edges.getHeight();
+		if (previousLabels == null || previousLabels.length < width) {
+			previousLabels = new int[width];
+			currentLabels = new int[width];
+			previousRows = new int[width];
+			currentRows = new int[width];
+		}
+		// no entry of the lines belongs to a row yet, not even the row above
+		// the first
+		Arrays.fill(previousRows, Integer.MIN_VALUE);
+		Arrays.fill(currentRows, Integer.MIN_VALUE);
+		labelCount = 0;
+
+		for (int y = 0; y < height; y++) {
+			int above = y - 1;
+			for (int x = edges.nextEdge(0, y); x != -1; x = edges.nextEdge(x + 1, y)) {
+				int l = -1;
+				// the neighbors already visited: left, and the three above
+				if (x > 0 && currentRows[x - 1] == y) {
+					l = currentLabels[x - 1];
+				}
+				for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+					if (previousRows[nx] == above) {
+						l = l == -1 ? previousLabels[nx] : union(l, previousLabels[nx]);
+					}
+				}
+				if (l == -1) {
+					l = newLabel(x, y);
+				} else {
+					l = find(l);
+					minX[l] = Math.min(minX[l], x);
+					maxX[l] = Math.max(maxX[l], x);
+					maxY[l] = y;
+				}
+				currentLabels[x] = l;
+				currentRows[x] = y;
+			}
+			// the current row becomes the previous one
+			int[] swap = previousLabels;
+			previousLabels = currentLabels;
+			currentLabels = swap;
+			swap = previousRows;
+			previousRows = currentRows;
+			currentRows = swap;
+		}
+	}
+
+	/**
+	 * Starts a new component at a pixel
+	 *
+	 * @param x
+	 * @param y
+	 * @return Label of the component
+	 */
+	private int newLabel(int x, int y) {
+		if (labelCount == parent.length) {
+			int capacity = parent.length * 2;
+			parent = Arrays.copyOf(parent, capacity);
+			minX = Arrays.copyOf(minX, capacity);
+			minY = Arrays.copyOf(minY, capacity);
+			maxX = Arrays.copyOf(maxX, capacity);
+			maxY = Arrays.copyOf(maxY, capacity);
+		}
+		int l = labelCount++;
+		parent[l] = l;
+		minX[l] = x;
+		maxX[l] = x;
+		minY[l] = y;
+		maxY[l] = y;
+		return l;
+	}
+
+	/**
+	 * Finds the root label of a component, halving the path to it
+	 *
+	 * @param l
+	 *            Any label of the component
+	 * @return Root label
+	 */
+	private int find(int l) {
+		while (parent[l] != l) {
+			parent[l] = parent[parent[l]];
+			l = parent[l];
+		}
+		return l;
+	}
+
+	/**
+	 * Joins two components, keeping the older label as the root so it stays
+	 * the first label of the component in raster order
+	 *
+	 * @param a
+	 *            Label of the first component
+	 * @param b
+	 *            Label of the second component
+	 * @return Root label of the joined component
+	 */
+	private int union(int a, int b) {
+		a = find(a);
+		b = find(b);
+		if (a == b) {
+			return a;
+		}
+		if (b < a) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		parent[b] = a;
+		minX[a] = Math.min(minX[a], minX[b]);
+		minY[a] = Math.min(minY[a], minY[b]);
+		maxX[a] = Math.max(maxX[a], maxX[b]);
+		maxY[a] = Math.max(maxY[a], maxY[b]);
+		return a;
+	}
+
+	/**
+	 * Creates the square best matching a nearly square bounding box, centered
+	 * on the box with an odd side length like the squares of the square Hough
+	 * transform
+	 *
+	 * @param x
+	 *            Left side of the box
+	 * @param y
+	 *            Top side of the box
+	 * @param width
+	 *            Width of the box
+	 * @param height
+	 *            Height of the box
+	 * @return Square covering the box
+	 */
+	private Square fromBox(int x, int y, int width, int height) {
+		int radius = Math.min(maxRadius, (Math.max(width, height) - 1) / 2);
+		int centerX = x + (width - 1) / 2;
+		int centerY = y + (height - 1) / 2;
+		return new Square(centerX - radius, centerY - radius, 1 + 2 * radius);
+	}
+
+	/**
+	 * Finds the squares whose sides lie on the long straight runs of edge
+	 * pixels within a component's bounding box. The box of a merged component
+	 * can be far from the squares in it, such as when a bevel or a covering
+	 * icon extends it, but each visible side of an icon is still a run that
+	 * starts or ends at one of its corners.
+	 *
+	 * @param left
+	 *            Left side of the box
+	 * @param top
+	 *            Top side of the box
+	 * @param right
+	 *            Right side of the box
+	 * @param bottom
+	 *            Bottom side of the box
+	 * @param squares
+	 *            List the squares found are added to
+	 * @return Number of squares added
+	 */
+	private int findCornerSquares(int left, int top, int right, int bottom, List<Square> squares) {
+		int first = squares.size();
+		// a side must be at least half visible to be searched from
+		int minRun = minRadius + 1;
+		for (int y = top; y <= bottom; y++) {
+			for (int x = edges.nextEdge(left, y); x != -1 && x <= right; x = edges.nextEdge(x + 1, y)) {
+				int end = x;
+				while (end < right && edges.get(end + 1, y)) {
+					end++;
+				}
+				if (end - x + 1 >= minRun) {
+					placeOnRun(x, y, end, y, squares, first);
+				}
+				x = end;
+			}
+		}
+		for (int x = left; x <= right; x++) {
+			for (int y = top; y <= bottom; y++) {
+				if (!edges.get(x, y)) {
+					continue;
+				}
+				int end = y;
+				while (end < bottom && edges.get(x, end + 1)) {
+					end++;
+				}
+				if (end - y + 1 >= minRun) {
+					placeOnRun(x, y, x, end, squares, first);
+				}
+				y = end;
+			}
+		}
+		return squares.size() - first;
+	}
+
+	/**
+	 * Places squares against both ends of a straight run, on both sides of
+	 * it, and keeps the size with the most border present for each if it
+	 * meets the border proportion
+	 *
+	 * @param startX
+	 *            Column of the first pixel of the run
+	 * @param startY
+	 *            Row of the first pixel of the run
+	 * @param endX
+	 *            Column of the last pixel of the run
+	 * @param endY
+	 *            Row of the last pixel of the run, the same as the first for
+	 *            a horizontal run
+	 * @param squares
+	 *            List the squares found are added to
+	 * @param first
+	 *            Position of the first square found in the same component
+	 */
+	private void placeOnRun(int startX, int startY, int endX, int endY, List<Square> squares, int first) {
+		boolean horizontal = startY == endY;
+		for (int corner = 0; corner < 4; corner++) {
+			boolean fromStart = (corner & 1) == 0;
+			// the run is the top or left side of the square
+			boolean after = (corner & 2) == 0;
+			Square best = null;
+			double bestProportion = borderProportion;
+			for (int radius = minRadius; radius <= maxRadius; radius++) {
+				int side = 1 + 2 * radius;
+				int x, y;
+				if (horizontal) {
+					x = fromStart ? startX : endX - side + 1;
+					y = after ? startY : startY - side + 1;
+				} else {
+					x = after ? startX : startX - side + 1;
+					y = fromStart ? startY : endY - side + 1;
+				}
+				if (x < 0 || y < 0 || x + side > edges.getWidth() || y + side > edges.getHeight()) {
+					continue;
+				}
+				double proportion = borderPresent(x, y, side);
+				if (proportion >= bestProportion) {
+					bestProportion = proportion;
+					best = new Square(x, y, side);
+				}
+			}
+			// the runs of each side of a square find it again
+			if (best != null && !containsSquare(squares, first, best)) {
+				squares.add(best);
+			}
+		}
+	}
+
+	/**
+	 * Determines whether part of a list holds a square with the same position
+	 * and size
+	 *
+	 * @param squares
+	 *            List of squares
+	 * @param from
+	 *            First position of the list to search
+	 * @param s
+	 *            Square to search for
+	 * @return True if the square is in the list
+	 */
+	private static boolean containsSquare(List<Square> squares, int from, Square s) {
+		for (int i = from; i < squares.size(); i++) {
+			Square other = squares.get(i);
+			if (other.getX() == s.getX() && other.getY() == s.getY() && other.getSideLength() == s.getSideLength()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Measures the proportion of a square's border present in the edge image
+	 *
+	 * @param x
+	 *            Left side of the square
+	 * @param y
+	 *            Top side of the square
+	 * @param side
+	 *            Side length of the square
+	 * @return Proportion of the border present, or 0 if the horizontal or
+	 *         the vertical sides have less than the
+	 *         {@link #MIN_SIDE_PAIR_PROPORTION}
+	 */
+	private double borderPresent(int x, int y, int side) {
+		int right = x + side - 1;
+		int bottom = y + side - 1;
+		int horizontal = edges.countRow(y, x, right) + edges.countRow(bottom, x, right);
+		int vertical = edges.countColumn(x, y + 1, bottom - 1) + edges.countColumn(right, y + 1, bottom - 1);
+		if (horizontal < MIN_SIDE_PAIR_PROPORTION * 2 * side || vertical < MIN_SIDE_PAIR_PROPORTION * 2 * (side - 2)) {
+			return 0;
+		}
+		return (double) (horizontal + vertical) / (4 * side - 4);
+	}
+
+	/**
+	 * Counts the edge pixels on the border of a square, each pixel once
+	 *
+	 * @param x
+	 *            Left side of the square
+	 * @param y
+	 *            Top side of the square
+	 * @param side
+	 *            Side length of the square
+	 * @return Number of edge pixels on the border
+	 */
+	private int countBorder(int x, int y, int side) {
+		int right = x + side - 1;
+		int bottom = y + side - 1;
+		return edges.countRow(y, x, right) + edges.countRow(bottom, x, right) + edges.countColumn(x, y + 1, bottom - 1)
+				+ edges.countColumn(right, y + 1, bottom - 1);
+	}
+
+	/**
+	 * Counts the edge pixels on the border of a square in the edge image of
+	 * the last frame
+	 *
+	 * @param centerX
+	 *            X coordinate of the center of the square
+	 * @param centerY
+	 *            Y coordinate of the center of the square
+	 * @param radius
+	 *            Radius of the square
+	 * @return The number of edge pixels, or -1 if the square isn't within the
+	 *         radius constraints or the image
+	 */
+	public int getVotes(int centerX, int centerY, int radius) {
+		if (edges == null || radius < minRadius || radius > maxRadius || centerX - radius < 0
+				|| centerY - radius < 0 || centerX + radius >= edges.getWidth()
+				|| centerY + radius >= edges.getHeight()) {
+			return -1;
+		}
+		return countBorder(centerX - radius, centerY - radius, 1 + 2 * radius);
+	}
+
+	@Override
+	public int getVotes(int... args) {
+		if (args.length == 3) {
+			return getVotes(args[0], args[1], args[2]);
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of connected components found in the last frame
+	 *
+	 * @return
+	 */
+	public int getComponentCount() {
+		return componentCount;
+	}
+
+	/**
+	 * Gets the number of squares found in the last frame by placing squares
+	 * against the runs of components that weren't square themselves
+	 *
+	 * @return
+	 */
+	public int getCornerSquareCount() {
+		return cornerSquareCount;
+	}
+
+	/**
+	 * Gets the number of bytes held for labels
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		long lines = previousLabels == null ? 0 : 4L * previousLabels.length;
+		return 4L * 5 * parent.length + 4 * lines;
+	}
+}
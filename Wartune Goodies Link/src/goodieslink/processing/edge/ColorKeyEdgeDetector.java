@@ -0,0 +1,201 @@
+package goodieslink.processing.edge;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import goodieslink.processing.PixelBuffer;
+
+/**
+ * {@link EdgeDetector} marking the pixels drawn in the colours of the icon
+ * frames instead of finding edges, using the lookup table of a
+ * {@link FrameColorModel}. The mask replaces the Canny edges as input to the
+ * square detectors, skipping the grayscale, gradient and hysteresis stages, so
+ * a frame costs one table read per pixel.
+ * <br>
+ * Every tile's outline is drawn, so on a packed board a square spanning from
+ * one tile to the next is as complete as the tile itself. The radius range
+ * searched should stay below half the pitch of the tiles, 21 for the 44 pixel
+ * pitch of the Wartune board.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class ColorKeyEdgeDetector implements EdgeDetector {
+	/**
+	 * Luma weights of red, green and blue in fixed point
+	 */
+	private static final int RED_WEIGHT = 4899, GREEN_WEIGHT = 9617, BLUE_WEIGHT = 1868;
+	/**
+	 * Fixed point precision of the luma weights
+	 */
+	private static final int GRAY_SHIFT = 14;
+
+	/**
+	 * Colours classified as frame pixels
+	 */
+	private FrameColorModel model;
+
+	/**
+	 * Dimensions of the frames the buffers are sized for
+	 */
+	private int width, height;
+	/**
+	 * Frame pixels, -1 (255 unsigned) for a frame colour and 0 elsewhere
+	 */
+	private byte[] mask;
+	/**
+	 * Pixels of the last frame, kept to convert to gray on request
+	 */
+	private PixelBuffer frame;
+	/**
+	 * Nanoseconds spent classifying the last frame
+	 */
+	private long classifyTime;
+
+	/**
+	 * Number of times the mask was allocated
+	 */
+	private long allocationCount;
+	/**
+	 * Total bytes of the masks allocated
+	 */
+	private long allocatedBytes;
+
+	/**
+	 * Creates a detector for the frames of the Wartune icon tiles
+	 */
+	public ColorKeyEdgeDetector() {
+		this(FrameColorModel.createWartuneModel());
+	}
+
+	/**
+	 * Creates a detector for frames of any colours
+	 *
+	 * @param model
+	 *            Colours classified as frame pixels
+	 */
+	public ColorKeyEdgeDetector(FrameColorModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * Gets the colours classified as frame pixels. Colours added to the model
+	 * are used from the next frame.
+	 *
+	 * @return
+	 */
+	public FrameColorModel getModel() {
+		return model;
+	}
+
+	@Override
+	public void detect(BufferedImage frame) {
+		long startTime = System.nanoTime();
+		this.frame = PixelBuffer.wrap(frame);
+		resize(frame.getWidth(), frame.getHeight());
+		byte[] table = model.getTable();
+		byte[] pixels = this.frame.getPixels();
+		int pixelSize = this.frame.getPixelSize();
+		int count = width * height;
+		if (pixelSize == 1) {
+			for (int i = 0; i < count; i++) {
+				int value = pixels[i] & 0xff;
+				mask[i] = table[FrameColorModel.index(value, value, value)];
+			}
+		} else {
+			// skip the alpha byte of ABGR
+			int p = pixelSize == 4 ? 1 : 0;
+			for (int i = 0; i < count; i++) {
+				mask[i] = table[((pixels[p + 2] & 0xf8) << 7) | ((pixels[p + 1] & 0xf8) << 2)
+						| ((pixels[p] & 0xff) >>> 3)];
+				p += pixelSize;
+			}
+		}
+		classifyTime = System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Reallocates the mask when the frame changes size
+	 *
+	 * @param width
+	 *            Width of frame
+	 * @param height
+	 *            Height of frame
+	 */
+	private void resize(int width, int height) {
+		if (mask != null && width == this.width && height == this.height) {
+			return;
+		}
+		this.width = width;
+		this.height = height;
+		mask = new byte[width * height];
+		allocationCount++;
+		allocatedBytes += (long) width * height;
+	}
+
+	@Override
+	public PixelBuffer getEdgeImage(PixelBuffer reuse) {
+		PixelBuffer buffer = PixelBuffer.reuse(reuse, width, height, BufferedImage.TYPE_BYTE_GRAY);
+		System.arraycopy(mask, 0, buffer.getPixels(), 0, mask.length);
+		PixelBuffer.recordCopy(mask.length);
+		return buffer;
+	}
+
+	@Override
+	public EdgeBitmap getEdgeBitmap(EdgeBitmap reuse) {
+		return EdgeBitmap.fromPixels(EdgeRowScanner.create(mask, 1), width, height, reuse);
+	}
+
+	/**
+	 * {@inheritDoc} No gray frame is needed to classify the pixels, so it is
+	 * converted from the last frame on request, which must not have been
+	 * overwritten since.
+	 */
+	@Override
+	public PixelBuffer getGrayImage(PixelBuffer reuse) {
+		PixelBuffer buffer = PixelBuffer.reuse(reuse, width, height, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] gray = buffer.getPixels();
+		byte[] pixels = frame.getPixels();
+		int pixelSize = frame.getPixelSize();
+		if (pixelSize == 1) {
+			System.arraycopy(pixels, 0, gray, 0, gray.length);
+		} else {
+			int p = pixelSize == 4 ? 1 : 0;
+			for (int i = 0; i < gray.length; i++) {
+				int luma = BLUE_WEIGHT * (pixels[p] & 0xff) + GREEN_WEIGHT * (pixels[p + 1] & 0xff)
+						+ RED_WEIGHT * (pixels[p + 2] & 0xff);
+				gray[i] = (byte) ((luma + (1 << (GRAY_SHIFT - 1))) >> GRAY_SHIFT);
+				p += pixelSize;
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Gets the frame pixels of the last frame, shared with this detector
+	 *
+	 * @return One byte per pixel, -1 (255 unsigned) for a frame colour and 0
+	 *         elsewhere
+	 */
+	public byte[] getMask() {
+		return mask;
+	}
+
+	@Override
+	public Map<String, Long> getStageTimes() {
+		Map<String, Long> times = new LinkedHashMap<>();
+		times.put("classify", classifyTime);
+		return times;
+	}
+
+	@Override
+	public long getAllocationCount() {
+		return allocationCount;
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+}
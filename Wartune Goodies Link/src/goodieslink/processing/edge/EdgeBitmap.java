@@ -0,0 +1,422 @@
+package goodieslink.processing.edge;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import goodieslink.processing.PixelBuffer;
+
+/**
+ * Edge image stored as one bit per pixel. Bits are packed into
+ * <code>long</code> words both along rows and, in a transposed copy, along
+ * columns, so the number of edge pixels on any horizontal or vertical segment
+ * can be counted 64 pixels at a time with {@link Long#bitCount(long)}.
+ * <br>
+ * Compared to a grayscale edge image this uses an eighth of the memory for
+ * each orientation.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class EdgeBitmap {
+	/**
+	 * Dimensions of edge image
+	 */
+	private int width, height;
+	/**
+	 * Number of words holding each row
+	 */
+	private int rowWords;
+	/**
+	 * Number of words holding each column
+	 */
+	private int columnWords;
+	/**
+	 * Edge bits in row order. Bit <code>x % 64</code> of word
+	 * <code>y * rowWords + x / 64</code> is set for an edge at (x, y).
+	 */
+	private long[] rows;
+	/**
+	 * Edge bits in column order. Bit <code>y % 64</code> of word
+	 * <code>x * columnWords + y / 64</code> is set for an edge at (x, y).
+	 */
+	private long[] columns;
+
+	/**
+	 * Creates a bitmap with no edges
+	 *
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 */
+	public EdgeBitmap(int width, int height) {
+		this.width = width;
+		this.height = height;
+		rowWords = (width + 63) >>> 6;
+		columnWords = (height + 63) >>> 6;
+		rows = new long[rowWords * height];
+		columns = new long[columnWords * width];
+	}
+
+	/**
+	 * Creates a bitmap from raw pixel data, where a byte of -1 (255 unsigned)
+	 * at the start of a pixel marks an edge
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @return A bitmap of the edges
+	 */
+	public static EdgeBitmap fromPixels(byte[] pixels, int pixelSize, int width, int height) {
+		return fromPixels(EdgeRowScanner.create(pixels, pixelSize), width, height);
+	}
+
+	/**
+	 * Creates a bitmap from raw pixel data read by the given scanner
+	 *
+	 * @param scanner
+	 *            Scanner of the edge image
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @return A bitmap of the edges
+	 */
+	public static EdgeBitmap fromPixels(EdgeRowScanner scanner, int width, int height) {
+		return fromPixels(scanner, width, height, null);
+	}
+
+	/**
+	 * Fills a bitmap from raw pixel data read by the given scanner, reusing
+	 * the bitmap of a previous frame when it has the same dimensions
+	 *
+	 * @param scanner
+	 *            Scanner of the edge image
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param reuse
+	 *            Bitmap to overwrite, may be null
+	 * @return A bitmap of the edges, either <code>reuse</code> or a new bitmap
+	 */
+	public static EdgeBitmap fromPixels(EdgeRowScanner scanner, int width, int height, EdgeBitmap reuse) {
+		EdgeBitmap bitmap = emptyBitmap(width, height, reuse);
+		for (int y = 0; y < height; y++) {
+			bitmap.setRow(y, scanner, y * width);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Creates a bitmap from an edge image. Grayscale images, like those
+	 * converted from OpenCV, mark edges with 255. Other images, like the
+	 * <code>TYPE_INT_ARGB</code> output of a Canny edge detector, mark edges
+	 * in white.
+	 *
+	 * @param image
+	 *            Edge image
+	 * @return A bitmap of the edges
+	 */
+	public static EdgeBitmap fromImage(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int type = image.getType();
+		if (type == BufferedImage.TYPE_BYTE_GRAY) {
+			byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			return fromPixels(pixels, 1, width, height);
+		}
+
+		EdgeBitmap bitmap = new EdgeBitmap(width, height);
+		if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) {
+			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			int i = 0;
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if ((pixels[i++] & 0xffffff) == 0xffffff) {
+						bitmap.set(x, y);
+					}
+				}
+			}
+		} else {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if ((image.getRGB(x, y) & 0xffffff) == 0xffffff) {
+						bitmap.set(x, y);
+					}
+				}
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Creates a bitmap straight from the single channel output of OpenCV's
+	 * Canny edge detector, copying one row at a time instead of the whole
+	 * image
+	 *
+	 * @param edges
+	 *            Edge matrix of type <code>CV_8UC1</code>
+	 * @return A bitmap of the edges
+	 */
+	public static EdgeBitmap fromMat(Mat edges) {
+		return fromMat(edges, null);
+	}
+
+	/**
+	 * Fills a bitmap from the single channel output of OpenCV's Canny edge
+	 * detector, reusing the bitmap of a previous frame when it has the same
+	 * dimensions
+	 *
+	 * @param edges
+	 *            Edge matrix of type <code>CV_8UC1</code>
+	 * @param reuse
+	 *            Bitmap to overwrite, may be null
+	 * @return A bitmap of the edges, either <code>reuse</code> or a new bitmap
+	 */
+	public static EdgeBitmap fromMat(Mat edges, EdgeBitmap reuse) {
+		if (edges.type() != CvType.CV_8UC1) {
+			throw new IllegalArgumentException("Unsupported matrix type: " + CvType.typeToString(edges.type()));
+		}
+		int width = edges.cols();
+		int height = edges.rows();
+		EdgeBitmap bitmap = emptyBitmap(width, height, reuse);
+		byte[] row = new byte[width];
+		EdgeRowScanner scanner = EdgeRowScanner.create(row, 1);
+		for (int y = 0; y < height; y++) {
+			edges.get(y, 0, row);
+			bitmap.setRow(y, scanner, 0);
+		}
+		PixelBuffer.recordCopy((long) width * height);
+		return bitmap;
+	}
+
+	/**
+	 * Gets a bitmap with no edges, clearing the bitmap of a previous frame
+	 * when it has the same dimensions
+	 *
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param reuse
+	 *            Bitmap to clear, may be null
+	 * @return Either <code>reuse</code> or a new bitmap
+	 */
+	private static EdgeBitmap emptyBitmap(int width, int height, EdgeBitmap reuse) {
+		if (reuse != null && reuse.width == width && reuse.height == height) {
+			reuse.clear();
+			return reuse;
+		}
+		return new EdgeBitmap(width, height);
+	}
+
+	/**
+	 * Creates a bitmap at half the resolution, where a pixel is an edge if any
+	 * pixel of the 2x2 block it covers is an edge
+	 *
+	 * @return A bitmap half the width and height, rounded up
+	 */
+	public EdgeBitmap downsample() {
+		EdgeBitmap half = new EdgeBitmap((width + 1) / 2, (height + 1) / 2);
+		for (int y = 0; y < height; y++) {
+			int start = y * rowWords;
+			for (int w = 0; w < rowWords; w++) {
+				long word = rows[start + w];
+				// visit only the set bits
+				while (word != 0) {
+					int x = (w << 6) + Long.numberOfTrailingZeros(word);
+					half.set(x >>> 1, y >>> 1);
+					word &= word - 1;
+				}
+			}
+		}
+		return half;
+	}
+
+	/**
+	 * Removes every edge from the bitmap
+	 */
+	public void clear() {
+		Arrays.fill(rows, 0);
+		Arrays.fill(columns, 0);
+	}
+
+	/**
+	 * Marks a pixel as an edge
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void set(int x, int y) {
+		// shifts only use the low 6 bits, so x % 64 is implied
+		rows[y * rowWords + (x >>> 6)] |= 1L << x;
+		columns[x * columnWords + (y >>> 6)] |= 1L << y;
+	}
+
+	/**
+	 * Marks the edges of a whole row, found 64 pixels at a time by a scanner.
+	 * The row must not have any edges yet.
+	 *
+	 * @param y
+	 *            Row to fill
+	 * @param scanner
+	 *            Scanner of the edge image
+	 * @param firstPixel
+	 *            Index of the first pixel of the row in the scanned image
+	 */
+	private void setRow(int y, EdgeRowScanner scanner, int firstPixel) {
+		int start = y * rowWords;
+		long columnBit = 1L << y;
+		int columnWord = y >>> 6;
+		for (int w = 0; w < rowWords; w++) {
+			int x = w << 6;
+			long word = scanner.edgeMask(firstPixel + x, Math.min(64, width - x));
+			rows[start + w] = word;
+			while (word != 0) {
+				columns[(x + Long.numberOfTrailingZeros(word)) * columnWords + columnWord] |= columnBit;
+				word &= word - 1;
+			}
+		}
+	}
+
+	/**
+	 * Determines whether a pixel is an edge
+	 *
+	 * @param x
+	 * @param y
+	 * @return True if the pixel is an edge
+	 */
+	public boolean get(int x, int y) {
+		return (rows[y * rowWords + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Finds the next edge pixel of a row, skipping 64 pixels at a time where
+	 * there are no edges
+	 *
+	 * @param fromX
+	 *            First column to search, inclusive
+	 * @param y
+	 *            Row to search
+	 * @return Column of the next edge pixel, or -1 if there are none
+	 */
+	public int nextEdge(int fromX, int y) {
+		if (fromX >= width) {
+			return -1;
+		}
+		int start = y * rowWords;
+		int w = fromX >>> 6;
+		long word = rows[start + w] & (-1L << fromX);
+		while (word == 0) {
+			if (++w == rowWords) {
+				return -1;
+			}
+			word = rows[start + w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Counts the edge pixels in part of a row
+	 *
+	 * @param y
+	 *            Row to count
+	 * @param fromX
+	 *            First column, inclusive
+	 * @param toX
+	 *            Last column, inclusive
+	 * @return Number of edge pixels in the segment
+	 */
+	public int countRow(int y, int fromX, int toX) {
+		if (fromX > toX) {
+			return 0;
+		}
+		return countBits(rows, y * rowWords, fromX, toX);
+	}
+
+	/**
+	 * Counts the edge pixels in part of a column
+	 *
+	 * @param x
+	 *            Column to count
+	 * @param fromY
+	 *            First row, inclusive
+	 * @param toY
+	 *            Last row, inclusive
+	 * @return Number of edge pixels in the segment
+	 */
+	public int countColumn(int x, int fromY, int toY) {
+		if (fromY > toY) {
+			return 0;
+		}
+		return countBits(columns, x * columnWords, fromY, toY);
+	}
+
+	/**
+	 * Counts the set bits between two bit positions of a line of words
+	 *
+	 * @param words
+	 *            Bit storage
+	 * @param start
+	 *            Index of the first word of the line
+	 * @param from
+	 *            First bit, inclusive
+	 * @param to
+	 *            Last bit, inclusive
+	 * @return Number of set bits
+	 */
+	private static int countBits(long[] words, int start, int from, int to) {
+		int firstWord = start + (from >>> 6);
+		int lastWord = start + (to >>> 6);
+		// keep bits at or above from, and at or below to
+		long firstMask = -1L << from;
+		long lastMask = -1L >>> (63 - (to & 63));
+		if (firstWord == lastWord) {
+			return Long.bitCount(words[firstWord] & firstMask & lastMask);
+		}
+		int count = Long.bitCount(words[firstWord] & firstMask);
+		for (int w = firstWord + 1; w < lastWord; w++) {
+			count += Long.bitCount(words[w]);
+		}
+		return count + Long.bitCount(words[lastWord] & lastMask);
+	}
+
+	/**
+	 * Gets width of edge image
+	 *
+	 * @return
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets height of edge image
+	 *
+	 * @return
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the number of bytes used by both orientations of the bitmap
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		return 8L * (rows.length + columns.length);
+	}
+}
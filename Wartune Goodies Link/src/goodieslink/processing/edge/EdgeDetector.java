@@ -0,0 +1,78 @@
+package goodieslink.processing.edge;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+import goodieslink.processing.PixelBuffer;
+
+/**
+ * Stage finding the edges of a screen capture, so the square detectors don't
+ * depend on how they were found. The results of the last frame are copied
+ * out on request into buffers owned by the caller, which are reused when they
+ * already have the right size.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public interface EdgeDetector {
+
+	/**
+	 * Finds the edges of a frame
+	 *
+	 * @param frame
+	 *            Frame stored as <code>TYPE_3BYTE_BGR</code>
+	 */
+	public void detect(BufferedImage frame);
+
+	/**
+	 * Copies the edges of the last frame into a grayscale image, with 255 for
+	 * edges and 0 elsewhere
+	 *
+	 * @param reuse
+	 *            Buffer to fill, may be null
+	 * @return Buffer holding the edges, either <code>reuse</code> or a new
+	 *         buffer
+	 */
+	public PixelBuffer getEdgeImage(PixelBuffer reuse);
+
+	/**
+	 * Packs the edges of the last frame into a bitmap
+	 *
+	 * @param reuse
+	 *            Bitmap to overwrite, may be null
+	 * @return A bitmap of the edges, either <code>reuse</code> or a new bitmap
+	 */
+	public EdgeBitmap getEdgeBitmap(EdgeBitmap reuse);
+
+	/**
+	 * Copies the grayscale frame the edges of the last frame were found in
+	 *
+	 * @param reuse
+	 *            Buffer to fill, may be null
+	 * @return Buffer holding the grayscale frame, either <code>reuse</code> or
+	 *         a new buffer
+	 */
+	public PixelBuffer getGrayImage(PixelBuffer reuse);
+
+	/**
+	 * Gets how long each stage of the last frame took, so detectors can be
+	 * compared stage by stage
+	 *
+	 * @return Nanoseconds spent on each stage, by name in the order they run
+	 */
+	public Map<String, Long> getStageTimes();
+
+	/**
+	 * Gets the number of times the detector allocated its own buffers
+	 *
+	 * @return
+	 */
+	public long getAllocationCount();
+
+	/**
+	 * Gets the total bytes of the buffers the detector allocated
+	 *
+	 * @return
+	 */
+	public long getAllocatedBytes();
+}
@@ -0,0 +1,294 @@
+package goodieslink.processing.edge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the edge pixels, bytes of -1 (255 unsigned), in a run of consecutive
+ * pixels of an edge image. The run is returned as a mask with one bit per
+ * pixel, so callers can count the edges of a segment with
+ * {@link Long#bitCount(long)} or visit only the edge pixels instead of
+ * comparing every byte.
+ * <br>
+ * Two kernels are available. The {@link Kernel#SCALAR} kernel compares one
+ * byte at a time and works for any pixel size. The {@link Kernel#SWAR} kernel
+ * reads eight single byte pixels as one <code>long</code> and finds the edges
+ * among them with a few word operations, the widest vector the Java 8
+ * language gives access to. It is only faster on virtual machines that
+ * compile an unaligned <code>long</code> read of a byte array into a single
+ * load, which Java 9 and later do, so the kernel is chosen at runtime by
+ * {@link #preferredKernel(int)}.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public abstract class EdgeRowScanner {
+	/**
+	 * System property that overrides the preferred kernel, either
+	 * <code>SCALAR</code> or <code>SWAR</code>
+	 */
+	public static final String KERNEL_PROPERTY = "goodieslink.edgeKernel";
+
+	/**
+	 * Ways of finding the edges in a run of pixels
+	 *
+	 * @author Jonathan Schram
+	 *
+	 */
+	public enum Kernel {
+		/**
+		 * Compares one byte at a time
+		 */
+		SCALAR,
+		/**
+		 * Compares eight bytes at a time within a <code>long</code>, SIMD
+		 * within a register. Requires one byte per pixel.
+		 */
+		SWAR
+	}
+
+	/**
+	 * Lowest 7 bits of every byte of a word
+	 */
+	private static final long LOW_SEVEN = 0x7f7f7f7f7f7f7f7fL;
+	/**
+	 * Multiplier that gathers the lowest bit of each byte of a word into the
+	 * highest byte, the bit of byte <code>k</code> at bit <code>56 + k</code>
+	 */
+	private static final long GATHER = 0x0102040810204080L;
+
+	/**
+	 * Pixel data of edge image
+	 */
+	protected byte[] pixels;
+	/**
+	 * Number of bytes per pixel
+	 */
+	protected int pixelSize;
+
+	/**
+	 * Creates a scanner for an edge image
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel
+	 */
+	private EdgeRowScanner(byte[] pixels, int pixelSize) {
+		this.pixels = pixels;
+		this.pixelSize = pixelSize;
+	}
+
+	/**
+	 * Creates a scanner with the {@link #preferredKernel(int)}
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @return Scanner for the image
+	 */
+	public static EdgeRowScanner create(byte[] pixels, int pixelSize) {
+		return create(pixels, pixelSize, preferredKernel(pixelSize));
+	}
+
+	/**
+	 * Creates a scanner with the given kernel, falling back to the
+	 * {@link Kernel#SCALAR} kernel if the kernel can't read the image
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param kernel
+	 *            Kernel to use
+	 * @return Scanner for the image
+	 */
+	public static EdgeRowScanner create(byte[] pixels, int pixelSize, Kernel kernel) {
+		if (kernel == Kernel.SWAR && pixelSize == 1) {
+			return new SwarScanner(pixels);
+		}
+		return new ScalarScanner(pixels, pixelSize);
+	}
+
+	/**
+	 * Chooses the fastest kernel for images of a pixel size on this virtual
+	 * machine, unless {@link #KERNEL_PROPERTY} names one
+	 *
+	 * @param pixelSize
+	 *            Number of bytes per pixel
+	 * @return Preferred kernel
+	 */
+	public static Kernel preferredKernel(int pixelSize) {
+		String property = System.getProperty(KERNEL_PROPERTY);
+		if (property != null) {
+			return Kernel.valueOf(property.trim().toUpperCase());
+		}
+		if (pixelSize == 1 && javaVersion() >= 9) {
+			return Kernel.SWAR;
+		}
+		return Kernel.SCALAR;
+	}
+
+	/**
+	 * Gets the major version of the running Java specification, such as 8
+	 * for "1.8" or 11 for "11"
+	 *
+	 * @return Major version, or 0 if it can't be read
+	 */
+	private static int javaVersion() {
+		String version = System.getProperty("java.specification.version", "0");
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+		try {
+			return Integer.parseInt(version);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Finds the edges in a run of up to 64 consecutive pixels
+	 *
+	 * @param pixel
+	 *            Index of the first pixel, <code>y * width + x</code>
+	 * @param length
+	 *            Number of pixels, from 1 to 64
+	 * @return Mask with bit <code>i</code> set if pixel
+	 *         <code>pixel + i</code> is an edge
+	 */
+	public abstract long edgeMask(int pixel, int length);
+
+	/**
+	 * Gets the kernel used by this scanner
+	 *
+	 * @return
+	 */
+	public abstract Kernel getKernel();
+
+	/**
+	 * Counts the edge pixels in a run of consecutive pixels
+	 *
+	 * @param pixel
+	 *            Index of the first pixel, <code>y * width + x</code>
+	 * @param length
+	 *            Number of pixels
+	 * @return Number of edge pixels
+	 */
+	public int countEdges(int pixel, int length) {
+		int count = 0;
+		for (int done = 0; done < length; done += 64) {
+			count += Long.bitCount(edgeMask(pixel + done, Math.min(64, length - done)));
+		}
+		return count;
+	}
+
+	/**
+	 * Adds to the counts of the edge pixels in a run of consecutive pixels,
+	 * only visiting the pixels that are edges
+	 *
+	 * @param pixel
+	 *            Index of the first pixel, <code>y * width + x</code>
+	 * @param length
+	 *            Number of pixels
+	 * @param counts
+	 *            Counts to change
+	 * @param countOffset
+	 *            Position in <code>counts</code> of the first pixel
+	 * @param change
+	 *            Amount added to the count of each edge pixel
+	 */
+	public void addEdges(int pixel, int length, int[] counts, int countOffset, int change) {
+		for (int done = 0; done < length; done += 64) {
+			long mask = edgeMask(pixel + done, Math.min(64, length - done));
+			while (mask != 0) {
+				counts[countOffset + done + Long.numberOfTrailingZeros(mask)] += change;
+				mask &= mask - 1;
+			}
+		}
+	}
+
+	/**
+	 * Compares one byte at a time
+	 */
+	private static class ScalarScanner extends EdgeRowScanner {
+		public ScalarScanner(byte[] pixels, int pixelSize) {
+			super(pixels, pixelSize);
+		}
+
+		@Override
+		public long edgeMask(int pixel, int length) {
+			long mask = 0;
+			int scan = pixel * pixelSize;
+			for (int i = 0; i < length; i++) {
+				if (pixels[scan] == -1) {
+					mask |= 1L << i;
+				}
+				scan += pixelSize;
+			}
+			return mask;
+		}
+
+		@Override
+		public Kernel getKernel() {
+			return Kernel.SCALAR;
+		}
+	}
+
+	/**
+	 * Compares eight single byte pixels at a time
+	 */
+	private static class SwarScanner extends EdgeRowScanner {
+		/**
+		 * View of the pixels for reading eight at a time, with the first
+		 * pixel in the lowest byte
+		 */
+		private ByteBuffer words;
+
+		public SwarScanner(byte[] pixels) {
+			super(pixels, 1);
+			words = ByteBuffer.wrap(pixels).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		@Override
+		public long edgeMask(int pixel, int length) {
+			long mask = 0;
+			int end = pixel + length;
+			int i = pixel;
+			// whole words, which may read past the run but not the array
+			for (; i < end && i + 8 <= pixels.length; i += 8) {
+				mask |= edgeBits(words.getLong(i)) << (i - pixel);
+			}
+			for (; i < end; i++) {
+				if (pixels[i] == -1) {
+					mask |= 1L << (i - pixel);
+				}
+			}
+			// drop the pixels read past the run
+			return length == 64 ? mask : mask & ((1L << length) - 1);
+		}
+
+		/**
+		 * Finds the bytes of a word that are -1
+		 *
+		 * @param word
+		 *            Eight pixels, the first in the lowest byte
+		 * @return Bit <code>k</code> set if byte <code>k</code> is -1
+		 */
+		private static long edgeBits(long word) {
+			// an edge byte is a zero byte of the complement, found without
+			// carries between bytes
+			long inverse = ~word;
+			long zero = ~(((inverse & LOW_SEVEN) + LOW_SEVEN) | inverse | LOW_SEVEN);
+			return ((zero >>> 7) * GATHER) >>> 56;
+		}
+
+		@Override
+		public Kernel getKernel() {
+			return Kernel.SWAR;
+		}
+	}
+}
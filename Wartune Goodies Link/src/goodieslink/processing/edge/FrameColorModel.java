@@ -0,0 +1,167 @@
+package goodieslink.processing.edge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Colours of the frames drawn around the icons, compiled into a lookup table
+ * indexed by the pixel's colour reduced to 5 bits per channel (RGB555), so a
+ * pixel is classified with one array read instead of a comparison against
+ * every colour.
+ * <br>
+ * Each colour is a box of a center colour plus or minus a tolerance on every
+ * channel. A cell of the table covers 8 values of each channel, and is set
+ * when any colour of the cell falls inside a box, so the table may accept
+ * colours up to 7 values outside the tolerance.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class FrameColorModel {
+	/**
+	 * Number of cells in the lookup table, 5 bits for each channel
+	 */
+	public static final int TABLE_SIZE = 1 << 15;
+
+	/**
+	 * Frame colours of the Wartune icon tiles as red, green, blue: the dark
+	 * outline, the gold top row and its corners, and the gold left column
+	 */
+	private static final int[][] WARTUNE_COLORS = { { 32, 8, 0 }, { 143, 116, 66 }, { 166, 134, 77 },
+			{ 148, 120, 68 }, { 153, 124, 71 }, { 98, 75, 38 } };
+
+	/**
+	 * Colour boxes as red, green, blue and tolerance
+	 */
+	private List<int[]> colors;
+	/**
+	 * -1 for a cell holding a frame colour and 0 elsewhere, or null when it
+	 * has to be compiled again
+	 */
+	private byte[] table;
+
+	/**
+	 * Creates a model with no frame colours
+	 */
+	public FrameColorModel() {
+		colors = new ArrayList<>();
+	}
+
+	/**
+	 * Creates the model of the frames of the Wartune icon tiles, measured on
+	 * a screenshot of the board
+	 *
+	 * @return A new model
+	 */
+	public static FrameColorModel createWartuneModel() {
+		FrameColorModel model = new FrameColorModel();
+		for (int[] color : WARTUNE_COLORS) {
+			model.addColor(color[0], color[1], color[2], 0);
+		}
+		return model;
+	}
+
+	/**
+	 * Adds a frame colour
+	 *
+	 * @param red
+	 *            Red of the center colour, 0 to 255
+	 * @param green
+	 *            Green of the center colour, 0 to 255
+	 * @param blue
+	 *            Blue of the center colour, 0 to 255
+	 * @param tolerance
+	 *            Largest difference on any channel from the center colour
+	 */
+	public void addColor(int red, int green, int blue, int tolerance) {
+		colors.add(new int[] { red, green, blue, Math.max(tolerance, 0) });
+		table = null;
+	}
+
+	/**
+	 * Removes every frame colour
+	 */
+	public void clear() {
+		colors.clear();
+		table = null;
+	}
+
+	/**
+	 * Gets the number of frame colours
+	 *
+	 * @return
+	 */
+	public int getColorCount() {
+		return colors.size();
+	}
+
+	/**
+	 * Gets the index of a colour in the lookup table
+	 *
+	 * @param red
+	 *            Red, 0 to 255
+	 * @param green
+	 *            Green, 0 to 255
+	 * @param blue
+	 *            Blue, 0 to 255
+	 * @return Index in the table returned by {@link #getTable()}
+	 */
+	public static int index(int red, int green, int blue) {
+		return ((red & 0xf8) << 7) | ((green & 0xf8) << 2) | (blue >>> 3);
+	}
+
+	/**
+	 * Determines whether a colour is classified as a frame colour
+	 *
+	 * @param red
+	 *            Red, 0 to 255
+	 * @param green
+	 *            Green, 0 to 255
+	 * @param blue
+	 *            Blue, 0 to 255
+	 * @return True if the table accepts the colour
+	 */
+	public boolean matches(int red, int green, int blue) {
+		return getTable()[index(red, green, blue)] != 0;
+	}
+
+	/**
+	 * Gets the lookup table, compiling it if a colour changed since it was
+	 * last used. The table is shared with this model and must not be
+	 * modified.
+	 *
+	 * @return {@link #TABLE_SIZE} cells indexed by {@link #index(int, int, int)},
+	 *         -1 (255 unsigned) for a frame colour and 0 elsewhere
+	 */
+	public byte[] getTable() {
+		if (table == null) {
+			byte[] compiled = new byte[TABLE_SIZE];
+			for (int[] color : colors) {
+				int tolerance = color[3];
+				int minRed = cell(color[0] - tolerance), maxRed = cell(color[0] + tolerance);
+				int minGreen = cell(color[1] - tolerance), maxGreen = cell(color[1] + tolerance);
+				int minBlue = cell(color[2] - tolerance), maxBlue = cell(color[2] + tolerance);
+				for (int r = minRed; r <= maxRed; r++) {
+					for (int g = minGreen; g <= maxGreen; g++) {
+						for (int b = minBlue; b <= maxBlue; b++) {
+							compiled[(r << 10) | (g << 5) | b] = -1;
+						}
+					}
+				}
+			}
+			table = compiled;
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the cell of a channel value, clamped to the range of a channel
+	 *
+	 * @param value
+	 *            Channel value, may be outside 0 to 255
+	 * @return Cell from 0 to 31
+	 */
+	private static int cell(int value) {
+		return Math.max(0, Math.min(255, value)) >>> 3;
+	}
+}
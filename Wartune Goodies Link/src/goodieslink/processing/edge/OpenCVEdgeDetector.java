@@ -0,0 +1,157 @@
+package goodieslink.processing.edge;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import goodieslink.ImageDataUtils;
+import goodieslink.processing.PixelBuffer;
+
+/**
+ * {@link EdgeDetector} using OpenCV's Canny edge detector, which needs the
+ * native OpenCV library to be loaded. The matrices are kept between frames and
+ * only reallocated when the frame changes size.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class OpenCVEdgeDetector implements EdgeDetector {
+	/**
+	 * Whether the native library is loaded, or null if not checked yet
+	 */
+	private static Boolean available;
+
+	/**
+	 * Dimensions of the frames the matrices are sized for
+	 */
+	private int width, height;
+	/**
+	 * Native copy of the frame
+	 */
+	private Mat frameMat;
+	/**
+	 * Grayscale frame the edges are detected in
+	 */
+	private Mat grayMat;
+	/**
+	 * Edges found by the Canny edge detector
+	 */
+	private Mat edgeMat;
+	/**
+	 * Nanoseconds spent copying the frame, converting it to gray and finding
+	 * the edges in the last frame
+	 */
+	private long copyTime, grayTime, cannyTime;
+
+	/**
+	 * Number of times the matrices were allocated
+	 */
+	private long allocationCount;
+	/**
+	 * Total bytes of the matrices allocated
+	 */
+	private long allocatedBytes;
+
+	/**
+	 * Creates a detector with no matrices, they are allocated by the first
+	 * frame
+	 */
+	public OpenCVEdgeDetector() {
+	}
+
+	/**
+	 * Determines whether the native OpenCV library has been loaded, so this
+	 * detector can be used
+	 *
+	 * @return True if OpenCV can be called
+	 */
+	public static synchronized boolean isAvailable() {
+		if (available == null) {
+			try {
+				new Mat().release();
+				available = true;
+			} catch (UnsatisfiedLinkError e) {
+				available = false;
+			}
+		}
+		return available;
+	}
+
+	@Override
+	public void detect(BufferedImage frame) {
+		resize(frame.getWidth(), frame.getHeight());
+		// conversion of bufferedImage to OpenCV Mat is adapted from:
+		// http://enfanote.blogspot.com/2013/06/converting-java-bufferedimage-to-opencv.html
+		long startTime = System.nanoTime();
+		PixelBuffer.wrap(frame).copyTo(frameMat);
+		long copyEnd = System.nanoTime();
+
+		// a blur with a 1x1 kernel used to be applied first, it leaves the
+		// frame unchanged so the pass is skipped
+		Imgproc.cvtColor(frameMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
+		long grayEnd = System.nanoTime();
+		Imgproc.Canny(grayMat, edgeMat, 50, 150, 3, false);
+		cannyTime = System.nanoTime() - grayEnd;
+		grayTime = grayEnd - copyEnd;
+		copyTime = copyEnd - startTime;
+	}
+
+	/**
+	 * Reallocates the matrices when the frame changes size
+	 *
+	 * @param width
+	 *            Width of frame
+	 * @param height
+	 *            Height of frame
+	 */
+	private void resize(int width, int height) {
+		if (frameMat != null && width == this.width && height == this.height) {
+			return;
+		}
+		this.width = width;
+		this.height = height;
+		frameMat = new Mat(height, width, CvType.CV_8UC3);
+		grayMat = new Mat(height, width, CvType.CV_8UC1);
+		edgeMat = new Mat(height, width, CvType.CV_8UC1);
+		allocationCount++;
+		allocatedBytes += 5L * width * height;
+	}
+
+	@Override
+	public PixelBuffer getEdgeImage(PixelBuffer reuse) {
+		return ImageDataUtils.toPixelBuffer(edgeMat, reuse);
+	}
+
+	@Override
+	public EdgeBitmap getEdgeBitmap(EdgeBitmap reuse) {
+		return EdgeBitmap.fromMat(edgeMat, reuse);
+	}
+
+	@Override
+	public PixelBuffer getGrayImage(PixelBuffer reuse) {
+		return ImageDataUtils.toPixelBuffer(grayMat, reuse);
+	}
+
+	@Override
+	public Map<String, Long> getStageTimes() {
+		Map<String, Long> times = new LinkedHashMap<>();
+		times.put("copy", copyTime);
+		times.put("gray", grayTime);
+		times.put("canny", cannyTime);
+		return times;
+	}
+
+	@Override
+	public long getAllocationCount() {
+		return allocationCount;
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+}
@@ -0,0 +1,191 @@
+package goodieslink.processing.edge;
+
+/**
+ * Edge image split by the direction of the intensity gradient at each edge
+ * pixel. Horizontal edges, where the intensity changes from one row to the
+ * next, can only be part of the top or bottom side of a square. Vertical
+ * edges can only be part of the left or right side. Edges close to diagonal,
+ * such as the corners of squares, are kept in both.
+ * <br>
+ * The gradient is measured with the same 3x3 Sobel operator OpenCV's Canny
+ * edge detector uses, replicating the pixels at the border of the image.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class OrientedEdges {
+	/**
+	 * Default ratio between the weaker and stronger gradient component below
+	 * which an edge is only given one orientation. 0.5 gives edges within
+	 * about 27 degrees of either axis a single orientation.
+	 */
+	public static final double DEFAULT_DIAGONAL_RATIO = 0.5;
+
+	/**
+	 * Every edge pixel
+	 */
+	private EdgeBitmap edges;
+	/**
+	 * Edge pixels that may be on the top or bottom side of a square
+	 */
+	private EdgeBitmap horizontal;
+	/**
+	 * Edge pixels that may be on the left or right side of a square
+	 */
+	private EdgeBitmap vertical;
+
+	/**
+	 * Creates oriented edges from already separated bitmaps
+	 *
+	 * @param edges
+	 *            Every edge pixel
+	 * @param horizontal
+	 *            Edges that may be on a horizontal side
+	 * @param vertical
+	 *            Edges that may be on a vertical side
+	 */
+	public OrientedEdges(EdgeBitmap edges, EdgeBitmap horizontal, EdgeBitmap vertical) {
+		this.edges = edges;
+		this.horizontal = horizontal;
+		this.vertical = vertical;
+	}
+
+	/**
+	 * Splits an edge image by the gradient of the grayscale image it was
+	 * detected in, using the {@link #DEFAULT_DIAGONAL_RATIO}
+	 *
+	 * @param gray
+	 *            Grayscale image the edges were detected in, one byte per
+	 *            pixel
+	 * @param edges
+	 *            Edge pixels of the image
+	 * @return Edges split by orientation
+	 */
+	public static OrientedEdges fromGray(byte[] gray, EdgeBitmap edges) {
+		return fromGray(gray, edges, DEFAULT_DIAGONAL_RATIO);
+	}
+
+	/**
+	 * Splits an edge image by the gradient of the grayscale image it was
+	 * detected in
+	 *
+	 * @param gray
+	 *            Grayscale image the edges were detected in, one byte per
+	 *            pixel
+	 * @param edges
+	 *            Edge pixels of the image
+	 * @param diagonalRatio
+	 *            Edges whose weaker gradient component is at least this
+	 *            proportion of the stronger one are given both orientations,
+	 *            between 0 and 1
+	 * @return Edges split by orientation
+	 */
+	public static OrientedEdges fromGray(byte[] gray, EdgeBitmap edges, double diagonalRatio) {
+		return fromGray(gray, edges, diagonalRatio, null);
+	}
+
+	/**
+	 * Splits an edge image by the gradient of the grayscale image it was
+	 * detected in, reusing the bitmaps of a previous frame when they have the
+	 * same dimensions
+	 *
+	 * @param gray
+	 *            Grayscale image the edges were detected in, one byte per
+	 *            pixel
+	 * @param edges
+	 *            Edge pixels of the image
+	 * @param diagonalRatio
+	 *            Edges whose weaker gradient component is at least this
+	 *            proportion of the stronger one are given both orientations,
+	 *            between 0 and 1
+	 * @param reuse
+	 *            Oriented edges to overwrite, may be null
+	 * @return Edges split by orientation, either <code>reuse</code> or a new
+	 *         object
+	 */
+	public static OrientedEdges fromGray(byte[] gray, EdgeBitmap edges, double diagonalRatio, OrientedEdges reuse) {
+		int width = edges.getWidth();
+		int height = edges.getHeight();
+		EdgeBitmap horizontal;
+		EdgeBitmap vertical;
+		if (reuse != null && reuse.horizontal.getWidth() == width && reuse.horizontal.getHeight() == height) {
+			horizontal = reuse.horizontal;
+			vertical = reuse.vertical;
+			horizontal.clear();
+			vertical.clear();
+		} else {
+			horizontal = new EdgeBitmap(width, height);
+			vertical = new EdgeBitmap(width, height);
+		}
+		for (int y = 0; y < height; y++) {
+			// replicate the border rows and columns
+			int above = Math.max(0, y - 1) * width;
+			int row = y * width;
+			int below = Math.min(height - 1, y + 1) * width;
+			for (int x = 0; x < width; x++) {
+				if (!edges.get(x, y)) {
+					continue;
+				}
+				int left = Math.max(0, x - 1);
+				int right = Math.min(width - 1, x + 1);
+				int dx = (gray[above + right] & 0xff) - (gray[above + left] & 0xff)
+						+ 2 * ((gray[row + right] & 0xff) - (gray[row + left] & 0xff))
+						+ (gray[below + right] & 0xff) - (gray[below + left] & 0xff);
+				int dy = (gray[below + left] & 0xff) - (gray[above + left] & 0xff)
+						+ 2 * ((gray[below + x] & 0xff) - (gray[above + x] & 0xff))
+						+ (gray[below + right] & 0xff) - (gray[above + right] & 0xff);
+				int absX = Math.abs(dx);
+				int absY = Math.abs(dy);
+				// a change between rows is a horizontal edge
+				if (absY >= diagonalRatio * absX) {
+					horizontal.set(x, y);
+				}
+				if (absX >= diagonalRatio * absY) {
+					vertical.set(x, y);
+				}
+			}
+		}
+		if (reuse != null && reuse.horizontal == horizontal) {
+			reuse.edges = edges;
+			return reuse;
+		}
+		return new OrientedEdges(edges, horizontal, vertical);
+	}
+
+	/**
+	 * Gets every edge pixel
+	 *
+	 * @return
+	 */
+	public EdgeBitmap getEdges() {
+		return edges;
+	}
+
+	/**
+	 * Gets the edge pixels that may be on the top or bottom side of a square
+	 *
+	 * @return
+	 */
+	public EdgeBitmap getHorizontal() {
+		return horizontal;
+	}
+
+	/**
+	 * Gets the edge pixels that may be on the left or right side of a square
+	 *
+	 * @return
+	 */
+	public EdgeBitmap getVertical() {
+		return vertical;
+	}
+
+	/**
+	 * Gets the number of bytes used by the oriented bitmaps, not counting the
+	 * bitmap of every edge
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		return horizontal.getMemoryUsage() + vertical.getMemoryUsage();
+	}
+}
@@ -0,0 +1,775 @@
+package goodieslink.processing.edge;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import goodieslink.processing.PixelBuffer;
+
+/**
+ * Pure Java {@link EdgeDetector} reproducing the integer arithmetic of the
+ * grayscale conversion and Canny edge detector of OpenCV 2.4, so it finds
+ * exactly the same edges as {@link OpenCVEdgeDetector} without the native
+ * library. The steps are the same as OpenCV's: a fixed point luma conversion,
+ * 3x3 Sobel derivatives with replicated borders, the L1 gradient magnitude,
+ * non-maximum suppression along one of four directions chosen with the
+ * tangent of 22.5 degrees, and hysteresis between a low and a high threshold.
+ * {@link CannyEdgeDetector} smooths with a Gaussian and interpolates floating
+ * point magnitudes instead, so its edges differ from OpenCV's.
+ * <br>
+ * The frame is split into tiles of whole rows that are processed in parallel.
+ * Suppressing a row needs the magnitude of the rows around it, which needs the
+ * gray rows around those, so each tile also computes the gradients of a halo
+ * of one row above and below it. By default each tile is processed in a
+ * single fused sweep over the captured pixels: a row is converted to gray just
+ * before the Sobel kernel first needs it, and a row is suppressed as soon as
+ * the gradients of the row below it are known. Only the last three gray rows
+ * and gradient rows are kept, so they stay in the cache instead of a
+ * grayscale frame and a tile of gradients being written out and read back.
+ * The gray halo rows are converted by both tiles next to them, which saves
+ * waiting for the whole frame to be gray before any gradient is computed. Only
+ * hysteresis, which follows edges across tiles, runs serially. Every buffer is
+ * kept between frames of the same size.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class TiledCannyEdgeDetector implements EdgeDetector {
+	/**
+	 * Default gradient magnitude an edge pixel must exceed, the value
+	 * {@link OpenCVEdgeDetector} uses
+	 */
+	public static final int DEFAULT_LOW_THRESHOLD = 50;
+	/**
+	 * Default gradient magnitude a pixel must exceed to start an edge, the
+	 * value {@link OpenCVEdgeDetector} uses
+	 */
+	public static final int DEFAULT_HIGH_THRESHOLD = 150;
+	/**
+	 * Default number of rows in each tile
+	 */
+	public static final int DEFAULT_TILE_HEIGHT = 64;
+
+	/**
+	 * Fixed point precision of the luma weights
+	 */
+	private static final int GRAY_SHIFT = 14;
+	/**
+	 * Luma weights of the first, second and third byte of a pixel. OpenCV is
+	 * asked for <code>COLOR_RGBA2GRAY</code> on a BGR frame, which reads the
+	 * blue byte as red, so blue is weighted as red and red as blue.
+	 */
+	private static final int FIRST_WEIGHT = 4899, SECOND_WEIGHT = 9617, THIRD_WEIGHT = 1868;
+	/**
+	 * Fixed point precision of the suppression direction test
+	 */
+	private static final int CANNY_SHIFT = 15;
+	/**
+	 * Tangent of 22.5 degrees in fixed point
+	 */
+	private static final int TG22 = (int) (0.4142135623730950488016887242097 * (1 << CANNY_SHIFT) + 0.5);
+
+	/**
+	 * Classes of pixels after non-maximum suppression
+	 */
+	private static final byte NOT_EDGE = 0, WEAK_EDGE = 1, STRONG_EDGE = 2;
+
+	/**
+	 * Dimensions of the frames the buffers are sized for
+	 */
+	private int width, height;
+	/**
+	 * Hysteresis thresholds of the gradient magnitude
+	 */
+	private int lowThreshold, highThreshold;
+	/**
+	 * Number of threads used when no executor is supplied
+	 */
+	private int threadCount;
+	/**
+	 * Number of rows in each tile
+	 */
+	private int tileHeight;
+	/**
+	 * Executor to run the tiles on, or null to create a {@link ForkJoinPool}
+	 * for each frame
+	 */
+	private ExecutorService executor;
+	/**
+	 * Whether the gray rows are converted inside the gradient pass, instead of
+	 * in a separate pass over the whole frame first
+	 */
+	private boolean fused;
+
+	/**
+	 * Grayscale frame
+	 */
+	private byte[] gray;
+	/**
+	 * Class of each pixel after non-maximum suppression
+	 */
+	private byte[] classes;
+	/**
+	 * Edges after hysteresis, -1 (255 unsigned) for an edge and 0 elsewhere
+	 */
+	private byte[] edges;
+	/**
+	 * Pixels whose neighbors hysteresis still has to visit
+	 */
+	private int[] stack;
+	/**
+	 * Gray and gradient rows of each thread
+	 */
+	private TileBuffers[] tileBuffers;
+
+	/**
+	 * Number of times the buffers were allocated
+	 */
+	private long allocationCount;
+	/**
+	 * Total bytes of the buffers allocated
+	 */
+	private long allocatedBytes;
+
+	/**
+	 * Nanoseconds spent on each stage of the last frame. Stages run on tiles
+	 * are summed over the threads.
+	 */
+	private AtomicLong grayTime, gradientTime, suppressionTime;
+	/**
+	 * Nanoseconds spent on hysteresis in the last frame
+	 */
+	private long hysteresisTime;
+
+	/**
+	 * Last three gray and gradient rows of the tile being processed, used by
+	 * one thread at a time. Row <code>y</code> is kept at
+	 * <code>(y % 3) * width</code> of the gray rows and at
+	 * <code>((y - startY + 1) % 3) * width</code> of the gradient rows.
+	 *
+	 * @author Jonathan Schram
+	 *
+	 */
+	private static class TileBuffers {
+		/**
+		 * L1 magnitude of the gradient, 0 for rows outside the frame
+		 */
+		private int[] magnitude;
+		/**
+		 * Horizontal and vertical Sobel derivatives
+		 */
+		private int[] dx, dy;
+		/**
+		 * Gray rows converted by the fused sweep
+		 */
+		private byte[] grayRows;
+
+		public TileBuffers(int width) {
+			magnitude = new int[3 * width];
+			dx = new int[3 * width];
+			dy = new int[3 * width];
+			grayRows = new byte[3 * width];
+		}
+	}
+
+	/**
+	 * Work done on each tile of rows
+	 *
+	 * @author Jonathan Schram
+	 *
+	 */
+	private interface TileTask {
+		/**
+		 * Processes the rows of a tile
+		 *
+		 * @param startY
+		 *            First row, inclusive
+		 * @param endY
+		 *            Last row, exclusive
+		 * @param buffers
+		 *            Gray and gradient rows owned by the calling thread
+		 */
+		public void run(int startY, int endY, TileBuffers buffers);
+	}
+
+	/**
+	 * Creates a serial detector with OpenCV's default thresholds
+	 */
+	public TiledCannyEdgeDetector() {
+		this.lowThreshold = DEFAULT_LOW_THRESHOLD;
+		this.highThreshold = DEFAULT_HIGH_THRESHOLD;
+		this.threadCount = 1;
+		this.tileHeight = DEFAULT_TILE_HEIGHT;
+		this.executor = null;
+		this.fused = true;
+		this.stack = new int[1024];
+		this.grayTime = new AtomicLong();
+		this.gradientTime = new AtomicLong();
+		this.suppressionTime = new AtomicLong();
+	}
+
+	/**
+	 * Sets the hysteresis thresholds
+	 *
+	 * @param lowThreshold
+	 *            Gradient magnitude an edge pixel must exceed
+	 * @param highThreshold
+	 *            Gradient magnitude a pixel must exceed to start an edge
+	 */
+	public void setThresholds(int lowThreshold, int highThreshold) {
+		// OpenCV swaps thresholds given in the wrong order
+		this.lowThreshold = Math.min(lowThreshold, highThreshold);
+		this.highThreshold = Math.max(lowThreshold, highThreshold);
+	}
+
+	/**
+	 * Sets the number of threads the tiles are processed on. Without an
+	 * executor from {@link #setExecutor(ExecutorService)} a pool is started
+	 * for each frame, so a detection loop should supply one.
+	 *
+	 * @param threadCount
+	 *            Number of threads, 1 to process the tiles serially
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount >= 1) {
+			this.threadCount = threadCount;
+		}
+	}
+
+	/**
+	 * Sets the number of rows in each tile. Smaller tiles balance the threads
+	 * better but compute more halo rows twice.
+	 *
+	 * @param tileHeight
+	 *            Rows per tile
+	 */
+	public void setTileHeight(int tileHeight) {
+		if (tileHeight >= 1) {
+			this.tileHeight = tileHeight;
+		}
+	}
+
+	/**
+	 * Supplies an executor to run the tiles on, so a thread pool can be shared
+	 * between frames. The executor is not shut down by this detector, and the
+	 * tiles are still split between {@link #setThreadCount(int)} tasks.
+	 *
+	 * @param executor
+	 *            Executor for tile tasks, or null to use a pool of
+	 *            {@link #setThreadCount(int)} threads
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Selects whether the gray rows are converted in the same sweep as the
+	 * gradients, which is the default, or in a separate pass over the whole
+	 * frame first. Both give the same edges, the separate pass is kept to
+	 * compare timings with.
+	 *
+	 * @param fused
+	 *            True to convert the captured pixels within the sweep
+	 */
+	public void setFused(boolean fused) {
+		this.fused = fused;
+	}
+
+	@Override
+	public void detect(BufferedImage frame) {
+		PixelBuffer buffer = PixelBuffer.wrap(frame);
+		resize(frame.getWidth(), frame.getHeight());
+		final byte[] pixels = buffer.getPixels();
+		final int pixelSize = buffer.getPixelSize();
+		grayTime.set(0);
+		gradientTime.set(0);
+		suppressionTime.set(0);
+		if (!fused) {
+			// every gray row must be done before the halos are read
+			runTiles(new TileTask() {
+				@Override
+				public void run(int startY, int endY, TileBuffers buffers) {
+					long startTime = System.nanoTime();
+					convertGray(pixels, pixelSize, startY, endY);
+					grayTime.addAndGet(System.nanoTime() - startTime);
+				}
+			});
+		}
+		runTiles(new TileTask() {
+			@Override
+			public void run(int startY, int endY, TileBuffers buffers) {
+				sweep(pixels, pixelSize, startY, endY, buffers);
+			}
+		});
+		long startTime = System.nanoTime();
+		hysteresis();
+		hysteresisTime = System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Reallocates the buffers when the frame changes size
+	 *
+	 * @param width
+	 *            Width of frame
+	 * @param height
+	 *            Height of frame
+	 */
+	private void resize(int width, int height) {
+		if (gray == null || width != this.width || height != this.height) {
+			this.width = width;
+			this.height = height;
+			gray = new byte[width * height];
+			classes = new byte[width * height];
+			edges = new byte[width * height];
+			tileBuffers = null;
+			allocationCount++;
+			allocatedBytes += 3L * width * height;
+		}
+		int threads = workerCount();
+		if (tileBuffers == null || tileBuffers.length < threads) {
+			tileBuffers = new TileBuffers[threads];
+			for (int t = 0; t < threads; t++) {
+				tileBuffers[t] = new TileBuffers(width);
+			}
+			allocationCount++;
+			allocatedBytes += 39L * width * threads;
+		}
+	}
+
+	/**
+	 * Gets the number of tasks the tiles are split between
+	 *
+	 * @return
+	 */
+	private int workerCount() {
+		int tileCount = (height + tileHeight - 1) / tileHeight;
+		if (executor == null && threadCount <= 1) {
+			return 1;
+		}
+		return Math.max(1, Math.min(threadCount, tileCount));
+	}
+
+	/**
+	 * Runs a task on every tile. Each worker takes every
+	 * <code>workers</code>th tile, so its gradient rows are never shared.
+	 *
+	 * @param task
+	 *            Work to do on each tile
+	 */
+	private void runTiles(final TileTask task) {
+		final int workers = workerCount();
+		if (workers == 1) {
+			for (int startY = 0; startY < height; startY += tileHeight) {
+				task.run(startY, Math.min(height, startY + tileHeight), tileBuffers[0]);
+			}
+			return;
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int w = 0; w < workers; w++) {
+			final int worker = w;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (int startY = worker * tileHeight; startY < height; startY += workers * tileHeight) {
+						task.run(startY, Math.min(height, startY + tileHeight), tileBuffers[worker]);
+					}
+					return null;
+				}
+			});
+		}
+		ExecutorService pool = executor;
+		if (pool == null) {
+			pool = new ForkJoinPool(threadCount);
+		}
+		try {
+			for (Future<Void> done : pool.invokeAll(tasks)) {
+				done.get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Edge detection did not finish", e);
+		} finally {
+			if (pool != executor) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Converts rows of the frame to gray
+	 *
+	 * @param pixels
+	 *            Pixel data of the frame
+	 * @param pixelSize
+	 *            Number of bytes per pixel, 1 for a frame that is already
+	 *            gray, 3 for BGR or 4 for ABGR
+	 * @param startY
+	 *            First row, inclusive
+	 * @param endY
+	 *            Last row, exclusive
+	 */
+	private void convertGray(byte[] pixels, int pixelSize, int startY, int endY) {
+		for (int y = startY; y < endY; y++) {
+			convertRow(pixels, pixelSize, y, gray, y * width);
+		}
+	}
+
+	/**
+	 * Converts a row of the frame to gray
+	 *
+	 * @param pixels
+	 *            Pixel data of the frame
+	 * @param pixelSize
+	 *            Number of bytes per pixel, 1, 3 or 4
+	 * @param y
+	 *            Row of the frame
+	 * @param out
+	 *            Buffer to write the gray row into
+	 * @param offset
+	 *            Index in <code>out</code> of the first pixel of the row
+	 */
+	private void convertRow(byte[] pixels, int pixelSize, int y, byte[] out, int offset) {
+		if (pixelSize == 1) {
+			System.arraycopy(pixels, y * width, out, offset, width);
+			return;
+		}
+		// skip the alpha byte of ABGR
+		int p = y * width * pixelSize + (pixelSize == 4 ? 1 : 0);
+		int end = offset + width;
+		for (int i = offset; i < end; i++) {
+			int luma = FIRST_WEIGHT * (pixels[p] & 0xff) + SECOND_WEIGHT * (pixels[p + 1] & 0xff)
+					+ THIRD_WEIGHT * (pixels[p + 2] & 0xff);
+			out[i] = (byte) ((luma + (1 << (GRAY_SHIFT - 1))) >> GRAY_SHIFT);
+			p += pixelSize;
+		}
+	}
+
+	/**
+	 * Finds the pixel classes of a tile in a single sweep down its rows and
+	 * halo. The gradients of each row are computed from the gray rows around
+	 * it, converted from the captured pixels first when fused, after which the
+	 * row above can be suppressed.
+	 *
+	 * @param pixels
+	 *            Pixel data of the frame
+	 * @param pixelSize
+	 *            Number of bytes per pixel, 1, 3 or 4
+	 * @param startY
+	 *            First row of the tile, inclusive
+	 * @param endY
+	 *            Last row of the tile, exclusive
+	 * @param buffers
+	 *            Gray and gradient rows owned by the calling thread
+	 */
+	private void sweep(byte[] pixels, int pixelSize, int startY, int endY, TileBuffers buffers) {
+		byte[] window = buffers.grayRows;
+		long gradientNanos = 0;
+		long suppressionNanos = 0;
+		// the halo rows need the gray rows two above and below the tile
+		int nextGray = Math.max(0, startY - 2);
+		for (int y = startY - 1; y <= endY; y++) {
+			long startTime = System.nanoTime();
+			int row = gradientRow(startY, y);
+			if (y < 0 || y >= height) {
+				Arrays.fill(buffers.magnitude, row, row + width, 0);
+			} else {
+				int above = Math.max(0, y - 1);
+				int below = Math.min(height - 1, y + 1);
+				if (fused) {
+					for (; nextGray <= below; nextGray++) {
+						int slot = (nextGray % 3) * width;
+						convertRow(pixels, pixelSize, nextGray, window, slot);
+						if (nextGray >= startY && nextGray < endY) {
+							System.arraycopy(window, slot, gray, nextGray * width, width);
+						}
+					}
+					sobelRow(window, (above % 3) * width, (y % 3) * width, (below % 3) * width, buffers, row);
+				} else {
+					sobelRow(gray, above * width, y * width, below * width, buffers, row);
+				}
+			}
+			long gradientEnd = System.nanoTime();
+			gradientNanos += gradientEnd - startTime;
+			if (y > startY) {
+				// the row above has the gradients of both its neighbors
+				suppressRow(y - 1, gradientRow(startY, y - 2), gradientRow(startY, y - 1), row, buffers);
+				suppressionNanos += System.nanoTime() - gradientEnd;
+			}
+		}
+		gradientTime.addAndGet(gradientNanos);
+		suppressionTime.addAndGet(suppressionNanos);
+	}
+
+	/**
+	 * Gets where the gradients of a row are kept while sweeping a tile
+	 *
+	 * @param startY
+	 *            First row of the tile
+	 * @param y
+	 *            Row of the frame, from <code>startY - 1</code> to the row
+	 *            below the tile
+	 * @return Index in the gradient rows of the first pixel of the row
+	 */
+	private int gradientRow(int startY, int y) {
+		return ((y - startY + 1) % 3) * width;
+	}
+
+	/**
+	 * Classifies the pixels of a row by non-maximum suppression and the
+	 * thresholds
+	 *
+	 * @param y
+	 *            Row of the frame
+	 * @param previous
+	 *            Index in the gradient rows of the row above
+	 * @param row
+	 *            Index in the gradient rows of the row
+	 * @param next
+	 *            Index in the gradient rows of the row below
+	 * @param buffers
+	 *            Gradient rows owned by the calling thread
+	 */
+	private void suppressRow(int y, int previous, int row, int next, TileBuffers buffers) {
+		int[] magnitude = buffers.magnitude;
+		int[] dx = buffers.dx;
+		int[] dy = buffers.dy;
+		int out = y * width;
+		for (int x = 0; x < width; x++) {
+			int m = magnitude[row + x];
+			byte pixelClass = NOT_EDGE;
+			if (m > lowThreshold) {
+				int xs = dx[row + x];
+				int ys = dy[row + x];
+				int ax = Math.abs(xs);
+				int ay = Math.abs(ys) << CANNY_SHIFT;
+				int tg22x = ax * TG22;
+				boolean maximum;
+				if (ay < tg22x) {
+					// horizontal gradient
+					maximum = m > magnitudeAt(magnitude, row, x - 1) && m >= magnitudeAt(magnitude, row, x + 1);
+				} else {
+					int tg67x = tg22x + (ax << (CANNY_SHIFT + 1));
+					if (ay > tg67x) {
+						// vertical gradient
+						maximum = m > magnitude[previous + x] && m >= magnitude[next + x];
+					} else {
+						// diagonal, down and right if the derivatives have
+						// the same sign
+						int s = (xs ^ ys) < 0 ? -1 : 1;
+						maximum = m > magnitudeAt(magnitude, previous, x - s)
+								&& m > magnitudeAt(magnitude, next, x + s);
+					}
+				}
+				if (maximum) {
+					pixelClass = m > highThreshold ? STRONG_EDGE : WEAK_EDGE;
+				}
+			}
+			classes[out + x] = pixelClass;
+		}
+	}
+
+	/**
+	 * Gets the magnitude of a pixel in a row of gradients, treating pixels
+	 * beyond the left and right of the frame as 0
+	 *
+	 * @param magnitude
+	 *            Magnitude rows
+	 * @param row
+	 *            Index of the first pixel of the row
+	 * @param x
+	 *            Column, may be -1 or <code>width</code>
+	 * @return
+	 */
+	private int magnitudeAt(int[] magnitude, int row, int x) {
+		return x < 0 || x >= width ? 0 : magnitude[row + x];
+	}
+
+	/**
+	 * Computes the 3x3 Sobel derivatives and L1 magnitude of a gray row,
+	 * replicating the pixels at the border. The kernels are separable, so
+	 * each column is smoothed and differenced vertically once and the results
+	 * are carried along the row for the horizontal half.
+	 *
+	 * @param gray
+	 *            Buffer holding the gray rows
+	 * @param above
+	 *            Index of the first pixel of the row above, the row itself
+	 *            at the top of the frame
+	 * @param center
+	 *            Index of the first pixel of the row
+	 * @param below
+	 *            Index of the first pixel of the row below, the row itself
+	 *            at the bottom of the frame
+	 * @param buffers
+	 *            Gradient rows to fill
+	 * @param row
+	 *            Index in the gradient rows of the first pixel of the row
+	 */
+	private void sobelRow(byte[] gray, int above, int center, int below, TileBuffers buffers, int row) {
+		int[] magnitude = buffers.magnitude;
+		int[] dx = buffers.dx;
+		int[] dy = buffers.dy;
+		// vertical sum and difference of the columns left of, at and right
+		// of x, the first column is replicated on the left
+		int top = gray[above] & 0xff;
+		int bottom = gray[below] & 0xff;
+		int sum = top + 2 * (gray[center] & 0xff) + bottom;
+		int difference = bottom - top;
+		int leftSum = sum;
+		int leftDifference = difference;
+		for (int x = 0; x < width; x++) {
+			int rightSum = sum;
+			int rightDifference = difference;
+			if (x + 1 < width) {
+				top = gray[above + x + 1] & 0xff;
+				bottom = gray[below + x + 1] & 0xff;
+				rightSum = top + 2 * (gray[center + x + 1] & 0xff) + bottom;
+				rightDifference = bottom - top;
+			}
+			int sx = rightSum - leftSum;
+			int sy = leftDifference + 2 * difference + rightDifference;
+			dx[row + x] = sx;
+			dy[row + x] = sy;
+			magnitude[row + x] = Math.abs(sx) + Math.abs(sy);
+			leftSum = sum;
+			leftDifference = difference;
+			sum = rightSum;
+			difference = rightDifference;
+		}
+	}
+
+	/**
+	 * Keeps the weak edges connected to a strong edge, following them with an
+	 * explicit stack across tile borders
+	 */
+	private void hysteresis() {
+		Arrays.fill(edges, (byte) 0);
+		int top = 0;
+		for (int i = 0; i < classes.length; i++) {
+			if (classes[i] != STRONG_EDGE || edges[i] != 0) {
+				continue;
+			}
+			edges[i] = -1;
+			stack[top++] = i;
+			while (top > 0) {
+				int pixel = stack[--top];
+				int x = pixel % width;
+				int y = pixel / width;
+				for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+					for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+						int neighbor = ny * width + nx;
+						if (classes[neighbor] != NOT_EDGE && edges[neighbor] == 0) {
+							edges[neighbor] = -1;
+							if (top == stack.length) {
+								stack = Arrays.copyOf(stack, stack.length * 2);
+							}
+							stack[top++] = neighbor;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public PixelBuffer getEdgeImage(PixelBuffer reuse) {
+		return copyToImage(edges, reuse);
+	}
+
+	@Override
+	public EdgeBitmap getEdgeBitmap(EdgeBitmap reuse) {
+		return EdgeBitmap.fromPixels(EdgeRowScanner.create(edges, 1), width, height, reuse);
+	}
+
+	@Override
+	public PixelBuffer getGrayImage(PixelBuffer reuse) {
+		return copyToImage(gray, reuse);
+	}
+
+	/**
+	 * Copies one of the frame sized buffers into a grayscale image
+	 *
+	 * @param pixels
+	 *            Buffer to copy
+	 * @param reuse
+	 *            Buffer to fill, may be null
+	 * @return Either <code>reuse</code> or a new buffer
+	 */
+	private PixelBuffer copyToImage(byte[] pixels, PixelBuffer reuse) {
+		PixelBuffer buffer = PixelBuffer.reuse(reuse, width, height, BufferedImage.TYPE_BYTE_GRAY);
+		System.arraycopy(pixels, 0, buffer.getPixels(), 0, pixels.length);
+		PixelBuffer.recordCopy(pixels.length);
+		return buffer;
+	}
+
+	/**
+	 * Gets the edges of the last frame, shared with this detector
+	 *
+	 * @return One byte per pixel, -1 (255 unsigned) for an edge and 0
+	 *         elsewhere
+	 */
+	public byte[] getEdges() {
+		return edges;
+	}
+
+	/**
+	 * Gets the grayscale frame the edges of the last frame were found in,
+	 * shared with this detector
+	 *
+	 * @return One byte per pixel
+	 */
+	public byte[] getGray() {
+		return gray;
+	}
+
+	/**
+	 * Gets width of the last frame
+	 *
+	 * @return
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets height of the last frame
+	 *
+	 * @return
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * {@inheritDoc} The gray stage is 0 when it is fused into the gradient
+	 * stage, and the stages run on tiles are summed over the threads.
+	 */
+	@Override
+	public Map<String, Long> getStageTimes() {
+		Map<String, Long> times = new LinkedHashMap<>();
+		times.put("gray", grayTime.get());
+		times.put("gradient", gradientTime.get());
+		times.put("suppression", suppressionTime.get());
+		times.put("hysteresis", hysteresisTime);
+		return times;
+	}
+
+	@Override
+	public long getAllocationCount() {
+		return allocationCount;
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+}
@@ -3,8 +3,13 @@ package goodieslink.processing.hough;
 import goodieslink.processing.Square;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Stores an array of votes for squares of various lengths during the Square
@@ -14,23 +19,90 @@ import java.util.List;
  * This accumulator is written to store a center position and a radius with int
  * precision, which has the side effect of only producing squares with an odd
  * side length.
+ * <br>
+ * Bins can be held off the Java heap for very large capture regions, in which
+ * case the accumulator must be {@link #close() closed} to free them promptly.
  * 
  * @author Jonathan Schram
  *
  */
-public class Accumulator {
+public class Accumulator implements AutoCloseable {
+	/**
+	 * Primitive type used to store the vote count of each bin
+	 * 
+	 * @author Jonathan Schram
+	 *
+	 */
+	public enum CellType {
+		/**
+		 * 2 bytes per bin, enough for squares with a radius up to 4000 pixels
+		 */
+		SHORT,
+		/**
+		 * 4 bytes per bin
+		 */
+		INT,
+		/**
+		 * 2 bytes per bin like {@link #SHORT}, held in direct memory outside
+		 * the Java heap
+		 */
+		OFF_HEAP_SHORT,
+		/**
+		 * 4 bytes per bin like {@link #INT}, held in direct memory outside the
+		 * Java heap
+		 */
+		OFF_HEAP_INT
+	}
+
 	/**
-	 * 3D array to represent votes for a specific width, height, and side length
+	 * System property naming one of the {@link CellType}s, which overrides
+	 * {@link #preferredCellType(int, int, int, int)}
 	 */
-	private int[][][] bins;
+	public static final String CELL_TYPE_PROPERTY = "goodieslink.accumulator";
 	/**
-	 * Parameter for <code>bins[][][]</code> dimensions
+	 * Largest proportion of the maximum heap size the bins may take before
+	 * they are preferably held off the heap
+	 */
+	public static final double HEAP_BUDGET = 0.25;
+
+	/**
+	 * Flat array of votes for a specific x, y, and radius. Bins for the same
+	 * center are adjacent, and centers are stored column by column, so bin
+	 * <code>(x, y, r)</code> is at index
+	 * <code>(x * height + y) * radii + r - minRadius</code>
+	 */
+	private VoteStorage bins;
+	/**
+	 * Type of each bin in the storage
+	 */
+	private CellType cellType;
+	/**
+	 * Parameter for <code>bins</code> dimensions
 	 */
 	private int width, height, minRadius, maxRadius;
+	/**
+	 * Number of radii stored for each center, equal to
+	 * <code>maxRadius - minRadius + 1</code>
+	 */
+	private int radii;
+	/**
+	 * Total number of bytes allocated for bins over the life of this
+	 * accumulator
+	 */
+	private long allocatedBytes;
+	/**
+	 * Number of times the bins have been allocated
+	 */
+	private int allocationCount;
+	/**
+	 * Number of frames (creations and resets) this accumulator has been used
+	 * for
+	 */
+	private int frameCount;
 
 	/**
 	 * Creates an accumulator with given parameters for width, height, and valid
-	 * radius
+	 * radius, storing each bin as an int
 	 * 
 	 * @param width
 	 *            Width of image that will be voted on
@@ -42,11 +114,256 @@ public class Accumulator {
 	 *            Maximum radius of a detected square
 	 */
 	public Accumulator(int width, int height, int minRadius, int maxRadius) {
+		this(width, height, minRadius, maxRadius, CellType.INT);
+	}
+
+	/**
+	 * Creates an accumulator with given parameters for width, height, valid
+	 * radius, and bin type
+	 * 
+	 * @param width
+	 *            Width of image that will be voted on
+	 * @param height
+	 *            Height of image that will be voted on
+	 * @param minRadius
+	 *            Minimum radius of a detected square
+	 * @param maxRadius
+	 *            Maximum radius of a detected square
+	 * @param cellType
+	 *            Primitive type used to store each bin
+	 */
+	public Accumulator(int width, int height, int minRadius, int maxRadius, CellType cellType) {
+		this.cellType = cellType;
+		allocatedBytes = 0;
+		allocationCount = 0;
+		frameCount = 0;
+		reset(width, height, minRadius, maxRadius);
+	}
+
+	/**
+	 * Clears all votes so the accumulator can be reused for another image of
+	 * the same size
+	 */
+	public void reset() {
+		reset(width, height, minRadius, maxRadius);
+	}
+
+	/**
+	 * Clears all votes and changes the dimensions of the accumulator so it can
+	 * be reused for another image. The bins are only reallocated if they can't
+	 * hold the new dimensions.
+	 * 
+	 * @param width
+	 *            Width of image that will be voted on
+	 * @param height
+	 *            Height of image that will be voted on
+	 * @param minRadius
+	 *            Minimum radius of a detected square
+	 * @param maxRadius
+	 *            Maximum radius of a detected square
+	 */
+	public void reset(int width, int height, int minRadius, int maxRadius) {
+		if (binBytes(cellType) == 2 && maxVotes(maxRadius) > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Radius " + maxRadius + " is too large for " + cellType + " bins");
+		}
+		if ((long) width * height * (maxRadius - minRadius + 1) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Accumulator of " + width + "x" + height + " with radii " + minRadius
+					+ " to " + maxRadius + " has too many bins");
+		}
 		this.width = width;
 		this.height = height;
 		this.minRadius = minRadius;
 		this.maxRadius = maxRadius;
-		bins = new int[width][height][maxRadius - minRadius + 1];
+		this.radii = maxRadius - minRadius + 1;
+
+		int length = width * height * radii;
+		if (bins == null || bins.capacity() < length) {
+			if (bins != null) {
+				// free off-heap bins now instead of when they are collected
+				bins.close();
+			}
+			bins = allocate(length);
+			allocatedBytes += bins.getMemoryUsage();
+			allocationCount++;
+		} else {
+			bins.clear(length);
+		}
+		frameCount++;
+	}
+
+	/**
+	 * Creates storage for bins of the accumulator's cell type
+	 * 
+	 * @param length
+	 *            Number of bins
+	 * @return Empty storage
+	 */
+	private VoteStorage allocate(int length) {
+		switch (cellType) {
+		case SHORT:
+			return new ShortVoteStorage(length);
+		case OFF_HEAP_SHORT:
+			return new OffHeapVoteStorage(length, 2);
+		case OFF_HEAP_INT:
+			return new OffHeapVoteStorage(length, 4);
+		case INT:
+		default:
+			return new IntVoteStorage(length);
+		}
+	}
+
+	/**
+	 * Gets the number of bytes used to store each bin of a cell type
+	 * 
+	 * @param cellType
+	 *            Type of bins
+	 * @return 2 or 4
+	 */
+	public static int binBytes(CellType cellType) {
+		return cellType == CellType.SHORT || cellType == CellType.OFF_HEAP_SHORT ? 2 : 4;
+	}
+
+	/**
+	 * Chooses the cell type for an accumulator of the given dimensions, unless
+	 * {@link #CELL_TYPE_PROPERTY} names one. Bins are held in shorts whenever
+	 * the votes fit, and moved off the heap once they would take more than
+	 * the {@link #HEAP_BUDGET} of the maximum heap size.
+	 * 
+	 * @param width
+	 *            Width of image that will be voted on
+	 * @param height
+	 *            Height of image that will be voted on
+	 * @param minRadius
+	 *            Minimum radius of a detected square
+	 * @param maxRadius
+	 *            Maximum radius of a detected square
+	 * @return Preferred cell type
+	 */
+	public static CellType preferredCellType(int width, int height, int minRadius, int maxRadius) {
+		String property = System.getProperty(CELL_TYPE_PROPERTY);
+		if (property != null) {
+			return CellType.valueOf(property.trim().toUpperCase());
+		}
+		boolean shortBins = maxVotes(maxRadius) <= Short.MAX_VALUE;
+		long bytes = (long) width * height * (maxRadius - minRadius + 1) * (shortBins ? 2 : 4);
+		if (bytes > HEAP_BUDGET * Runtime.getRuntime().maxMemory()) {
+			return shortBins ? CellType.OFF_HEAP_SHORT : CellType.OFF_HEAP_INT;
+		}
+		return shortBins ? CellType.SHORT : CellType.INT;
+	}
+
+	/**
+	 * Computes the largest number of votes a single bin can receive. Each of
+	 * the 4 sides of a square is scanned across the full window of
+	 * <code>2 * maxRadius + 1</code> pixels.
+	 * 
+	 * @param maxRadius
+	 *            Maximum radius of a detected square
+	 * @return Upper bound on the votes in a bin
+	 */
+	private static int maxVotes(int maxRadius) {
+		return 4 * (2 * maxRadius + 1);
+	}
+
+	/**
+	 * Computes the smallest number of votes a square of the given radius needs
+	 * to have at least a certain proportion of its perimeter present. A bin
+	 * meets the threshold exactly when it is returned by
+	 * {@link #getPeaks(double)}.
+	 * 
+	 * @param borderProportion
+	 *            Proportion of square's perimeter that must be present
+	 * @param radius
+	 *            Radius of square
+	 * @return Minimum number of votes
+	 */
+	public static int voteThreshold(double borderProportion, int radius) {
+		int borderPixels = radius << 3;
+		int threshold = (int) Math.ceil(borderProportion * borderPixels);
+		// correct for rounding so the result matches the division in
+		// getPeaks
+		while ((threshold - 1) / (double) borderPixels >= borderProportion) {
+			threshold--;
+		}
+		while (threshold / (double) borderPixels < borderProportion) {
+			threshold++;
+		}
+		return threshold;
+	}
+
+	/**
+	 * Computes the index of a bin in the flat storage
+	 * 
+	 * @param x
+	 * @param y
+	 * @param radiusIndex
+	 *            <code>radius - minRadius</code>
+	 * @return
+	 */
+	private int index(int x, int y, int radiusIndex) {
+		return (x * height + y) * radii + radiusIndex;
+	}
+
+	/**
+	 * Gets the type used to store each bin
+	 * 
+	 * @return
+	 */
+	public CellType getCellType() {
+		return cellType;
+	}
+
+	/**
+	 * Gets the number of bytes currently held for bins
+	 * 
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		return bins == null ? 0 : bins.getMemoryUsage();
+	}
+
+	/**
+	 * Gets the total number of bytes allocated for bins since this accumulator
+	 * was created
+	 * 
+	 * @return
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Gets the number of times the bins have been allocated since this
+	 * accumulator was created
+	 * 
+	 * @return
+	 */
+	public int getAllocationCount() {
+		return allocationCount;
+	}
+
+	/**
+	 * Gets the number of frames this accumulator has been used for, counting
+	 * its creation and every reset
+	 * 
+	 * @return
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Frees the bins, which matters for {@link CellType#OFF_HEAP_SHORT} and
+	 * {@link CellType#OFF_HEAP_INT} bins that the garbage collector is slow to
+	 * free. The accumulator can't be voted on or queried again until it is
+	 * {@link #reset(int, int, int, int) reset}, which allocates new bins.
+	 */
+	@Override
+	public void close() {
+		if (bins != null) {
+			bins.close();
+			bins = null;
+		}
 	}
 
 	/**
@@ -95,13 +412,31 @@ public class Accumulator {
 	 */
 	public void vote(int x, int y, int size) {
 		if (size >= minRadius && size <= maxRadius) {
-			bins[x][y][size - minRadius]++;
+			bins.add(index(x, y, size - minRadius), 1);
+		}
+	}
+
+	/**
+	 * Casts the votes counted for every radius of a single center point at
+	 * once
+	 * 
+	 * @param x
+	 * @param y
+	 * @param votes
+	 *            Vote counts indexed by <code>radius - minRadius</code>
+	 */
+	public void addVotes(int x, int y, int[] votes) {
+		int start = index(x, y, 0);
+		for (int r = 0; r < radii; r++) {
+			bins.add(start + r, votes[r]);
 		}
 	}
 
 	/**
 	 * Gets a list of squares that have at least a certain proportion of the
-	 * perimeter present.
+	 * perimeter present. Each bin is compared with the
+	 * {@link #voteThreshold(double, int)} of its radius instead of being
+	 * divided by its perimeter, which selects exactly the same bins.
 	 * 
 	 * @param borderProportion
 	 *            Proportion of square's perimeter that must be present for it
@@ -110,31 +445,152 @@ public class Accumulator {
 	 *         detected.
 	 */
 	public List<Square> getPeaks(double borderProportion) {
-		ArrayList<Square> peaks = new ArrayList<Square>();
-		int[] borderPixelCache = new int[maxRadius - minRadius + 1];
-		for (int r = 0; r < maxRadius - minRadius + 1; r++) {
-			// fast multiply by 8
-			borderPixelCache[r] = (r + minRadius) << 3;
+		return collectPeaks(peakThresholds(borderProportion), 0, width);
+	}
+
+	/**
+	 * Gets the same list of squares as {@link #getPeaks(double)}, walking
+	 * slices of the bins in parallel. Each slice is a range of columns of
+	 * centers, which are contiguous in storage, and the squares of the slices
+	 * are joined in column order so the list is identical to the serial one.
+	 * 
+	 * @param borderProportion
+	 *            Proportion of square's perimeter that must be present for it
+	 *            to be considered a peak in the voting bin
+	 * @param executor
+	 *            Executor to run the slices on, which is not shut down
+	 * @param sliceCount
+	 *            Number of slices to split the columns into
+	 * @return A list of squares that have enough of the border present to be
+	 *         detected.
+	 */
+	public List<Square> getPeaks(double borderProportion, ExecutorService executor, int sliceCount) {
+		final int[] thresholds = peakThresholds(borderProportion);
+		sliceCount = Math.max(1, Math.min(sliceCount, width));
+		List<Callable<List<Square>>> slices = new ArrayList<>();
+		for (int s = 0; s < sliceCount; s++) {
+			// spread the remainder so slices differ by at most one column
+			final int startX = (int) ((long) width * s / sliceCount);
+			final int endX = (int) ((long) width * (s + 1) / sliceCount);
+			slices.add(new Callable<List<Square>>() {
+				@Override
+				public List<Square> call() throws Exception {
+					return collectPeaks(thresholds, startX, endX);
+				}
+			});
 		}
-		for (int w = 0; w < width; w++) {
+
+		try {
+			List<List<Square>> slicePeaks = new ArrayList<>(sliceCount);
+			int count = 0;
+			// invokeAll returns the futures in the order of the slices
+			for (Future<List<Square>> slice : executor.invokeAll(slices)) {
+				List<Square> peaks = slice.get();
+				slicePeaks.add(peaks);
+				count += peaks.size();
+			}
+			ArrayList<Square> peaks = new ArrayList<Square>(count);
+			for (List<Square> slice : slicePeaks) {
+				peaks.addAll(slice);
+			}
+			return peaks;
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Peak extraction did not finish", e);
+		}
+	}
+
+	/**
+	 * Computes the number of votes a bin of each radius needs to have at least
+	 * a certain proportion of its perimeter present, so bins are compared as
+	 * integers instead of divided by their perimeter
+	 * 
+	 * @param borderProportion
+	 *            Proportion of square's perimeter that must be present
+	 * @return Minimum number of votes indexed by
+	 *         <code>radius - minRadius</code>
+	 */
+	private int[] peakThresholds(double borderProportion) {
+		int[] thresholds = new int[radii];
+		for (int r = 0; r < radii; r++) {
+			double votes = borderProportion * ((r + minRadius) << 3);
+			if (Double.isNaN(votes) || votes >= Integer.MAX_VALUE) {
+				// no bin can pass
+				thresholds[r] = Integer.MAX_VALUE;
+			} else if (votes <= 0) {
+				// every bin passes, even an empty one
+				thresholds[r] = Integer.MIN_VALUE;
+			} else {
+				thresholds[r] = voteThreshold(borderProportion, r + minRadius);
+			}
+		}
+		return thresholds;
+	}
+
+	/**
+	 * Collects the squares whose bins have at least the threshold number of
+	 * votes for their radius, in a range of columns of centers
+	 * 
+	 * @param thresholds
+	 *            Minimum number of votes indexed by
+	 *            <code>radius - minRadius</code>
+	 * @param startX
+	 *            First column of centers, inclusive
+	 * @param endX
+	 *            Last column of centers, exclusive
+	 * @return Squares in storage order
+	 */
+	private List<Square> collectPeaks(int[] thresholds, int startX, int endX) {
+		ArrayList<Square> peaks = new ArrayList<Square>();
+		// bins are walked in storage order
+		int index = index(startX, 0, 0);
+		for (int w = startX; w < endX; w++) {
 			for (int h = 0; h < height; h++) {
-				for (int r = 0; r < maxRadius - minRadius + 1; r++) {
-					// calculate # of pixels in the border
-					// should probably be stored in an array
-					// int borderPixels = 8 * (r + minRadius);
-					int borderPixels = borderPixelCache[r];
-					if (bins[w][h][r] / (double) borderPixels >= borderProportion) {
+				for (int r = 0; r < radii; r++) {
+					if (bins.get(index) >= thresholds[r]) {
 						// for now accept all peaks and don't attempt to
 						// consolidate nearby ones
 						int radius = r + minRadius;
 						peaks.add(new Square(w - radius, h - radius, 1 + 2 * radius));
 					}
+					index++;
 				}
 			}
 		}
 		return peaks;
 	}
 
+	/**
+	 * Builds an index of the bins with at least a minimum proportion of the
+	 * perimeter present, sorted by score. Squares for any threshold at or
+	 * above the minimum can then be found without another pass over the bins.
+	 * 
+	 * @param minimumProportion
+	 *            Lowest proportion of the perimeter the index can be queried
+	 *            with
+	 * @return Sorted index of the bins
+	 */
+	public ScoreIndex buildScoreIndex(double minimumProportion) {
+		ScoreIndex scores = new ScoreIndex(height, minRadius, maxRadius, minimumProportion);
+		int[] thresholds = new int[radii];
+		for (int r = 0; r < radii; r++) {
+			thresholds[r] = voteThreshold(minimumProportion, r + minRadius);
+		}
+		int index = 0;
+		for (int w = 0; w < width; w++) {
+			for (int h = 0; h < height; h++) {
+				for (int r = 0; r < radii; r++) {
+					int votes = bins.get(index);
+					if (votes >= thresholds[r]) {
+						scores.add(w, h, r + minRadius, votes);
+					}
+					index++;
+				}
+			}
+		}
+		scores.sort();
+		return scores;
+	}
+
 	/**
 	 * Returns a list of squares with at least a certain number of pixels
 	 * present on the border. Not recommended because larger squares will have
@@ -147,20 +603,9 @@ public class Accumulator {
 	 * @return A list of squares with at least the minimum number of votes
 	 */
 	public List<Square> getPeaks(int threshold) {
-		ArrayList<Square> peaks = new ArrayList<Square>();
-		for (int w = 0; w < width; w++) {
-			for (int h = 0; h < height; h++) {
-				for (int r = 0; r < maxRadius - minRadius + 1; r++) {
-					if (bins[w][h][r] >= threshold) {
-						// for now accept all peaks and don't attempt to
-						// consolidate nearby ones
-						int radius = r + minRadius;
-						peaks.add(new Square(w - radius, h - radius, 1 + 2 * radius));
-					}
-				}
-			}
-		}
-		return peaks;
+		int[] thresholds = new int[radii];
+		Arrays.fill(thresholds, threshold);
+		return collectPeaks(thresholds, 0, width);
 	}
 
 	/**
@@ -175,12 +620,33 @@ public class Accumulator {
 	 * @return
 	 */
 	public List<Square> consolidate(List<Square> peaks, PeakFilter<Square> filter) {
+		return consolidate(peaks, filter, new AccumulatorVoteQuery());
+	}
+
+	/**
+	 * Applies the {@link PeakFilter} to the list of squares to eliminate
+	 * squares that are too similar in dimensions or location, querying votes
+	 * from any source such as a {@link CandidateBuffer}.
+	 * 
+	 * @param peaks
+	 *            List of squares representing peaks in the accumulator.
+	 * @param filter
+	 *            Filtering algorithm which will be used to determine which
+	 *            squares are too similar
+	 * @param queryObject
+	 *            Object to retrieve the votes of each square
+	 * @return
+	 */
+	public static List<Square> consolidate(List<Square> peaks, PeakFilter<Square> filter, VoteQuery queryObject) {
+		double searchRadius = filter.getSearchRadius();
+		if (!Double.isInfinite(searchRadius) && !Double.isNaN(searchRadius)) {
+			return consolidateNearby(peaks, filter, queryObject, searchRadius);
+		}
 		ArrayList<Square> result = new ArrayList<>();
 		List<Square> peaksCopy = new ArrayList<Square>(peaks);
 
 		ArrayList<Square> similarSquares = new ArrayList<>();
 		Iterator<Square> iter;
-		VoteQuery queryObject = new AccumulatorVoteQuery();
 		while (!peaksCopy.isEmpty()) {
 			Square temp = peaksCopy.remove(0);
 			similarSquares.clear();
@@ -199,6 +665,115 @@ public class Accumulator {
 		return result;
 	}
 
+	/**
+	 * Consolidates peaks like {@link #consolidate(List, PeakFilter, VoteQuery)}
+	 * but only compares squares in neighboring cells of a uniform grid. Cells
+	 * are larger than the search radius, so every pair of similar squares is
+	 * still compared and the result is identical, including the order of the
+	 * squares passed to {@link PeakFilter#chooseBest(List, VoteQuery)}.
+	 * 
+	 * @param peaks
+	 *            List of squares representing peaks in the accumulator.
+	 * @param filter
+	 *            Filtering algorithm which will be used to determine which
+	 *            squares are too similar
+	 * @param queryObject
+	 *            Object to retrieve the votes of each square
+	 * @param searchRadius
+	 *            Largest distance between the centers of similar squares
+	 * @return
+	 */
+	private static List<Square> consolidateNearby(List<Square> peaks, PeakFilter<Square> filter,
+			VoteQuery queryObject, double searchRadius) {
+		// one extra pixel so filters comparing truncated centers are covered
+		double cellSize = Math.ceil(searchRadius) + 1;
+		int count = peaks.size();
+		int[] cellX = new int[count];
+		int[] cellY = new int[count];
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			Square peak = peaks.get(i);
+			cellX[i] = (int) Math.floor(peak.getCenterX() / cellSize);
+			cellY[i] = (int) Math.floor(peak.getCenterY() / cellSize);
+			keys[i] = cellKey(cellX[i], cellY[i]);
+		}
+		// sorted distinct keys of the occupied cells
+		long[] cellKeys = keys.clone();
+		Arrays.sort(cellKeys);
+		int cellCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (cellCount == 0 || cellKeys[i] != cellKeys[cellCount - 1]) {
+				cellKeys[cellCount++] = cellKeys[i];
+			}
+		}
+		// the peaks of cell c are members[cellStart[c]] to
+		// members[cellStart[c + 1] - 1], in the order of the list
+		int[] cellStart = new int[cellCount + 1];
+		int[] cellOf = new int[count];
+		for (int i = 0; i < count; i++) {
+			cellOf[i] = Arrays.binarySearch(cellKeys, 0, cellCount, keys[i]);
+			cellStart[cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < cellCount; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		int[] members = new int[count];
+		int[] fill = Arrays.copyOf(cellStart, cellCount);
+		for (int i = 0; i < count; i++) {
+			members[fill[cellOf[i]]++] = i;
+		}
+
+		ArrayList<Square> result = new ArrayList<>();
+		boolean[] removed = new boolean[count];
+		int[] similarIndices = new int[count];
+		ArrayList<Square> similarSquares = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			if (removed[i]) {
+				continue;
+			}
+			// every earlier peak has already been removed
+			removed[i] = true;
+			Square temp = peaks.get(i);
+			int similarCount = 0;
+			for (int dx = -1; dx <= 1; dx++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					int c = Arrays.binarySearch(cellKeys, 0, cellCount, cellKey(cellX[i] + dx, cellY[i] + dy));
+					if (c < 0) {
+						continue;
+					}
+					for (int m = cellStart[c]; m < cellStart[c + 1]; m++) {
+						int j = members[m];
+						if (!removed[j] && filter.areSimilar(temp, peaks.get(j))) {
+							similarIndices[similarCount++] = j;
+						}
+					}
+				}
+			}
+			// keep the order of the original list
+			Arrays.sort(similarIndices, 0, similarCount);
+			similarSquares.clear();
+			similarSquares.add(temp);
+			for (int k = 0; k < similarCount; k++) {
+				removed[similarIndices[k]] = true;
+				similarSquares.add(peaks.get(similarIndices[k]));
+			}
+			result.add(filter.chooseBest(similarSquares, queryObject));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Combines the coordinates of a grid cell into a single key
+	 * 
+	 * @param cellX
+	 * @param cellY
+	 * @return
+	 */
+	private static long cellKey(int cellX, int cellY) {
+		return (long) cellX << 32 | (cellY & 0xffffffffL);
+	}
+
 	/**
 	 * Makes vote counts in accumulator available to other classes, specifically
 	 * for use in a PeakFilter
@@ -208,8 +783,8 @@ public class Accumulator {
 	 */
 	public class AccumulatorVoteQuery implements VoteQuery {
 		public int getVotes(int x, int y, int radius) {
-			if (radius >= minRadius && radius <= maxRadius) {
-				return bins[x][y][radius - minRadius];
+			if (radius >= minRadius && radius <= maxRadius && x >= 0 && x < width && y >= 0 && y < height) {
+				return bins.get(index(x, y, radius - minRadius));
 			}
 			return -1;
 		}
@@ -0,0 +1,94 @@
+package goodieslink.processing.hough;
+
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.edge.OrientedEdges;
+
+/**
+ * {@link BorderCounter} that reads each side of a square from an
+ * {@link EdgeBitmap}, counting up to 64 pixels of the side with a single
+ * population count. Votes are identical to those of
+ * {@link WindowBorderCounter}.
+ * <br>
+ * The horizontal sides may be read from a different bitmap than the vertical
+ * sides, so edges split by {@link OrientedEdges} only vote for the sides they
+ * can belong to.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class BitmapBorderCounter implements BorderCounter {
+	/**
+	 * Bit-packed edge image read for the top and bottom sides
+	 */
+	private EdgeBitmap rowEdges;
+	/**
+	 * Bit-packed edge image read for the left and right sides
+	 */
+	private EdgeBitmap columnEdges;
+	/**
+	 * Radius constraints of squares to detect
+	 */
+	private int minRadius, maxRadius;
+
+	/**
+	 * Creates a counter that reads the given bitmap
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public BitmapBorderCounter(EdgeBitmap edges, int minRadius, int maxRadius) {
+		this(edges, edges, minRadius, maxRadius);
+	}
+
+	/**
+	 * Creates a counter that reads the horizontal and vertical sides of
+	 * squares from separate bitmaps of the same size
+	 *
+	 * @param rowEdges
+	 *            Edges that may be on the top or bottom side of a square
+	 * @param columnEdges
+	 *            Edges that may be on the left or right side of a square
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public BitmapBorderCounter(EdgeBitmap rowEdges, EdgeBitmap columnEdges, int minRadius, int maxRadius) {
+		this.rowEdges = rowEdges;
+		this.columnEdges = columnEdges;
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+	}
+
+	@Override
+	public void countBorder(int centerX, int centerY, int[] votes) {
+		int width = rowEdges.getWidth();
+		int height = rowEdges.getHeight();
+		// window bounds, clipped to the image
+		int left = Math.max(0, centerX - maxRadius);
+		int right = Math.min(width - 1, centerX + maxRadius);
+		int top = Math.max(0, centerY - maxRadius);
+		int bottom = Math.min(height - 1, centerY + maxRadius);
+
+		for (int r = minRadius; r <= maxRadius; r++) {
+			int count = 0;
+			if (centerY - r >= 0) {
+				count += rowEdges.countRow(centerY - r, left, right);
+			}
+			if (centerY + r < height) {
+				count += rowEdges.countRow(centerY + r, left, right);
+			}
+			if (centerX - r >= 0) {
+				count += columnEdges.countColumn(centerX - r, top, bottom);
+			}
+			if (centerX + r < width) {
+				count += columnEdges.countColumn(centerX + r, top, bottom);
+			}
+			votes[r - minRadius] += count;
+		}
+	}
+}
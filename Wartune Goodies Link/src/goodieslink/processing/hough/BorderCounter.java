@@ -0,0 +1,40 @@
+package goodieslink.processing.hough;
+
+/**
+ * Interface defining a method of counting the edge pixels that support squares
+ * around a single center point, independent of how the edge image is scanned.
+ * <br>
+ * A counter may be called from several threads at once when voting in
+ * parallel, so it must not keep state between calls, unless it hands each
+ * thread its own instance through {@link #copy()}.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public interface BorderCounter {
+
+	/**
+	 * Counts the edge pixels supporting squares of every valid radius centered
+	 * on the given point. Counts are added to the existing contents of the
+	 * array, indexed by <code>radius - minRadius</code>.
+	 *
+	 * @param centerX
+	 *            X coordinate of center of square
+	 * @param centerY
+	 *            Y coordinate of center of square
+	 * @param votes
+	 *            Output array of vote counts, one entry per valid radius
+	 */
+	public void countBorder(int centerX, int centerY, int[] votes);
+
+	/**
+	 * Gets a counter for the same edge image that can be used at the same time
+	 * as this one, such as by another thread. Counters without state between
+	 * calls can return themselves.
+	 * 
+	 * @return A counter for the same image
+	 */
+	public default BorderCounter copy() {
+		return this;
+	}
+}
@@ -0,0 +1,233 @@
+package goodieslink.processing.hough;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import goodieslink.processing.Square;
+
+/**
+ * Compact store of the accumulator bins that reached a vote threshold, used
+ * when detecting squares without keeping an {@link Accumulator} for the whole
+ * image. Memory grows with the number of candidates instead of with the image
+ * area times the number of radii.
+ * <br>
+ * Each candidate is packed into a single long, with the bin's accumulator
+ * index in the upper 32 bits and its votes in the lower 32 bits. Sorting the
+ * packed values puts the candidates in the same order as
+ * {@link Accumulator#getPeaks(double)}.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class CandidateBuffer implements VoteQuery {
+	/**
+	 * Packed candidates, only the first <code>size</code> are used
+	 */
+	private long[] candidates;
+	/**
+	 * Number of candidates stored
+	 */
+	private int size;
+	/**
+	 * Dimensions of the bins the candidates were taken from
+	 */
+	private int width, height, minRadius, maxRadius;
+	/**
+	 * Number of radii stored for each center, equal to
+	 * <code>maxRadius - minRadius + 1</code>
+	 */
+	private int radii;
+
+	/**
+	 * Creates an empty buffer for candidates from an image with the given
+	 * dimensions
+	 *
+	 * @param width
+	 *            Width of image that will be voted on
+	 * @param height
+	 *            Height of image that will be voted on
+	 * @param minRadius
+	 *            Minimum radius of a detected square
+	 * @param maxRadius
+	 *            Maximum radius of a detected square
+	 */
+	public CandidateBuffer(int width, int height, int minRadius, int maxRadius) {
+		candidates = new long[64];
+		reset(width, height, minRadius, maxRadius);
+	}
+
+	/**
+	 * Removes all candidates and changes the dimensions of the buffer so it
+	 * can be reused for another image. The storage is kept.
+	 *
+	 * @param width
+	 *            Width of image that will be voted on
+	 * @param height
+	 *            Height of image that will be voted on
+	 * @param minRadius
+	 *            Minimum radius of a detected square
+	 * @param maxRadius
+	 *            Maximum radius of a detected square
+	 */
+	public void reset(int width, int height, int minRadius, int maxRadius) {
+		this.width = width;
+		this.height = height;
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+		this.radii = maxRadius - minRadius + 1;
+		size = 0;
+	}
+
+	/**
+	 * Stores a bin that reached the vote threshold. Candidates may be added in
+	 * any order, but must be sorted before they are queried.
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param votes
+	 *            Number of votes in the bin
+	 */
+	public void add(int x, int y, int radius, int votes) {
+		if (size == candidates.length) {
+			candidates = Arrays.copyOf(candidates, size * 2);
+		}
+		candidates[size++] = pack(x, y, radius, votes);
+	}
+
+	/**
+	 * Adds every candidate of another buffer, such as one filled by a separate
+	 * band of the image
+	 *
+	 * @param other
+	 *            Buffer with the same dimensions
+	 */
+	public void addAll(CandidateBuffer other) {
+		if (size + other.size > candidates.length) {
+			candidates = Arrays.copyOf(candidates, Math.max(size + other.size, candidates.length * 2));
+		}
+		System.arraycopy(other.candidates, 0, candidates, size, other.size);
+		size += other.size;
+	}
+
+	/**
+	 * Sorts the candidates into accumulator order: by x, then y, then radius
+	 */
+	public void sort() {
+		Arrays.sort(candidates, 0, size);
+	}
+
+	/**
+	 * Packs a candidate into a long
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param votes
+	 * @return
+	 */
+	private long pack(int x, int y, int radius, int votes) {
+		long index = (x * (long) height + y) * radii + radius - minRadius;
+		return index << 32 | votes;
+	}
+
+	/**
+	 * Gets the number of candidates stored
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes held for candidates
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		return 8L * candidates.length;
+	}
+
+	/**
+	 * Gets a list of squares that have at least a certain proportion of the
+	 * perimeter present, in the same order as
+	 * {@link Accumulator#getPeaks(double)}. Only squares that were kept as
+	 * candidates can be returned.
+	 *
+	 * @param borderProportion
+	 *            Proportion of square's perimeter that must be present
+	 * @return A list of squares that have enough of the border present to be
+	 *         detected.
+	 */
+	public List<Square> getPeaks(double borderProportion) {
+		ArrayList<Square> peaks = new ArrayList<Square>();
+		for (int i = 0; i < size; i++) {
+			long index = candidates[i] >>> 32;
+			int votes = (int) candidates[i];
+			int radius = (int) (index % radii) + minRadius;
+			long center = index / radii;
+			int x = (int) (center / height);
+			int y = (int) (center % height);
+			if (votes / (double) (radius << 3) >= borderProportion) {
+				peaks.add(new Square(x - radius, y - radius, 1 + 2 * radius));
+			}
+		}
+		return peaks;
+	}
+
+	/**
+	 * Builds an index of the candidates with at least a minimum proportion of
+	 * the perimeter present, sorted by score
+	 * 
+	 * @param minimumProportion
+	 *            Lowest proportion of the perimeter the index can be queried
+	 *            with
+	 * @return Sorted index of the candidates
+	 */
+	public ScoreIndex buildScoreIndex(double minimumProportion) {
+		ScoreIndex scores = new ScoreIndex(height, minRadius, maxRadius, minimumProportion);
+		for (int i = 0; i < size; i++) {
+			long index = candidates[i] >>> 32;
+			int votes = (int) candidates[i];
+			int radius = (int) (index % radii) + minRadius;
+			long center = index / radii;
+			if (votes >= Accumulator.voteThreshold(minimumProportion, radius)) {
+				scores.add((int) (center / height), (int) (center % height), radius, votes);
+			}
+		}
+		scores.sort();
+		return scores;
+	}
+
+	/**
+	 * Gets the votes of a candidate. The candidates must be sorted.
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @return The number of votes, or -1 if the bin was not kept as a
+	 *         candidate
+	 */
+	public int getVotes(int x, int y, int radius) {
+		if (radius < minRadius || radius > maxRadius || x < 0 || x >= width || y < 0 || y >= height) {
+			return -1;
+		}
+		// search for the smallest packed value of the bin, with 0 votes
+		int found = Arrays.binarySearch(candidates, 0, size, pack(x, y, radius, 0));
+		int next = found >= 0 ? found : -found - 1;
+		if (next < size && candidates[next] >>> 32 == pack(x, y, radius, 0) >>> 32) {
+			return (int) candidates[next];
+		}
+		return -1;
+	}
+
+	@Override
+	public int getVotes(int... args) {
+		if (args.length == 3) {
+			return getVotes(args[0], args[1], args[2]);
+		}
+		return -1;
+	}
+}
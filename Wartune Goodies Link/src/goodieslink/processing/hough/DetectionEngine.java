@@ -0,0 +1,38 @@
+package goodieslink.processing.hough;
+
+/**
+ * Algorithms available to the {@link SquareTransform} for counting the edge
+ * pixels around each center point. All engines cast the same votes, they only
+ * differ in how quickly they do it.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public enum DetectionEngine {
+	/**
+	 * Scans the entire window around every center pixel, see
+	 * {@link WindowBorderCounter}
+	 */
+	WINDOW_SCAN,
+	/**
+	 * Builds row and column prefix sums of the edge image once and reads each
+	 * side of a square in constant time, see {@link IntegralBorderCounter}
+	 */
+	INTEGRAL_IMAGE,
+	/**
+	 * Collects the edge pixels and has each one vote for the centers it
+	 * supports, so the cost depends on the number of edge pixels, see
+	 * {@link SparseEdgeVoter}
+	 */
+	SPARSE_EDGES,
+	/**
+	 * Packs the edge image into a bitmap and counts each side of a square 64
+	 * pixels at a time with population counts, see {@link BitmapBorderCounter}
+	 */
+	BITMAP_POPCOUNT,
+	/**
+	 * Slides the scan window across each row, only counting the pixels that
+	 * enter and leave the window, see {@link IncrementalBorderCounter}
+	 */
+	INCREMENTAL_SCAN
+}
@@ -0,0 +1,180 @@
+package goodieslink.processing.hough;
+
+import java.util.Arrays;
+
+import goodieslink.processing.edge.EdgeBitmap;
+
+/**
+ * Summed-area table of an edge image, giving the number of edge pixels in any
+ * rectangle in constant time. Used to find centers whose scan window holds too
+ * few edge pixels to contain a square.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class EdgeDensity {
+	/**
+	 * Entry <code>y * (width + 1) + x</code> is the number of edge pixels above
+	 * row y and to the left of column x
+	 */
+	private int[] sums;
+	/**
+	 * Dimensions of edge image
+	 */
+	private int width, height;
+
+	/**
+	 * Computes the table for raw pixel data
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 */
+	public EdgeDensity(byte[] pixels, int pixelSize, int width, int height) {
+		update(pixels, pixelSize, width, height);
+	}
+
+	/**
+	 * Computes the table for a bit-packed edge image
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 */
+	public EdgeDensity(EdgeBitmap edges) {
+		update(edges);
+	}
+
+	/**
+	 * Recomputes the table for another frame of raw pixel data. The storage is
+	 * only reallocated when the new image is larger.
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 */
+	public void update(byte[] pixels, int pixelSize, int width, int height) {
+		resize(width, height);
+		int scan = 0;
+		for (int y = 0; y < height; y++) {
+			int rowCount = 0;
+			for (int x = 0; x < width; x++) {
+				if (pixels[scan] == -1) {
+					rowCount++;
+				}
+				sums[(y + 1) * (width + 1) + x + 1] = sums[y * (width + 1) + x + 1] + rowCount;
+				scan += pixelSize;
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the table for another bit-packed edge image. The storage is
+	 * only reallocated when the new image is larger.
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 */
+	public void update(EdgeBitmap edges) {
+		resize(edges.getWidth(), edges.getHeight());
+		for (int y = 0; y < height; y++) {
+			int rowCount = 0;
+			for (int x = 0; x < width; x++) {
+				if (edges.get(x, y)) {
+					rowCount++;
+				}
+				sums[(y + 1) * (width + 1) + x + 1] = sums[y * (width + 1) + x + 1] + rowCount;
+			}
+		}
+	}
+
+	/**
+	 * Prepares the table for an image, keeping the existing storage if it is
+	 * large enough
+	 *
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 */
+	private void resize(int width, int height) {
+		this.width = width;
+		this.height = height;
+		int size = (width + 1) * (height + 1);
+		if (sums == null || sums.length < size) {
+			sums = new int[size];
+		} else {
+			// every entry but the first row and column is overwritten
+			Arrays.fill(sums, 0, width + 1, 0);
+			for (int y = 1; y <= height; y++) {
+				sums[y * (width + 1)] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes held by the table
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		return 4L * sums.length;
+	}
+
+	/**
+	 * Counts the edge pixels in a square window around a center, clipped to
+	 * the image
+	 *
+	 * @param centerX
+	 *            X coordinate of center
+	 * @param centerY
+	 *            Y coordinate of center
+	 * @param radius
+	 *            Distance from the center to each side of the window
+	 * @return Number of edge pixels in the window
+	 */
+	public int countWindow(int centerX, int centerY, int radius) {
+		// right and bottom are exclusive
+		int left = Math.max(0, centerX - radius);
+		int right = Math.min(width - 1, centerX + radius) + 1;
+		int top = Math.max(0, centerY - radius);
+		int bottom = Math.min(height - 1, centerY + radius) + 1;
+		int stride = width + 1;
+		return sums[bottom * stride + right] - sums[top * stride + right] - sums[bottom * stride + left]
+				+ sums[top * stride + left];
+	}
+
+	/**
+	 * Counts the edge pixels in a square window around a center, excluding
+	 * those inside the smallest square that can be detected. Every pixel on
+	 * the border of a square with a radius in the range lies in this ring.
+	 *
+	 * @param centerX
+	 *            X coordinate of center
+	 * @param centerY
+	 *            Y coordinate of center
+	 * @param minRadius
+	 *            Radius of the innermost border included in the ring
+	 * @param maxRadius
+	 *            Radius of the window
+	 * @return Number of edge pixels in the ring
+	 */
+	public int countRing(int centerX, int centerY, int minRadius, int maxRadius) {
+		int count = countWindow(centerX, centerY, maxRadius);
+		if (minRadius > 0) {
+			count -= countWindow(centerX, centerY, minRadius - 1);
+		}
+		return count;
+	}
+}
@@ -2,7 +2,6 @@ package goodieslink.processing.hough;
 
 import goodieslink.processing.Square;
 
-import java.awt.geom.Point2D;
 import java.util.List;
 
 /**
@@ -40,17 +39,16 @@ public class GridFilter implements PeakFilter<Square> {
 
 	@Override
 	public boolean areSimilar(Square s1, Square s2) {
-		Point2D.Double center1 = s1.getCenter();
-		Point2D.Double center2 = s2.getCenter();
-
 		// cast as ints so that the center is properly represented
-		int x1 = (int) center1.getX();
-		int y1 = (int) center1.getY();
+		int x1 = (int) s1.getCenterX();
+		int y1 = (int) s1.getCenterY();
 
-		int x2 = (int) center2.getX();
-		int y2 = (int) center2.getY();
+		int x2 = (int) s2.getCenterX();
+		int y2 = (int) s2.getCenterY();
 
-		double spacing = Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 - y2, 2));
+		int dx = x1 - x2;
+		int dy = y1 - y2;
+		double spacing = Math.sqrt(dx * dx + dy * dy);
 
 		if (spacing <= spacingTolerance && Math.abs(s1.getSideLength() - s2.getSideLength()) <= sideTolerance) {
 			// both tolerances are met, similar squares
@@ -77,4 +75,9 @@ public class GridFilter implements PeakFilter<Square> {
 		return bestSquare;
 	}
 
+	@Override
+	public double getSearchRadius() {
+		return spacingTolerance;
+	}
+
 }
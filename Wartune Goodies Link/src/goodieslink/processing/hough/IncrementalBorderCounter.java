@@ -0,0 +1,273 @@
+package goodieslink.processing.hough;
+
+import goodieslink.processing.edge.EdgeRowScanner;
+
+/**
+ * {@link BorderCounter} that slides the scan window across the image instead
+ * of rescanning it for every center. It keeps a running count of the edge
+ * pixels on each row of the window that lies on the border of a square, and
+ * of the edge pixels in every column of the current row of windows. Moving
+ * the center one pixel right only adds the column entering the window and
+ * subtracts the column leaving it, and moving down a row does the same for
+ * the column counts.
+ * <br>
+ * The votes cast are identical to those of {@link WindowBorderCounter},
+ * including corners counting twice. Centers should be visited in raster
+ * order, as {@link SquareTransform} does. Any other order still gives the
+ * right votes, but the running counts have to be rebuilt. The running counts
+ * are state, so each thread needs its own counter from {@link #copy()}.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class IncrementalBorderCounter implements BorderCounter {
+	/**
+	 * Pixel data of edge image
+	 */
+	private byte[] pixels;
+	/**
+	 * Number of bytes per pixel
+	 */
+	private int pixelSize;
+	/**
+	 * Finds the edge pixels of whole rows and row segments
+	 */
+	private EdgeRowScanner scanner;
+	/**
+	 * Dimensions of edge image
+	 */
+	private int width, height;
+	/**
+	 * Radius constraints of squares to detect
+	 */
+	private int minRadius, maxRadius;
+	/**
+	 * Number of radii counted for each center
+	 */
+	private int radii;
+	/**
+	 * Number of edge pixels in each column of the image, within the rows of
+	 * the window around <code>currentY</code>
+	 */
+	private int[] columnCounts;
+	/**
+	 * Number of edge pixels on the row above (first half) and below (second
+	 * half) the center for each radius, within the columns of the window
+	 * around <code>currentX</code>
+	 */
+	private int[] rowCounts;
+	/**
+	 * Center of the window the running counts are for, -1 before the first
+	 * call
+	 */
+	private int currentX, currentY;
+
+	/**
+	 * Creates a counter for an edge image. No counting is done until the
+	 * first center is requested.
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public IncrementalBorderCounter(byte[] pixels, int pixelSize, int width, int height, int minRadius,
+			int maxRadius) {
+		this(EdgeRowScanner.create(pixels, pixelSize), pixels, pixelSize, width, height, minRadius, maxRadius);
+	}
+
+	/**
+	 * Creates a counter for an edge image that finds the edges of rows with
+	 * the given scanner
+	 *
+	 * @param scanner
+	 *            Scanner of the edge image
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public IncrementalBorderCounter(EdgeRowScanner scanner, byte[] pixels, int pixelSize, int width, int height,
+			int minRadius, int maxRadius) {
+		this.scanner = scanner;
+		this.pixels = pixels;
+		this.pixelSize = pixelSize;
+		this.width = width;
+		this.height = height;
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+		this.radii = maxRadius - minRadius + 1;
+		columnCounts = new int[width];
+		rowCounts = new int[2 * radii];
+		currentX = -1;
+		currentY = -1;
+	}
+
+	@Override
+	public BorderCounter copy() {
+		return new IncrementalBorderCounter(scanner, pixels, pixelSize, width, height, minRadius, maxRadius);
+	}
+
+	@Override
+	public void countBorder(int centerX, int centerY, int[] votes) {
+		if (centerY != currentY) {
+			moveToRow(centerY);
+			// row counts have to be rebuilt for the new rows
+			currentX = -1;
+		}
+		if (currentX != -1 && centerX == currentX + 1) {
+			slideRight(centerX);
+		} else {
+			countRows(centerX);
+		}
+		currentX = centerX;
+
+		for (int r = 0; r < radii; r++) {
+			int radius = r + minRadius;
+			int count = rowCounts[r] + rowCounts[radii + r];
+			if (centerX - radius >= 0) {
+				count += columnCounts[centerX - radius];
+			}
+			if (centerX + radius < width) {
+				count += columnCounts[centerX + radius];
+			}
+			votes[r] += count;
+		}
+	}
+
+	/**
+	 * Updates the column counts for windows centered on a new row. Moving down
+	 * one row only adds the row entering the window and subtracts the row
+	 * leaving it.
+	 *
+	 * @param centerY
+	 *            Row of the new centers
+	 */
+	private void moveToRow(int centerY) {
+		if (currentY != -1 && centerY == currentY + 1) {
+			int leaving = centerY - maxRadius - 1;
+			if (leaving >= 0) {
+				addRow(leaving, -1);
+			}
+			int entering = centerY + maxRadius;
+			if (entering < height) {
+				addRow(entering, 1);
+			}
+		} else {
+			for (int x = 0; x < width; x++) {
+				columnCounts[x] = 0;
+			}
+			for (int y = Math.max(0, centerY - maxRadius); y <= Math.min(height - 1, centerY + maxRadius); y++) {
+				addRow(y, 1);
+			}
+		}
+		currentY = centerY;
+	}
+
+	/**
+	 * Adds or removes the edge pixels of a row from the column counts
+	 *
+	 * @param y
+	 *            Row of the image
+	 * @param sign
+	 *            1 to add the row, -1 to remove it
+	 */
+	private void addRow(int y, int sign) {
+		scanner.addEdges(y * width, width, columnCounts, 0, sign);
+	}
+
+	/**
+	 * Counts the edge pixels on the border rows of a window from scratch
+	 *
+	 * @param centerX
+	 *            Column of the center
+	 */
+	private void countRows(int centerX) {
+		int left = Math.max(0, centerX - maxRadius);
+		int right = Math.min(width - 1, centerX + maxRadius);
+		for (int r = 0; r < radii; r++) {
+			int radius = r + minRadius;
+			rowCounts[r] = countRow(currentY - radius, left, right);
+			rowCounts[radii + r] = countRow(currentY + radius, left, right);
+		}
+	}
+
+	/**
+	 * Counts the edge pixels in part of a row
+	 *
+	 * @param y
+	 *            Row of the image, may be outside the image
+	 * @param left
+	 *            First column, inclusive
+	 * @param right
+	 *            Last column, inclusive
+	 * @return Number of edge pixels, 0 if the row is outside the image
+	 */
+	private int countRow(int y, int left, int right) {
+		if (y < 0 || y >= height) {
+			return 0;
+		}
+		return scanner.countEdges(y * width + left, right - left + 1);
+	}
+
+	/**
+	 * Moves the window of the row counts one pixel right
+	 *
+	 * @param centerX
+	 *            Column of the new center
+	 */
+	private void slideRight(int centerX) {
+		int leaving = centerX - maxRadius - 1;
+		int entering = centerX + maxRadius;
+		for (int r = 0; r < radii; r++) {
+			int radius = r + minRadius;
+			rowCounts[r] += edgeChange(currentY - radius, leaving, entering);
+			rowCounts[radii + r] += edgeChange(currentY + radius, leaving, entering);
+		}
+	}
+
+	/**
+	 * Computes the change in a row's count when one column leaves the window
+	 * and another enters it
+	 *
+	 * @param y
+	 *            Row of the image, may be outside the image
+	 * @param leaving
+	 *            Column leaving the window, may be outside the image
+	 * @param entering
+	 *            Column entering the window, may be outside the image
+	 * @return Change in number of edge pixels
+	 */
+	private int edgeChange(int y, int leaving, int entering) {
+		if (y < 0 || y >= height) {
+			return 0;
+		}
+		int change = 0;
+		int rowStart = y * width;
+		if (leaving >= 0 && pixels[(rowStart + leaving) * pixelSize] == -1) {
+			change--;
+		}
+		if (entering < width && pixels[(rowStart + entering) * pixelSize] == -1) {
+			change++;
+		}
+		return change;
+	}
+}
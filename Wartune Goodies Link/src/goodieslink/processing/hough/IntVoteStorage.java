@@ -0,0 +1,52 @@
+package goodieslink.processing.hough;
+
+import java.util.Arrays;
+
+/**
+ * {@link VoteStorage} holding each bin in an <code>int</code> of a single
+ * contiguous array
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class IntVoteStorage implements VoteStorage {
+	/**
+	 * Vote counts
+	 */
+	private int[] bins;
+
+	/**
+	 * Creates storage for the given number of bins
+	 *
+	 * @param capacity
+	 *            Number of bins
+	 */
+	public IntVoteStorage(int capacity) {
+		bins = new int[capacity];
+	}
+
+	@Override
+	public int get(int index) {
+		return bins[index];
+	}
+
+	@Override
+	public void add(int index, int count) {
+		bins[index] += count;
+	}
+
+	@Override
+	public void clear(int length) {
+		Arrays.fill(bins, 0, length, 0);
+	}
+
+	@Override
+	public int capacity() {
+		return bins.length;
+	}
+
+	@Override
+	public long getMemoryUsage() {
+		return 4L * bins.length;
+	}
+}
@@ -0,0 +1,145 @@
+package goodieslink.processing.hough;
+
+/**
+ * {@link BorderCounter} that builds row-wise and column-wise prefix sums of
+ * the edge image once, after which the number of edge pixels along any side of
+ * a square can be read in constant time.
+ * <br>
+ * The votes cast are identical to those of {@link WindowBorderCounter}: a
+ * square of radius r is supported by the edge pixels on rows
+ * <code>centerY &plusmn; r</code> and on columns <code>centerX &plusmn; r</code>
+ * across the whole scan window, so corners count twice.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class IntegralBorderCounter implements BorderCounter {
+	/**
+	 * Prefix sums of edge pixels along each row. Entry
+	 * <code>y * (width + 1) + x</code> is the number of edge pixels in row y to
+	 * the left of column x.
+	 */
+	private int[] rowSums;
+	/**
+	 * Prefix sums of edge pixels along each column. Entry
+	 * <code>x * (height + 1) + y</code> is the number of edge pixels in column
+	 * x above row y.
+	 */
+	private int[] colSums;
+	/**
+	 * Dimensions of edge image
+	 */
+	private int width, height;
+	/**
+	 * Radius constraints of squares to detect
+	 */
+	private int minRadius, maxRadius;
+
+	/**
+	 * Creates a counter and computes the prefix sums for the given edge image
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public IntegralBorderCounter(byte[] pixels, int pixelSize, int width, int height, int minRadius, int maxRadius) {
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+		update(pixels, pixelSize, width, height);
+	}
+
+	/**
+	 * Recomputes the prefix sums for another frame. The sums are only
+	 * reallocated when the new image is larger.
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 */
+	public void update(byte[] pixels, int pixelSize, int width, int height) {
+		this.width = width;
+		this.height = height;
+		if (rowSums == null || rowSums.length < height * (width + 1)) {
+			rowSums = new int[height * (width + 1)];
+		}
+		if (colSums == null || colSums.length < width * (height + 1)) {
+			colSums = new int[width * (height + 1)];
+		}
+
+		// the first sum of each line is never written below
+		for (int x = 0; x < width; x++) {
+			colSums[x * (height + 1)] = 0;
+		}
+		int scan = 0;
+		for (int y = 0; y < height; y++) {
+			int rowStart = y * (width + 1);
+			rowSums[rowStart] = 0;
+			for (int x = 0; x < width; x++) {
+				int edge = pixels[scan] == -1 ? 1 : 0;
+				rowSums[rowStart + x + 1] = rowSums[rowStart + x] + edge;
+				int colIndex = x * (height + 1) + y;
+				colSums[colIndex + 1] = colSums[colIndex] + edge;
+				scan += pixelSize;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes held by the prefix sums
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		return 4L * (rowSums.length + colSums.length);
+	}
+
+	@Override
+	public void countBorder(int centerX, int centerY, int[] votes) {
+		// window bounds, clipped to the image. right and bottom are exclusive
+		int left = Math.max(0, centerX - maxRadius);
+		int right = Math.min(width - 1, centerX + maxRadius) + 1;
+		int top = Math.max(0, centerY - maxRadius);
+		int bottom = Math.min(height - 1, centerY + maxRadius) + 1;
+
+		for (int r = minRadius; r <= maxRadius; r++) {
+			int count = 0;
+			int y = centerY - r;
+			if (y >= 0) {
+				int rowStart = y * (width + 1);
+				count += rowSums[rowStart + right] - rowSums[rowStart + left];
+			}
+			y = centerY + r;
+			if (y < height) {
+				int rowStart = y * (width + 1);
+				count += rowSums[rowStart + right] - rowSums[rowStart + left];
+			}
+			int x = centerX - r;
+			if (x >= 0) {
+				int colStart = x * (height + 1);
+				count += colSums[colStart + bottom] - colSums[colStart + top];
+			}
+			x = centerX + r;
+			if (x < width) {
+				int colStart = x * (height + 1);
+				count += colSums[colStart + bottom] - colSums[colStart + top];
+			}
+			votes[r - minRadius] += count;
+		}
+	}
+}
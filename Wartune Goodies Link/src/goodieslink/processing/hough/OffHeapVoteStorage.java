@@ -0,0 +1,240 @@
+package goodieslink.processing.hough;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link VoteStorage} holding its bins outside the Java heap in direct
+ * {@link ByteBuffer}s, for capture regions spanning several monitors whose
+ * accumulator would not fit in the heap. A single buffer can hold at most 2 GB,
+ * so the bins are split across chunks of {@link #CHUNK_BYTES} bytes by default.
+ * <br>
+ * Direct buffers are normally only freed once the garbage collector notices
+ * them, which may be long after a large accumulator is dropped. The memory is
+ * freed as soon as {@link #close()} is called instead, after which the storage
+ * must not be used.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class OffHeapVoteStorage implements VoteStorage {
+	/**
+	 * Default number of bytes in each direct buffer
+	 */
+	public static final int CHUNK_BYTES = 1 << 28;
+
+	/**
+	 * Method freeing the memory of a direct buffer, or null if it couldn't be
+	 * found and the buffers are left to the garbage collector
+	 */
+	private static final BufferFreer FREER = findFreer();
+
+	/**
+	 * Buffers holding the bins, all but the last of the same size
+	 */
+	private ByteBuffer[] chunks;
+	/**
+	 * Number of bytes per bin, 2 or 4
+	 */
+	private int binBytes;
+	/**
+	 * Shift from the index of a bin to the index of its chunk
+	 */
+	private int chunkShift;
+	/**
+	 * Mask of the index of a bin within its chunk
+	 */
+	private int chunkMask;
+	/**
+	 * Number of bins
+	 */
+	private int capacity;
+
+	/**
+	 * Creates storage for the given number of bins, all 0
+	 *
+	 * @param capacity
+	 *            Number of bins
+	 * @param binBytes
+	 *            Number of bytes per bin, 2 to hold the same counts as
+	 *            {@link ShortVoteStorage} or 4 to hold the same counts as
+	 *            {@link IntVoteStorage}
+	 */
+	public OffHeapVoteStorage(int capacity, int binBytes) {
+		this(capacity, binBytes, CHUNK_BYTES);
+	}
+
+	/**
+	 * Creates storage for the given number of bins, all 0, split across
+	 * buffers of a certain size
+	 *
+	 * @param capacity
+	 *            Number of bins
+	 * @param binBytes
+	 *            Number of bytes per bin, 2 or 4
+	 * @param chunkBytes
+	 *            Number of bytes in each direct buffer, a power of 2 of at
+	 *            least 8
+	 */
+	public OffHeapVoteStorage(int capacity, int binBytes, int chunkBytes) {
+		if (binBytes != 2 && binBytes != 4) {
+			throw new IllegalArgumentException("Unsupported bin size: " + binBytes);
+		}
+		if (chunkBytes < 8 || Integer.bitCount(chunkBytes) != 1) {
+			throw new IllegalArgumentException("Chunk size must be a power of 2: " + chunkBytes);
+		}
+		this.capacity = capacity;
+		this.binBytes = binBytes;
+		int binsPerChunk = chunkBytes / binBytes;
+		chunkShift = Integer.numberOfTrailingZeros(binsPerChunk);
+		chunkMask = binsPerChunk - 1;
+		int chunkCount = Math.max(1, (int) (((long) capacity + binsPerChunk - 1) / binsPerChunk));
+		chunks = new ByteBuffer[chunkCount];
+		for (int c = 0; c < chunkCount; c++) {
+			int bins = Math.min(binsPerChunk, capacity - c * binsPerChunk);
+			// allocateDirect zeroes the memory
+			chunks[c] = ByteBuffer.allocateDirect(bins * binBytes).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	@Override
+	public int get(int index) {
+		ByteBuffer chunk = chunks[index >>> chunkShift];
+		int offset = (index & chunkMask) * binBytes;
+		return binBytes == 2 ? chunk.getShort(offset) : chunk.getInt(offset);
+	}
+
+	@Override
+	public void add(int index, int count) {
+		ByteBuffer chunk = chunks[index >>> chunkShift];
+		int offset = (index & chunkMask) * binBytes;
+		if (binBytes == 2) {
+			chunk.putShort(offset, (short) (chunk.getShort(offset) + count));
+		} else {
+			chunk.putInt(offset, chunk.getInt(offset) + count);
+		}
+	}
+
+	@Override
+	public void clear(int length) {
+		long bytes = (long) length * binBytes;
+		for (int c = 0; c < chunks.length && bytes > 0; c++) {
+			ByteBuffer chunk = chunks[c];
+			int end = (int) Math.min(chunk.capacity(), bytes);
+			int offset = 0;
+			// 8 bytes at a time, both bin sizes divide a long
+			for (; offset + 8 <= end; offset += 8) {
+				chunk.putLong(offset, 0);
+			}
+			for (; offset < end; offset++) {
+				chunk.put(offset, (byte) 0);
+			}
+			bytes -= end;
+		}
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public long getMemoryUsage() {
+		return chunks == null ? 0 : (long) binBytes * capacity;
+	}
+
+	/**
+	 * Frees the off-heap memory of the bins without waiting for the garbage
+	 * collector. Calling it again has no effect.
+	 */
+	@Override
+	public void close() {
+		if (chunks == null) {
+			return;
+		}
+		ByteBuffer[] freed = chunks;
+		// drop the buffers first so a use after closing fails instead of
+		// reading freed memory
+		chunks = null;
+		if (FREER != null) {
+			for (ByteBuffer chunk : freed) {
+				FREER.free(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Determines whether the memory of the bins is freed immediately by
+	 * {@link #close()} on this virtual machine, instead of by the garbage
+	 * collector
+	 *
+	 * @return
+	 */
+	public static boolean isExplicitlyFreed() {
+		return FREER != null;
+	}
+
+	/**
+	 * Frees the memory of a direct buffer
+	 *
+	 * @author Jonathan Schram
+	 *
+	 */
+	private interface BufferFreer {
+		public void free(ByteBuffer buffer);
+	}
+
+	/**
+	 * Finds the way this virtual machine frees a direct buffer: the
+	 * <code>invokeCleaner</code> method of <code>sun.misc.Unsafe</code> from
+	 * Java 9 on, or the buffer's own cleaner on Java 8. Both are looked up
+	 * reflectively so the class compiles and loads on either.
+	 *
+	 * @return Freer, or null if neither is available
+	 */
+	private static BufferFreer findFreer() {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Object unsafe = theUnsafe.get(null);
+			return new BufferFreer() {
+				@Override
+				public void free(ByteBuffer buffer) {
+					try {
+						invokeCleaner.invoke(unsafe, buffer);
+					} catch (ReflectiveOperationException e) {
+						// left to the garbage collector
+					}
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8, try the buffer's cleaner
+		}
+		try {
+			ByteBuffer probe = ByteBuffer.allocateDirect(1);
+			final Method cleanerMethod = probe.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			final Method cleanMethod = cleanerMethod.getReturnType().getMethod("clean");
+			cleanMethod.setAccessible(true);
+			return new BufferFreer() {
+				@Override
+				public void free(ByteBuffer buffer) {
+					try {
+						Object cleaner = cleanerMethod.invoke(buffer);
+						if (cleaner != null) {
+							cleanMethod.invoke(cleaner);
+						}
+					} catch (ReflectiveOperationException e) {
+						// left to the garbage collector
+					}
+				}
+			};
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
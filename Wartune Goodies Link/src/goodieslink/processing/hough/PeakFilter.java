@@ -47,4 +47,16 @@ public interface PeakFilter<T> {
 	 */
 	public T chooseBest(List<T> shapes, VoteQuery vq);
 
+	/**
+	 * Gets the largest distance between the centers of two objects that can
+	 * still be similar. Objects further apart are never compared, which lets
+	 * peaks be grouped by location before they are filtered.
+	 * 
+	 * @return Maximum distance between similar objects, or positive infinity
+	 *         if any two objects may be similar
+	 */
+	public default double getSearchRadius() {
+		return Double.POSITIVE_INFINITY;
+	}
+
 }
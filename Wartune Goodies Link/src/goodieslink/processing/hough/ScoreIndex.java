@@ -0,0 +1,267 @@
+package goodieslink.processing.hough;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import goodieslink.processing.Square;
+
+/**
+ * Bins of an {@link Accumulator} or {@link CandidateBuffer} that reached a
+ * minimum border proportion, sorted by score so the squares meeting any higher
+ * threshold can be found without another pass over the bins. Built once per
+ * frame, it makes changing the detection threshold cheap.
+ * <br>
+ * A bin's score is its votes divided by the perimeter of its square. For a
+ * fixed radius, ordering by score is the same as ordering by votes, so the
+ * bins are kept in one list per radius sorted by votes. Each query is a binary
+ * search for {@link Accumulator#voteThreshold(double, int)} in every list,
+ * and the matching tails are put back into accumulator order.
+ * <br>
+ * Once sorted, the index isn't modified again, so it can be queried from
+ * other threads after it has been safely published.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class ScoreIndex implements VoteQuery {
+	/**
+	 * Bins of each radius, packed with the votes in the upper 32 bits and the
+	 * center index <code>x * height + y</code> in the lower 32 bits. Only the
+	 * first <code>sizes[r]</code> are used.
+	 */
+	private long[][] bins;
+	/**
+	 * Number of bins stored for each radius
+	 */
+	private int[] sizes;
+	/**
+	 * Bins of each radius packed with the center index in the upper 32 bits
+	 * and the votes in the lower 32 bits, sorted by center. Built by
+	 * {@link #sort()}.
+	 */
+	private long[][] centers;
+	/**
+	 * Dimensions of the bins the index was built from
+	 */
+	private int height, minRadius;
+	/**
+	 * Lowest proportion of the border a query may ask for
+	 */
+	private double minimumProportion;
+
+	/**
+	 * Creates an empty index
+	 *
+	 * @param height
+	 *            Height of image that was voted on
+	 * @param minRadius
+	 *            Minimum radius of a detected square
+	 * @param maxRadius
+	 *            Maximum radius of a detected square
+	 * @param minimumProportion
+	 *            Lowest border proportion of the bins that will be added
+	 */
+	public ScoreIndex(int height, int minRadius, int maxRadius, double minimumProportion) {
+		this.height = height;
+		this.minRadius = minRadius;
+		this.minimumProportion = minimumProportion;
+		int radii = maxRadius - minRadius + 1;
+		bins = new long[radii][16];
+		sizes = new int[radii];
+	}
+
+	/**
+	 * Stores a bin that reached the minimum border proportion. Bins may be
+	 * added in any order, but {@link #sort()} must be called before the index
+	 * is queried.
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param votes
+	 *            Number of votes in the bin
+	 */
+	public void add(int x, int y, int radius, int votes) {
+		int r = radius - minRadius;
+		if (sizes[r] == bins[r].length) {
+			bins[r] = Arrays.copyOf(bins[r], sizes[r] * 2);
+		}
+		bins[r][sizes[r]++] = (long) votes << 32 | (x * height + y);
+	}
+
+	/**
+	 * Sorts the bins of each radius by votes
+	 */
+	public void sort() {
+		centers = new long[bins.length][];
+		for (int r = 0; r < bins.length; r++) {
+			Arrays.sort(bins[r], 0, sizes[r]);
+			centers[r] = new long[sizes[r]];
+			for (int i = 0; i < sizes[r]; i++) {
+				centers[r][i] = bins[r][i] << 32 | bins[r][i] >>> 32;
+			}
+			Arrays.sort(centers[r]);
+		}
+	}
+
+	/**
+	 * Gets a list of squares that have at least a certain proportion of the
+	 * perimeter present, in the same order as
+	 * {@link Accumulator#getPeaks(double)}
+	 *
+	 * @param borderProportion
+	 *            Proportion of square's perimeter that must be present, at
+	 *            least the minimum proportion of the index
+	 * @return A list of squares that have enough of the border present to be
+	 *         detected.
+	 */
+	public List<Square> getPeaks(double borderProportion) {
+		checkThreshold(borderProportion);
+		int radii = bins.length;
+		int count = 0;
+		int[] starts = new int[radii];
+		for (int r = 0; r < radii; r++) {
+			starts[r] = firstAtLeast(r, Accumulator.voteThreshold(borderProportion, r + minRadius));
+			count += sizes[r] - starts[r];
+		}
+
+		// merge the tails back into accumulator order
+		long[] order = new long[count];
+		int next = 0;
+		for (int r = 0; r < radii; r++) {
+			for (int i = starts[r]; i < sizes[r]; i++) {
+				long center = bins[r][i] & 0xffffffffL;
+				order[next++] = center * radii + r;
+			}
+		}
+		Arrays.sort(order);
+
+		ArrayList<Square> peaks = new ArrayList<Square>(count);
+		for (long index : order) {
+			int radius = (int) (index % radii) + minRadius;
+			long center = index / radii;
+			int x = (int) (center / height);
+			int y = (int) (center % height);
+			peaks.add(new Square(x - radius, y - radius, 1 + 2 * radius));
+		}
+		return peaks;
+	}
+
+	/**
+	 * Counts the squares that have at least a certain proportion of the
+	 * perimeter present, without creating them
+	 *
+	 * @param borderProportion
+	 *            Proportion of square's perimeter that must be present, at
+	 *            least the minimum proportion of the index
+	 * @return Number of squares {@link #getPeaks(double)} would return
+	 */
+	public int countPeaks(double borderProportion) {
+		checkThreshold(borderProportion);
+		int count = 0;
+		for (int r = 0; r < bins.length; r++) {
+			count += sizes[r] - firstAtLeast(r, Accumulator.voteThreshold(borderProportion, r + minRadius));
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the votes of a bin stored in the index
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @return The number of votes, or -1 if the bin didn't reach the minimum
+	 *         proportion of the index
+	 */
+	public int getVotes(int x, int y, int radius) {
+		int r = radius - minRadius;
+		if (r < 0 || r >= centers.length || x < 0 || y < 0 || y >= height) {
+			return -1;
+		}
+		// search for the smallest packed value of the center, with 0 votes
+		long center = (long) (x * height + y) << 32;
+		int found = Arrays.binarySearch(centers[r], center);
+		int next = found >= 0 ? found : -found - 1;
+		if (next < centers[r].length && (centers[r][next] & 0xffffffff00000000L) == center) {
+			return (int) centers[r][next];
+		}
+		return -1;
+	}
+
+	@Override
+	public int getVotes(int... args) {
+		if (args.length == 3) {
+			return getVotes(args[0], args[1], args[2]);
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the first bin of a radius with at least a number of votes
+	 *
+	 * @param r
+	 *            <code>radius - minRadius</code>
+	 * @param votes
+	 *            Minimum number of votes
+	 * @return Position of the first bin, or the number of bins if none have
+	 *         enough votes
+	 */
+	private int firstAtLeast(int r, int votes) {
+		// the smallest packed value with the given votes
+		int found = Arrays.binarySearch(bins[r], 0, sizes[r], (long) votes << 32);
+		return found >= 0 ? found : -found - 1;
+	}
+
+	/**
+	 * Makes sure the index holds every square that meets a threshold
+	 *
+	 * @param borderProportion
+	 *            Proportion of square's perimeter that must be present
+	 */
+	private void checkThreshold(double borderProportion) {
+		if (borderProportion < minimumProportion) {
+			throw new IllegalArgumentException("Threshold " + borderProportion
+					+ " is below the minimum proportion of the index, " + minimumProportion);
+		}
+	}
+
+	/**
+	 * Gets the lowest border proportion the index can be queried with
+	 *
+	 * @return
+	 */
+	public double getMinimumProportion() {
+		return minimumProportion;
+	}
+
+	/**
+	 * Gets the number of bins stored
+	 *
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for (int r = 0; r < bins.length; r++) {
+			size += sizes[r];
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes held for bins
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		long bytes = 0;
+		for (int r = 0; r < bins.length; r++) {
+			bytes += 8L * bins[r].length;
+			if (centers != null) {
+				bytes += 8L * centers[r].length;
+			}
+		}
+		return bytes;
+	}
+}
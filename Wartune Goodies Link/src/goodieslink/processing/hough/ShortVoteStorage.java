@@ -0,0 +1,53 @@
+package goodieslink.processing.hough;
+
+import java.util.Arrays;
+
+/**
+ * {@link VoteStorage} holding each bin in a <code>short</code> of a single
+ * contiguous array. Halves the memory of {@link IntVoteStorage}, but a bin can
+ * hold at most {@link Short#MAX_VALUE} votes.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class ShortVoteStorage implements VoteStorage {
+	/**
+	 * Vote counts
+	 */
+	private short[] bins;
+
+	/**
+	 * Creates storage for the given number of bins
+	 *
+	 * @param capacity
+	 *            Number of bins
+	 */
+	public ShortVoteStorage(int capacity) {
+		bins = new short[capacity];
+	}
+
+	@Override
+	public int get(int index) {
+		return bins[index];
+	}
+
+	@Override
+	public void add(int index, int count) {
+		bins[index] += count;
+	}
+
+	@Override
+	public void clear(int length) {
+		Arrays.fill(bins, 0, length, (short) 0);
+	}
+
+	@Override
+	public int capacity() {
+		return bins.length;
+	}
+
+	@Override
+	public long getMemoryUsage() {
+		return 2L * bins.length;
+	}
+}
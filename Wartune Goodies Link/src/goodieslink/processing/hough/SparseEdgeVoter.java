@@ -0,0 +1,166 @@
+package goodieslink.processing.hough;
+
+import goodieslink.processing.edge.EdgeRowScanner;
+
+/**
+ * Casts the votes of the square Hough transform starting from the edge pixels
+ * instead of from the centers. Edge maps are mostly empty, so the cost of
+ * voting scales with the number of edge pixels rather than with the image
+ * area times the window area.
+ * <br>
+ * An edge pixel at (x, y) lies on the top or bottom side of every square of
+ * radius r centered on row <code>y &plusmn; r</code>, and on the left or right
+ * side of every square centered on column <code>x &plusmn; r</code>, as long as
+ * the center is within the scan window. The votes are identical to those of
+ * {@link WindowBorderCounter}.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class SparseEdgeVoter {
+	/**
+	 * Edge pixel locations packed as <code>y * width + x</code>, in raster
+	 * order
+	 */
+	private int[] edges;
+	/**
+	 * Index into <code>edges</code> of the first edge pixel of each row. Entry
+	 * <code>height</code> is the total number of edge pixels.
+	 */
+	private int[] rowStart;
+	/**
+	 * Dimensions of edge image
+	 */
+	private int width, height;
+	/**
+	 * Radius constraints of squares to detect
+	 */
+	private int minRadius, maxRadius;
+
+	/**
+	 * Collects the edge pixels of an image
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public SparseEdgeVoter(byte[] pixels, int pixelSize, int width, int height, int minRadius, int maxRadius) {
+		this(EdgeRowScanner.create(pixels, pixelSize), width, height, minRadius, maxRadius);
+	}
+
+	/**
+	 * Collects the edge pixels of an image with the given scanner
+	 *
+	 * @param scanner
+	 *            Scanner of the edge image
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public SparseEdgeVoter(EdgeRowScanner scanner, int width, int height, int minRadius, int maxRadius) {
+		this.width = width;
+		this.height = height;
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+
+		// count first so the packed array is allocated exactly once
+		rowStart = new int[height + 1];
+		for (int y = 0; y < height; y++) {
+			rowStart[y + 1] = rowStart[y] + scanner.countEdges(y * width, width);
+		}
+
+		edges = new int[rowStart[height]];
+		int next = 0;
+		int total = width * height;
+		for (int i = 0; i < total; i += 64) {
+			// visit only the edge pixels
+			long mask = scanner.edgeMask(i, Math.min(64, total - i));
+			while (mask != 0) {
+				edges[next++] = i + Long.numberOfTrailingZeros(mask);
+				mask &= mask - 1;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of edge pixels found in the image
+	 *
+	 * @return
+	 */
+	public int getEdgeCount() {
+		return edges.length;
+	}
+
+	/**
+	 * Casts every vote for centers in a range of rows. Only the bins of those
+	 * centers are written, so separate ranges can be voted on in parallel.
+	 *
+	 * @param acc
+	 *            Accumulator to vote in
+	 * @param startY
+	 *            First row of centers, inclusive
+	 * @param endY
+	 *            Last row of centers, exclusive
+	 */
+	public void voteRows(Accumulator acc, int startY, int endY) {
+		// only edge pixels within a window of the band can reach it
+		int firstRow = Math.max(0, startY - maxRadius);
+		int lastRow = Math.min(height, endY + maxRadius);
+		for (int i = rowStart[firstRow]; i < rowStart[lastRow]; i++) {
+			int edgeX = edges[i] % width;
+			int edgeY = edges[i] / width;
+
+			// range of centers whose window contains the edge pixel
+			int minCenterX = Math.max(0, edgeX - maxRadius);
+			int maxCenterX = Math.min(width - 1, edgeX + maxRadius);
+			int minCenterY = Math.max(startY, edgeY - maxRadius);
+			int maxCenterY = Math.min(endY - 1, edgeY + maxRadius);
+
+			for (int r = minRadius; r <= maxRadius; r++) {
+				// edge is on the top side of squares centered below it
+				int centerY = edgeY + r;
+				if (centerY >= startY && centerY < endY) {
+					for (int centerX = minCenterX; centerX <= maxCenterX; centerX++) {
+						acc.vote(centerX, centerY, r);
+					}
+				}
+				// and on the bottom side of squares centered above it
+				centerY = edgeY - r;
+				if (centerY >= startY && centerY < endY) {
+					for (int centerX = minCenterX; centerX <= maxCenterX; centerX++) {
+						acc.vote(centerX, centerY, r);
+					}
+				}
+				// left side of squares centered to the right
+				int centerX = edgeX + r;
+				if (centerX < width) {
+					for (centerY = minCenterY; centerY <= maxCenterY; centerY++) {
+						acc.vote(centerX, centerY, r);
+					}
+				}
+				// right side of squares centered to the left
+				centerX = edgeX - r;
+				if (centerX >= 0) {
+					for (centerY = minCenterY; centerY <= maxCenterY; centerY++) {
+						acc.vote(centerX, centerY, r);
+					}
+				}
+			}
+		}
+	}
+}
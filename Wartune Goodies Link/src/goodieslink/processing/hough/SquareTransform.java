@@ -1,10 +1,21 @@
 package goodieslink.processing.hough;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
+import goodieslink.processing.PixelBuffer;
 import goodieslink.processing.Square;
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.edge.EdgeRowScanner;
+import goodieslink.processing.edge.OrientedEdges;
 
 /**
  * Processes an image and finds the locations of squares in the image. Squares
@@ -14,11 +25,21 @@ import goodieslink.processing.Square;
  * @author Jonathan
  *
  */
-public class SquareTransform {
+public class SquareTransform implements AutoCloseable {
 	/**
 	 * Edge image that will be used to detect squares
 	 */
 	private BufferedImage src;
+	/**
+	 * Bit-packed edge image that will be used to detect squares, when no
+	 * edge image has been given
+	 */
+	private EdgeBitmap edges;
+	/**
+	 * Edges split by gradient direction, or null to let every edge pixel vote
+	 * for all four sides of a square
+	 */
+	private OrientedEdges orientedEdges;
 	// private List<Rectangle> boxes;
 	/**
 	 * Minimum radius of squares to detect
@@ -32,6 +53,125 @@ public class SquareTransform {
 	 * Accumulator to store votes for square sizes
 	 */
 	private Accumulator acc;
+	/**
+	 * Algorithm used to count edge pixels around each center point
+	 */
+	private DetectionEngine engine;
+	/**
+	 * Primitive type used for the accumulator's bins, or null to choose one
+	 * for the size of each frame
+	 */
+	private Accumulator.CellType cellType;
+	/**
+	 * Number of threads used to vote when no executor is supplied
+	 */
+	private int threadCount;
+	/**
+	 * Number of rows of centers voted on by each parallel task
+	 */
+	private int bandHeight;
+	/**
+	 * Executor to run parallel voting tasks on, or null to create a
+	 * {@link ForkJoinPool} for each image
+	 */
+	private ExecutorService executor;
+	/**
+	 * Counter scanning around each center for the image being processed, or
+	 * null when voting from the edge pixels
+	 */
+	private BorderCounter counter;
+	/**
+	 * Voter casting votes from each edge pixel for the image being processed,
+	 * or null when scanning around each center
+	 */
+	private SparseEdgeVoter sparseVoter;
+	/**
+	 * Prefix sums kept between frames for the {@link DetectionEngine#INTEGRAL_IMAGE}
+	 * engine, so they are only reallocated when the image grows
+	 */
+	private IntegralBorderCounter integralCounter;
+	/**
+	 * Whether only the bins above a vote threshold are kept, instead of the
+	 * full accumulator
+	 */
+	private boolean streaming;
+	/**
+	 * Smallest proportion of a square's border that is kept as a candidate
+	 * when streaming
+	 */
+	private double minimumBorderProportion;
+	/**
+	 * Minimum votes kept as a candidate for each radius when streaming, indexed
+	 * by <code>radius - minRadius</code>
+	 */
+	private int[] candidateThresholds;
+	/**
+	 * Bins that met the candidate threshold in the last call to
+	 * {@link #process()} when streaming
+	 */
+	private CandidateBuffer candidates;
+	/**
+	 * Bins of the last call to {@link #process()} sorted by score, built the
+	 * first time boxes are requested
+	 */
+	private ScoreIndex scoreIndex;
+	/**
+	 * Whether candidate centers are found on a half resolution edge image
+	 * before counting at full resolution
+	 */
+	private boolean pyramid;
+	/**
+	 * Kernel used to find the edges in rows of a byte edge image, or null for
+	 * the {@link EdgeRowScanner#preferredKernel(int)}
+	 */
+	private EdgeRowScanner.Kernel edgeKernel;
+	/**
+	 * Fraction of the minimum border proportion a square needs at half
+	 * resolution for its neighborhood to be counted at full resolution
+	 */
+	private double coarseRelaxation;
+	/**
+	 * Centers to count at full resolution in the image being processed,
+	 * indexed by <code>y * width + x</code>, or null to count every center
+	 */
+	private boolean[] centerMask;
+	/**
+	 * Number of centers counted at full resolution in the last call to
+	 * {@link #process()}
+	 */
+	private int refinedCenters;
+	/**
+	 * Whether centers that can't reach the minimum border proportion are
+	 * skipped without counting their borders
+	 */
+	private boolean earlyRejection;
+	/**
+	 * Edge pixel counts of every window in the image being processed, or null
+	 * without early rejection
+	 */
+	private EdgeDensity density;
+	/**
+	 * Summed-area table kept between frames, reused by early rejection
+	 */
+	private EdgeDensity densityTable;
+	/**
+	 * Number of edge pixels a window needs for its center to be counted
+	 */
+	private int rejectionLimit;
+	/**
+	 * Number of centers counted in the last call to {@link #process()}
+	 */
+	private AtomicLong scannedCenters;
+	/**
+	 * Number of centers skipped by early rejection in the last call to
+	 * {@link #process()}
+	 */
+	private AtomicLong skippedCenters;
+	/**
+	 * Nanoseconds spent by all threads voting in the last call to
+	 * {@link #process()}
+	 */
+	private AtomicLong votingTime;
 
 	/**
 	 * Creates a SquareTransform object with specified edge image and radius
@@ -50,6 +190,385 @@ public class SquareTransform {
 		// this.boxes = new ArrayList<Rectangle>();
 		this.minRadius = minRadius;
 		this.maxRadius = maxRadius;
+		this.engine = DetectionEngine.WINDOW_SCAN;
+		this.cellType = Accumulator.CellType.INT;
+		this.threadCount = 1;
+		this.bandHeight = 16;
+		this.executor = null;
+		this.streaming = false;
+		this.minimumBorderProportion = 0.5;
+		this.pyramid = false;
+		this.coarseRelaxation = 0.8;
+		this.earlyRejection = false;
+		this.scannedCenters = new AtomicLong();
+		this.skippedCenters = new AtomicLong();
+		this.votingTime = new AtomicLong();
+	}
+
+	/**
+	 * Creates a SquareTransform object that scans a bit-packed edge image. Only
+	 * {@link DetectionEngine#BITMAP_POPCOUNT} can scan a bitmap, so it is
+	 * selected as the engine.
+	 * 
+	 * @param edges
+	 *            Bit-packed edge image to scan for squares
+	 * @param minRadius
+	 *            Minimum radius of squares to be detected
+	 * @param maxRadius
+	 *            Maximum radius of squares to be detected
+	 */
+	public SquareTransform(EdgeBitmap edges, int minRadius, int maxRadius) {
+		this((BufferedImage) null, minRadius, maxRadius);
+		this.edges = edges;
+		this.engine = DetectionEngine.BITMAP_POPCOUNT;
+	}
+
+	/**
+	 * Changes the edge image so this transform, and its accumulator, can be
+	 * reused for another frame
+	 * 
+	 * @param src
+	 *            Black and white edge image to scan for squares
+	 */
+	public void setImage(BufferedImage src) {
+		this.src = src;
+		this.edges = null;
+		this.orientedEdges = null;
+	}
+
+	/**
+	 * Changes the edge image to a bit-packed one, which must be scanned with
+	 * {@link DetectionEngine#BITMAP_POPCOUNT}
+	 * 
+	 * @param edges
+	 *            Bit-packed edge image to scan for squares
+	 */
+	public void setEdges(EdgeBitmap edges) {
+		this.edges = edges;
+		this.src = null;
+		this.orientedEdges = null;
+	}
+
+	/**
+	 * Changes the edge image to one split by gradient direction, so horizontal
+	 * edges only vote for the top and bottom sides of squares and vertical
+	 * edges only for the left and right sides. Must be scanned with
+	 * {@link DetectionEngine#BITMAP_POPCOUNT}.
+	 * 
+	 * @param orientedEdges
+	 *            Edges split by orientation
+	 */
+	public void setOrientedEdges(OrientedEdges orientedEdges) {
+		this.edges = orientedEdges.getEdges();
+		this.src = null;
+		this.orientedEdges = orientedEdges;
+	}
+
+	/**
+	 * Sets the primitive type used for the accumulator's bins. Takes effect on
+	 * the next call to {@link #process()}.
+	 * 
+	 * @param cellType
+	 *            Type of accumulator bins, or null to choose
+	 *            {@link Accumulator#preferredCellType(int, int, int, int)} for
+	 *            the size of each frame
+	 */
+	public void setCellType(Accumulator.CellType cellType) {
+		this.cellType = cellType;
+	}
+
+	/**
+	 * Gets the accumulator holding the votes from the last call to
+	 * {@link #process()}, which can be used to check its memory use
+	 * 
+	 * @return The accumulator, or null if no image has been processed or when
+	 *         streaming
+	 */
+	public Accumulator getAccumulator() {
+		return streaming ? null : acc;
+	}
+
+	/**
+	 * Frees the accumulator, so bins held off the heap don't wait for the
+	 * garbage collector. The next call to {@link #process()} allocates a new
+	 * one.
+	 */
+	@Override
+	public void close() {
+		if (acc != null) {
+			acc.close();
+			acc = null;
+		}
+	}
+
+	/**
+	 * Sets the number of threads used to vote. With more than one thread the
+	 * image is split into bands that are voted on in parallel. Without an
+	 * executor from {@link #setExecutor(ExecutorService)} a pool is started
+	 * for each image and the peaks are found serially, so a detection loop
+	 * should supply one.
+	 * 
+	 * @param threadCount
+	 *            Number of threads, 1 to vote serially
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount >= 1) {
+			this.threadCount = threadCount;
+		}
+	}
+
+	/**
+	 * Sets the number of rows of centers in each band when voting in parallel
+	 * 
+	 * @param bandHeight
+	 *            Rows per band
+	 */
+	public void setBandHeight(int bandHeight) {
+		if (bandHeight >= 1) {
+			this.bandHeight = bandHeight;
+		}
+	}
+
+	/**
+	 * Supplies an executor to run the bands and peak slices on, so a thread
+	 * pool can be shared between frames. The executor is not shut down by this transform.
+	 * 
+	 * @param executor
+	 *            Executor for voting tasks, or null to use a pool of
+	 *            {@link #setThreadCount(int)} threads
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Enables streaming detection, where each center is scored as soon as it
+	 * is counted and only bins with at least
+	 * {@link #setMinimumBorderProportion(double)} of their border present are
+	 * kept. No accumulator is created, so memory depends on the number of
+	 * candidates rather than the size of the image. Streaming can't be used
+	 * with {@link DetectionEngine#SPARSE_EDGES}, which needs every bin while
+	 * voting.
+	 * 
+	 * @param streaming
+	 *            True to keep only candidates, false to fill an accumulator
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Determines whether only candidates are kept instead of a full
+	 * accumulator
+	 * 
+	 * @return
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Sets the smallest proportion of a square's border that must be present
+	 * for its bin to be kept when streaming, or to be indexed by score. Boxes
+	 * can't be requested with a lower threshold than this when streaming or
+	 * rejecting centers early.
+	 * 
+	 * @param minimumBorderProportion
+	 *            Proportion of square's perimeter that must be present
+	 */
+	public void setMinimumBorderProportion(double minimumBorderProportion) {
+		this.minimumBorderProportion = minimumBorderProportion;
+	}
+
+	/**
+	 * Gets the smallest proportion of a square's border that bins are kept or
+	 * indexed for
+	 * 
+	 * @return
+	 */
+	public double getMinimumBorderProportion() {
+		return minimumBorderProportion;
+	}
+
+	/**
+	 * Gets the candidates kept by the last call to {@link #process()} when
+	 * streaming, which can be used to check their memory use
+	 * 
+	 * @return The candidates, or null if not streaming
+	 */
+	public CandidateBuffer getCandidates() {
+		return streaming ? candidates : null;
+	}
+
+	/**
+	 * Gets the bins of the last call to {@link #process()} that meet the
+	 * minimum border proportion, sorted by score. The index is built the first
+	 * time it is needed for each image, after which boxes for any threshold at
+	 * or above the minimum are found without another pass over the bins.
+	 * 
+	 * @return Sorted index of the bins
+	 */
+	public ScoreIndex getScoreIndex() {
+		if (scoreIndex == null) {
+			if (streaming) {
+				scoreIndex = candidates.buildScoreIndex(minimumBorderProportion);
+			} else {
+				scoreIndex = acc.buildScoreIndex(minimumBorderProportion);
+			}
+		}
+		return scoreIndex;
+	}
+
+	/**
+	 * Enables coarse-to-fine detection. Squares are first detected on an edge
+	 * image downsampled by 2, with a relaxed threshold, and only the full
+	 * resolution centers around those coarse squares are counted. Other bins
+	 * are left empty, so squares with less than
+	 * {@link #setMinimumBorderProportion(double)} of their border present may
+	 * be missed. Can't be used with {@link DetectionEngine#SPARSE_EDGES}.
+	 * 
+	 * @param pyramid
+	 *            True to search a half resolution image first
+	 */
+	public void setPyramid(boolean pyramid) {
+		this.pyramid = pyramid;
+	}
+
+	/**
+	 * Chooses how the edges in rows of a byte edge image are found when
+	 * packing a bitmap, sliding the window of
+	 * {@link DetectionEngine#INCREMENTAL_SCAN} and collecting the edges of
+	 * {@link DetectionEngine#SPARSE_EDGES}. Every kernel finds the same edges.
+	 * 
+	 * @param edgeKernel
+	 *            Kernel to use, or null to choose the fastest at runtime
+	 */
+	public void setEdgeKernel(EdgeRowScanner.Kernel edgeKernel) {
+		this.edgeKernel = edgeKernel;
+	}
+
+	/**
+	 * Gets the kernel chosen for finding the edges in rows of a byte edge
+	 * image
+	 * 
+	 * @return Kernel, or null if the fastest is chosen at runtime
+	 */
+	public EdgeRowScanner.Kernel getEdgeKernel() {
+		return edgeKernel;
+	}
+
+	/**
+	 * Determines whether a half resolution image is searched first
+	 * 
+	 * @return
+	 */
+	public boolean isPyramid() {
+		return pyramid;
+	}
+
+	/**
+	 * Sets how much the border proportion is relaxed when searching the half
+	 * resolution image. Downsampling merges nearby edge pixels, so coarse
+	 * squares score lower than the squares they come from.
+	 * 
+	 * @param coarseRelaxation
+	 *            Fraction of the minimum border proportion required at half
+	 *            resolution, between 0 and 1
+	 */
+	public void setCoarseRelaxation(double coarseRelaxation) {
+		this.coarseRelaxation = coarseRelaxation;
+	}
+
+	/**
+	 * Gets the number of centers counted at full resolution by the last call
+	 * to {@link #process()}, which is every center unless the pyramid is used
+	 * 
+	 * @return
+	 */
+	public int getRefinedCenterCount() {
+		return refinedCenters;
+	}
+
+	/**
+	 * Enables skipping centers that can't reach the minimum border proportion.
+	 * Only the edge pixels of the window outside the smallest square can
+	 * vote, and a pixel is only counted twice for a square when it is one of
+	 * the 4 corners. So no square around a center can have more votes than
+	 * the edge pixels in that ring plus 4. When that bound is below the votes
+	 * needed by the smallest square, the center is skipped and its bins stay
+	 * empty. Boxes found with at least
+	 * {@link #setMinimumBorderProportion(double)} of their border present are
+	 * unchanged. Can't be used with {@link DetectionEngine#SPARSE_EDGES}.
+	 * 
+	 * @param earlyRejection
+	 *            True to skip centers in sparse areas of the image
+	 */
+	public void setEarlyRejection(boolean earlyRejection) {
+		this.earlyRejection = earlyRejection;
+	}
+
+	/**
+	 * Determines whether centers in sparse areas of the image are skipped
+	 * 
+	 * @return
+	 */
+	public boolean isEarlyRejection() {
+		return earlyRejection;
+	}
+
+	/**
+	 * Gets the number of centers whose borders were counted by the last call
+	 * to {@link #process()}
+	 * 
+	 * @return
+	 */
+	public long getScannedCenterCount() {
+		return scannedCenters.get();
+	}
+
+	/**
+	 * Gets the number of centers skipped by early rejection in the last call
+	 * to {@link #process()}
+	 * 
+	 * @return
+	 */
+	public long getSkippedCenterCount() {
+		return skippedCenters.get();
+	}
+
+	/**
+	 * Estimates the time early rejection saved in the last call to
+	 * {@link #process()}, from the average time spent on each counted center.
+	 * Time is summed over all voting threads.
+	 * 
+	 * @return Estimated nanoseconds saved
+	 */
+	public long getEstimatedTimeSaved() {
+		long scanned = scannedCenters.get();
+		if (scanned == 0) {
+			return 0;
+		}
+		return (long) (votingTime.get() * (double) skippedCenters.get() / scanned);
+	}
+
+	/**
+	 * Sets the algorithm used to count edge pixels around each center point.
+	 * Takes effect on the next call to {@link #process()}.
+	 * 
+	 * @param engine
+	 *            Detection engine to use
+	 */
+	public void setEngine(DetectionEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Gets the algorithm used to count edge pixels around each center point
+	 * 
+	 * @return
+	 */
+	public DetectionEngine getEngine() {
+		return engine;
 	}
 
 	/**
@@ -59,121 +578,329 @@ public class SquareTransform {
 		// int[] pixels = src.getRaster().getPixels(0, 0, src.getWidth(),
 		// src.getHeight(), (int[]) null);
 
-		byte[] pixels = ((DataBufferByte) src.getData().getDataBuffer()).getData();
-		int pixelSize = src.getColorModel().getNumComponents();
-
-		int width = src.getWidth();
-		int height = src.getHeight();
+		byte[] pixels = null;
+		int pixelSize = 1;
+		int width, height;
+		if (src != null) {
+			// share the raster instead of copying it with getData()
+			PixelBuffer buffer = PixelBuffer.wrap(src);
+			pixels = buffer.getPixels();
+			pixelSize = buffer.getPixelSize();
+			width = src.getWidth();
+			height = src.getHeight();
+		} else if (edges != null) {
+			width = edges.getWidth();
+			height = edges.getHeight();
+		} else {
+			throw new IllegalStateException("No edge image to process");
+		}
+		if (pixels == null && engine != DetectionEngine.BITMAP_POPCOUNT) {
+			throw new IllegalStateException(engine + " cannot scan a bit-packed edge image");
+		}
+		EdgeRowScanner scanner = null;
+		if (pixels != null) {
+			scanner = EdgeRowScanner.create(pixels, pixelSize,
+					edgeKernel != null ? edgeKernel : EdgeRowScanner.preferredKernel(pixelSize));
+		}
+		EdgeBitmap bitmap = edges;
+		if (bitmap == null && (pyramid || engine == DetectionEngine.BITMAP_POPCOUNT)) {
+			bitmap = EdgeBitmap.fromPixels(scanner, width, height);
+		}
+		if (pyramid) {
+			if (engine == DetectionEngine.SPARSE_EDGES) {
+				throw new IllegalStateException(engine + " can't be used for pyramid detection");
+			}
+			centerMask = findCoarseCenters(bitmap);
+		} else {
+			centerMask = null;
+			refinedCenters = width * height;
+		}
 
-		acc = new Accumulator(width, height, minRadius, maxRadius);
+		if (streaming) {
+			if (engine == DetectionEngine.SPARSE_EDGES) {
+				throw new IllegalStateException(engine + " can't be used for streaming detection");
+			}
+			if (candidates == null) {
+				candidates = new CandidateBuffer(width, height, minRadius, maxRadius);
+			} else {
+				candidates.reset(width, height, minRadius, maxRadius);
+			}
+			candidateThresholds = new int[maxRadius - minRadius + 1];
+			for (int r = minRadius; r <= maxRadius; r++) {
+				candidateThresholds[r - minRadius] = Accumulator.voteThreshold(minimumBorderProportion, r);
+			}
+		} else {
+			Accumulator.CellType frameCellType = cellType != null ? cellType
+					: Accumulator.preferredCellType(width, height, minRadius, maxRadius);
+			if (acc == null || acc.getCellType() != frameCellType) {
+				if (acc != null) {
+					acc.close();
+				}
+				acc = new Accumulator(width, height, minRadius, maxRadius, frameCellType);
+			} else {
+				// reuse the bins from the last frame
+				acc.reset(width, height, minRadius, maxRadius);
+			}
+		}
+		if (engine == DetectionEngine.SPARSE_EDGES) {
+			counter = null;
+			sparseVoter = new SparseEdgeVoter(scanner, width, height, minRadius, maxRadius);
+		} else {
+			counter = createBorderCounter(pixels, pixelSize, width, height, bitmap, scanner);
+			sparseVoter = null;
+		}
 
-		int off = 0;
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				scanVicinity(pixels, off, pixelSize, x, y);
-				off += pixelSize;
+		density = null;
+		if (earlyRejection) {
+			if (engine == DetectionEngine.SPARSE_EDGES) {
+				throw new IllegalStateException(engine + " can't be used with early rejection");
+			}
+			if (densityTable == null) {
+				densityTable = pixels != null ? new EdgeDensity(pixels, pixelSize, width, height)
+						: new EdgeDensity(bitmap);
+			} else if (pixels != null) {
+				densityTable.update(pixels, pixelSize, width, height);
+			} else {
+				densityTable.update(bitmap);
+			}
+			density = densityTable;
+			int minThreshold = Integer.MAX_VALUE;
+			for (int r = minRadius; r <= maxRadius; r++) {
+				minThreshold = Math.min(minThreshold, Accumulator.voteThreshold(minimumBorderProportion, r));
 			}
+			// corners are the only pixels counted twice
+			rejectionLimit = minThreshold - 4;
 		}
+		scoreIndex = null;
+		scannedCenters.set(0);
+		skippedCenters.set(0);
+		votingTime.set(0);
 
+		if (executor == null && threadCount <= 1) {
+			voteRows(0, height, width, streaming ? candidates : null);
+		} else {
+			voteBands(width, height);
+		}
+		if (streaming) {
+			// bands and parallel tasks finish in any order
+			candidates.sort();
+		}
 	}
 
 	/**
-	 * Detect edges lying around the given center point of a square, casting a
-	 * vote for each edge pixel detected
+	 * Splits the image into horizontal bands and votes on each band as a
+	 * separate task. Each center only writes to its own bins, so the bands
+	 * never share a bin and the result is identical to voting serially. When
+	 * streaming, each band collects its own candidates which are merged once
+	 * all bands are done.
 	 * 
-	 * @param pixels
-	 *            Pixel data of edge image
-	 * @param offset
-	 *            Array index to center of square in pixel data
-	 * @param pixelSize
-	 *            Number of bytes per pixel, should be 1 for a black and white
-	 *            image.
-	 * @param pointX
-	 *            X coordinate of center of square
-	 * @param pointY
-	 *            Y coordinate of center of square
-	 */
-	private void scanVicinity(byte[] pixels, int offset, int pixelSize, int pointX, int pointY) {
-		int upperLeft = offset - pixelSize * (maxRadius + maxRadius * src.getWidth());
-		// scan top
-		int scan = upperLeft;
-		int minX = Math.max(0, pointX - maxRadius);
-		int maxX = Math.min(src.getWidth() - 1, pointX + maxRadius);
-		// int maxX = pointX + maxRadius;
-		int minY = Math.max(0, pointY - maxRadius);
-		// int maxY = Math.min(src.getHeight(), pointY - minRadius);
-		int maxY = pointY - minRadius;
-		int iterationIncrement = pixelSize * (src.getWidth() - (maxX - minX + 1));
-
-		// adjust scan position such that it is inside the image
-		scan += pixelSize * (maxRadius - pointY + minY) * src.getWidth();
-		scan += pixelSize * (maxRadius - pointX + minX);
-
-		for (int y = minY; y <= maxY; y++) {
-			for (int x = minX; x <= maxX; x++) {
-				if (pixels[scan] == -1) {
-					// edge pixel counts in both x and y direction
-					// as a consequence, corners will count twice (which may be
-					// a good thing)
-					acc.vote(pointX, pointY, pointY - y);
-					acc.vote(pointX, pointY, Math.abs(pointX - x));
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 */
+	private void voteBands(final int width, int height) {
+		List<Callable<CandidateBuffer>> bands = new ArrayList<>();
+		for (int startY = 0; startY < height; startY += bandHeight) {
+			final int bandStart = startY;
+			final int bandEnd = Math.min(height, startY + bandHeight);
+			final CandidateBuffer bandCandidates = streaming
+					? new CandidateBuffer(width, height, minRadius, maxRadius) : null;
+			bands.add(new Callable<CandidateBuffer>() {
+				@Override
+				public CandidateBuffer call() throws Exception {
+					voteRows(bandStart, bandEnd, width, bandCandidates);
+					return bandCandidates;
 				}
-				scan += pixelSize;
-			}
-			scan += iterationIncrement;
-		}
-
-		// for (int scanOff = Math.max(0, upperLeft); scanOff < upperLeft + 2
-		// * maxRadius + maxRadius; scanOff += pixelSize) {}
-
-		// scan left + right sides
-		int minLeftX = Math.max(0, pointX - maxRadius);
-		int maxLeftX = pointX - minRadius;
-		int minRightX = pointX + minRadius;
-		int maxRightX = Math.min(src.getWidth() - 1, pointX + maxRadius);
-		int minMidY = Math.max(0, pointY - minRadius + 1);
-		int maxMidY = Math.min(src.getHeight() - 1, pointY + minRadius - 1);
-		int middleSkip = Math.min(minRightX, maxRightX) - Math.max(minLeftX, maxLeftX) - 1
-				+ (maxLeftX < minLeftX ? 1 : 0);
-		int increment = iterationIncrement;
-		increment = pixelSize * (src.getWidth() - (maxRightX + (maxRightX < minRightX ? -1 : 0) - minLeftX + 1));
-		for (int y = minMidY; y <= maxMidY; y++) {
-			for (int x = minLeftX; x <= maxLeftX; x++) {
-				if (pixels[scan] == -1) {
-					acc.vote(pointX, pointY, Math.abs(pointY - y));
-					acc.vote(pointX, pointY, pointX - x);
+			});
+		}
+
+		ExecutorService pool = executor;
+		if (pool == null) {
+			pool = new ForkJoinPool(threadCount);
+		}
+		try {
+			for (Future<CandidateBuffer> band : pool.invokeAll(bands)) {
+				CandidateBuffer bandCandidates = band.get();
+				if (bandCandidates != null) {
+					candidates.addAll(bandCandidates);
 				}
-				scan += pixelSize;
 			}
-			scan += middleSkip;
-			for (int x = minRightX; x <= maxRightX; x++) {
-				if (pixels[scan] == -1) {
-					acc.vote(pointX, pointY, Math.abs(pointY - y));
-					acc.vote(pointX, pointY, -pointX + x);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Square detection did not finish", e);
+		} finally {
+			if (pool != executor) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Counts the votes for every center in a range of rows
+	 * 
+	 * @param startY
+	 *            First row of centers, inclusive
+	 * @param endY
+	 *            Last row of centers, exclusive
+	 * @param width
+	 *            Width of edge image
+	 * @param out
+	 *            Buffer to keep the candidates in when streaming, or null to
+	 *            add the votes to the accumulator
+	 */
+	private void voteRows(int startY, int endY, int width, CandidateBuffer out) {
+		if (sparseVoter != null) {
+			sparseVoter.voteRows(acc, startY, endY);
+			return;
+		}
+		long startTime = System.nanoTime();
+		int scanned = 0;
+		int skipped = 0;
+		// counters that keep state can't be shared between bands
+		BorderCounter rowCounter = counter.copy();
+		int[] votes = new int[maxRadius - minRadius + 1];
+		for (int y = startY; y < endY; y++) {
+			for (int x = 0; x < width; x++) {
+				if (centerMask != null && !centerMask[y * width + x]) {
+					continue;
+				}
+				if (density != null && density.countRing(x, y, minRadius, maxRadius) < rejectionLimit) {
+					// no square around this center can reach the threshold
+					skipped++;
+					continue;
 				}
-				scan += pixelSize;
-			}
-			scan += increment;
-		}
-
-		int minBotY = pointY + minRadius;
-		// int maxY = Math.min(src.getHeight(), pointY - minRadius);
-		int maxBotY = Math.min(src.getHeight() - 1, pointY + maxRadius);
-		// scan bottom
-		for (int y = minBotY; y <= maxBotY; y++) {
-			for (int x = minX; x <= maxX; x++) {
-				if (pixels[scan] == -1) {
-					// edge pixel counts in both x and y direction
-					// as a consequence, corners will count twice (which may be
-					// a good thing)
-					acc.vote(pointX, pointY, -pointY + y);
-					acc.vote(pointX, pointY, Math.abs(pointX - x));
+				scanned++;
+				Arrays.fill(votes, 0);
+				rowCounter.countBorder(x, y, votes);
+				if (out == null) {
+					acc.addVotes(x, y, votes);
+				} else {
+					for (int r = 0; r < votes.length; r++) {
+						if (votes[r] >= candidateThresholds[r]) {
+							out.add(x, y, r + minRadius, votes[r]);
+						}
+					}
 				}
-				scan += pixelSize;
 			}
-			scan += iterationIncrement;
 		}
+		scannedCenters.addAndGet(scanned);
+		skippedCenters.addAndGet(skipped);
+		votingTime.addAndGet(System.nanoTime() - startTime);
+	}
 
+	/**
+	 * Searches a half resolution copy of the edge image for squares and marks
+	 * the full resolution centers they could have come from
+	 * 
+	 * @param bitmap
+	 *            Full resolution edge image
+	 * @return Centers to count at full resolution, indexed by
+	 *         <code>y * width + x</code>
+	 */
+	private boolean[] findCoarseCenters(EdgeBitmap bitmap) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		EdgeBitmap coarse = bitmap.downsample();
+		int coarseWidth = coarse.getWidth();
+		int coarseHeight = coarse.getHeight();
+		// every full resolution radius rounds to one of these
+		int coarseMinRadius = Math.max(1, minRadius / 2);
+		int coarseMaxRadius = (maxRadius + 1) / 2;
+		BorderCounter coarseCounter = new BitmapBorderCounter(coarse, coarseMinRadius, coarseMaxRadius);
+
+		int[] thresholds = new int[coarseMaxRadius - coarseMinRadius + 1];
+		for (int r = coarseMinRadius; r <= coarseMaxRadius; r++) {
+			thresholds[r - coarseMinRadius] = Accumulator.voteThreshold(minimumBorderProportion * coarseRelaxation,
+					r);
+		}
+
+		boolean[] mask = new boolean[width * height];
+		refinedCenters = 0;
+		int[] votes = new int[thresholds.length];
+		for (int y = 0; y < coarseHeight; y++) {
+			for (int x = 0; x < coarseWidth; x++) {
+				Arrays.fill(votes, 0);
+				coarseCounter.countBorder(x, y, votes);
+				for (int r = 0; r < votes.length; r++) {
+					if (votes[r] >= thresholds[r]) {
+						refinedCenters += markNeighborhood(mask, width, height, x, y);
+						break;
+					}
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Marks the full resolution centers covered by a half resolution center,
+	 * plus one pixel on each side to allow for rounding
+	 * 
+	 * @param mask
+	 *            Centers to count at full resolution
+	 * @param width
+	 *            Width of full resolution image
+	 * @param height
+	 *            Height of full resolution image
+	 * @param coarseX
+	 *            X coordinate of half resolution center
+	 * @param coarseY
+	 *            Y coordinate of half resolution center
+	 * @return Number of centers that weren't already marked
+	 */
+	private static int markNeighborhood(boolean[] mask, int width, int height, int coarseX, int coarseY) {
+		int marked = 0;
+		for (int y = Math.max(0, 2 * coarseY - 1); y <= Math.min(height - 1, 2 * coarseY + 2); y++) {
+			for (int x = Math.max(0, 2 * coarseX - 1); x <= Math.min(width - 1, 2 * coarseX + 2); x++) {
+				if (!mask[y * width + x]) {
+					mask[y * width + x] = true;
+					marked++;
+				}
+			}
+		}
+		return marked;
+	}
+
+	/**
+	 * Creates the {@link BorderCounter} for the current detection engine
+	 * 
+	 * @param pixels
+	 *            Pixel data of edge image, or null when scanning a bitmap
+	 * @param pixelSize
+	 *            Number of bytes per pixel
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param bitmap
+	 *            Bit-packed edge image, or null if it isn't needed
+	 * @param scanner
+	 *            Scanner of the pixel data, or null when scanning a bitmap
+	 * @return A counter that will scan the edge image
+	 */
+	private BorderCounter createBorderCounter(byte[] pixels, int pixelSize, int width, int height,
+			EdgeBitmap bitmap, EdgeRowScanner scanner) {
+		switch (engine) {
+		case BITMAP_POPCOUNT:
+			if (orientedEdges != null) {
+				return new BitmapBorderCounter(orientedEdges.getHorizontal(), orientedEdges.getVertical(), minRadius,
+						maxRadius);
+			}
+			return new BitmapBorderCounter(bitmap, minRadius, maxRadius);
+		case INCREMENTAL_SCAN:
+			return new IncrementalBorderCounter(scanner, pixels, pixelSize, width, height, minRadius, maxRadius);
+		case INTEGRAL_IMAGE:
+			if (integralCounter == null) {
+				integralCounter = new IntegralBorderCounter(pixels, pixelSize, width, height, minRadius, maxRadius);
+			} else {
+				// reuse the prefix sums from the last frame
+				integralCounter.update(pixels, pixelSize, width, height);
+			}
+			return integralCounter;
+		case WINDOW_SCAN:
+		default:
+			return new WindowBorderCounter(pixels, pixelSize, width, height, minRadius, maxRadius);
+		}
 	}
 
 	/**
@@ -194,6 +921,16 @@ public class SquareTransform {
 	 * @return List of squares that meet the threshold
 	 */
 	public List<Square> getBoxes(double thresholdProportion) {
+		if (thresholdProportion >= minimumBorderProportion) {
+			// a binary search in the index instead of a pass over every bin
+			return getScoreIndex().getPeaks(thresholdProportion);
+		}
+		checkCandidateThreshold(thresholdProportion);
+		if (executor != null) {
+			// slices as wide as the voting bands are tall
+			return acc.getPeaks(thresholdProportion, executor, (acc.getWidth() + bandHeight - 1) / bandHeight);
+		}
+		// a pool isn't started just to walk the bins once
 		return acc.getPeaks(thresholdProportion);
 	}
 
@@ -212,7 +949,24 @@ public class SquareTransform {
 	 *         PeakFilter
 	 */
 	public List<Square> getBoxes(double thresholdProportion, PeakFilter<Square> filter) {
-		return acc.consolidate(acc.getPeaks(thresholdProportion), filter);
+		if (streaming) {
+			return Accumulator.consolidate(getBoxes(thresholdProportion), filter, candidates);
+		}
+		return acc.consolidate(getBoxes(thresholdProportion), filter);
+	}
+
+	/**
+	 * Makes sure the candidates kept while streaming, or the bins voted on
+	 * with early rejection, include every square that meets a threshold
+	 * 
+	 * @param thresholdProportion
+	 *            Proportion of edge pixels that must be present
+	 */
+	private void checkCandidateThreshold(double thresholdProportion) {
+		if ((streaming || density != null) && thresholdProportion < minimumBorderProportion) {
+			throw new IllegalArgumentException("Threshold " + thresholdProportion
+					+ " is below the minimum border proportion of " + minimumBorderProportion);
+		}
 	}
 
 }
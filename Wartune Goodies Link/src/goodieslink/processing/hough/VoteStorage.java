@@ -0,0 +1,64 @@
+package goodieslink.processing.hough;
+
+/**
+ * Interface defining the flat storage used by an {@link Accumulator} for its
+ * vote bins. The accumulator decides how a bin maps to an index, the storage
+ * only has to hold one counter per index.
+ * <br>
+ * Storage may hold memory the garbage collector doesn't manage, so it should be
+ * closed once it is no longer needed.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public interface VoteStorage extends AutoCloseable {
+
+	/**
+	 * Gets the number of votes stored at an index
+	 *
+	 * @param index
+	 *            Index of bin
+	 * @return Number of votes in the bin
+	 */
+	public int get(int index);
+
+	/**
+	 * Adds votes to the bin at an index
+	 *
+	 * @param index
+	 *            Index of bin
+	 * @param count
+	 *            Number of votes to add
+	 */
+	public void add(int index, int count);
+
+	/**
+	 * Sets the first <code>length</code> bins back to 0 votes
+	 *
+	 * @param length
+	 *            Number of bins to clear
+	 */
+	public void clear(int length);
+
+	/**
+	 * Gets the number of bins this storage can hold without being reallocated
+	 *
+	 * @return
+	 */
+	public int capacity();
+
+	/**
+	 * Gets the number of bytes used to hold the bins
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage();
+
+	/**
+	 * Frees the memory holding the bins, after which the storage must not be
+	 * used. Storage on the Java heap is left to the garbage collector.
+	 */
+	@Override
+	public default void close() {
+	}
+}
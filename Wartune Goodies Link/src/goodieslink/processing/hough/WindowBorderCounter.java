@@ -0,0 +1,149 @@
+package goodieslink.processing.hough;
+
+/**
+ * {@link BorderCounter} that scans every pixel in the window surrounding a
+ * center point. This is the original square detection algorithm, and the
+ * reference that other counters must agree with.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class WindowBorderCounter implements BorderCounter {
+	/**
+	 * Pixel data of edge image
+	 */
+	private byte[] pixels;
+	/**
+	 * Number of bytes per pixel, should be 1 for a black and white image.
+	 */
+	private int pixelSize;
+	/**
+	 * Dimensions of edge image
+	 */
+	private int width, height;
+	/**
+	 * Radius constraints of squares to detect
+	 */
+	private int minRadius, maxRadius;
+
+	/**
+	 * Creates a counter that scans the given edge image
+	 *
+	 * @param pixels
+	 *            Pixel data of edge image
+	 * @param pixelSize
+	 *            Number of bytes per pixel, should be 1 for a black and white
+	 *            image.
+	 * @param width
+	 *            Width of edge image
+	 * @param height
+	 *            Height of edge image
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public WindowBorderCounter(byte[] pixels, int pixelSize, int width, int height, int minRadius, int maxRadius) {
+		this.pixels = pixels;
+		this.pixelSize = pixelSize;
+		this.width = width;
+		this.height = height;
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+	}
+
+	/**
+	 * Detect edges lying around the given center point of a square, casting a
+	 * vote for each edge pixel detected
+	 */
+	@Override
+	public void countBorder(int pointX, int pointY, int[] votes) {
+		int offset = pixelSize * (pointX + pointY * width);
+		int upperLeft = offset - pixelSize * (maxRadius + maxRadius * width);
+		// scan top
+		int scan = upperLeft;
+		int minX = Math.max(0, pointX - maxRadius);
+		int maxX = Math.min(width - 1, pointX + maxRadius);
+		int minY = Math.max(0, pointY - maxRadius);
+		int maxY = pointY - minRadius;
+		int iterationIncrement = pixelSize * (width - (maxX - minX + 1));
+
+		// adjust scan position such that it is inside the image
+		scan += pixelSize * (maxRadius - pointY + minY) * width;
+		scan += pixelSize * (maxRadius - pointX + minX);
+
+		for (int y = minY; y <= maxY; y++) {
+			for (int x = minX; x <= maxX; x++) {
+				if (pixels[scan] == -1) {
+					// edge pixel counts in both x and y direction
+					// as a consequence, corners will count twice (which may be
+					// a good thing)
+					vote(votes, pointY - y);
+					vote(votes, Math.abs(pointX - x));
+				}
+				scan += pixelSize;
+			}
+			scan += iterationIncrement;
+		}
+
+		// scan left + right sides
+		int minLeftX = Math.max(0, pointX - maxRadius);
+		int maxLeftX = pointX - minRadius;
+		int minRightX = pointX + minRadius;
+		int maxRightX = Math.min(width - 1, pointX + maxRadius);
+		int minMidY = Math.max(0, pointY - minRadius + 1);
+		int maxMidY = Math.min(height - 1, pointY + minRadius - 1);
+		int middleSkip = Math.min(minRightX, maxRightX) - Math.max(minLeftX, maxLeftX) - 1
+				+ (maxLeftX < minLeftX ? 1 : 0);
+		int increment = pixelSize * (width - (maxRightX + (maxRightX < minRightX ? -1 : 0) - minLeftX + 1));
+		for (int y = minMidY; y <= maxMidY; y++) {
+			for (int x = minLeftX; x <= maxLeftX; x++) {
+				if (pixels[scan] == -1) {
+					vote(votes, Math.abs(pointY - y));
+					vote(votes, pointX - x);
+				}
+				scan += pixelSize;
+			}
+			scan += middleSkip;
+			for (int x = minRightX; x <= maxRightX; x++) {
+				if (pixels[scan] == -1) {
+					vote(votes, Math.abs(pointY - y));
+					vote(votes, -pointX + x);
+				}
+				scan += pixelSize;
+			}
+			scan += increment;
+		}
+
+		int minBotY = pointY + minRadius;
+		int maxBotY = Math.min(height - 1, pointY + maxRadius);
+		// scan bottom
+		for (int y = minBotY; y <= maxBotY; y++) {
+			for (int x = minX; x <= maxX; x++) {
+				if (pixels[scan] == -1) {
+					// edge pixel counts in both x and y direction
+					// as a consequence, corners will count twice (which may be
+					// a good thing)
+					vote(votes, -pointY + y);
+					vote(votes, Math.abs(pointX - x));
+				}
+				scan += pixelSize;
+			}
+			scan += iterationIncrement;
+		}
+	}
+
+	/**
+	 * Adds a vote for the given radius if it is one that is being detected
+	 *
+	 * @param votes
+	 *            Vote counts indexed by <code>radius - minRadius</code>
+	 * @param radius
+	 *            Radius the edge pixel supports
+	 */
+	private void vote(int[] votes, int radius) {
+		if (radius >= minRadius && radius <= maxRadius) {
+			votes[radius - minRadius]++;
+		}
+	}
+}
@@ -0,0 +1,408 @@
+package goodieslink.processing.lattice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import goodieslink.processing.Square;
+import goodieslink.processing.edge.EdgeBitmap;
+
+/**
+ * Finds the squares of a game board by fitting a regular lattice to the edge
+ * image, instead of detecting every square independently with the
+ * {@link goodieslink.processing.hough.SquareTransform}.
+ * <br>
+ * The number of edge pixels in each column (and each row) is projected onto a
+ * profile. The autocorrelation of the profile peaks at the pitch of the
+ * lattice, and folding the profile by that pitch shows the phase and side
+ * length of the squares. Every cell of the fitted lattice with enough of its
+ * border present in the edge image is returned as a square. Each step takes
+ * time linear in the size of the image.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class LatticeDetector {
+	/**
+	 * Default proportion of a cell's border that must be present. Only the
+	 * four sides of the cell are counted, so this is lower than the threshold
+	 * used for the square Hough transform.
+	 */
+	public static final double DEFAULT_BORDER_PROPORTION = 0.7;
+
+	/**
+	 * Radius constraints of squares to detect
+	 */
+	private int minRadius, maxRadius;
+	/**
+	 * Proportion of a cell's border that must be present for it to be
+	 * considered occupied
+	 */
+	private double borderProportion;
+	/**
+	 * Distance between the left sides of squares in adjacent columns, found by
+	 * the last call to {@link #detect(EdgeBitmap)}
+	 */
+	private int columnPitch;
+	/**
+	 * Distance between the top sides of squares in adjacent rows, found by the
+	 * last call to {@link #detect(EdgeBitmap)}
+	 */
+	private int rowPitch;
+	/**
+	 * Position of the left side of the first column of the lattice
+	 */
+	private int originX;
+	/**
+	 * Position of the top side of the first row of the lattice
+	 */
+	private int originY;
+	/**
+	 * Side length of the squares in the lattice
+	 */
+	private int sideLength;
+
+	/**
+	 * Creates a detector for squares within the given radius constraints,
+	 * using the {@link #DEFAULT_BORDER_PROPORTION}
+	 *
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 */
+	public LatticeDetector(int minRadius, int maxRadius) {
+		this(minRadius, maxRadius, DEFAULT_BORDER_PROPORTION);
+	}
+
+	/**
+	 * Creates a detector for squares within the given radius constraints
+	 *
+	 * @param minRadius
+	 *            Minimum radius of squares to detect
+	 * @param maxRadius
+	 *            Maximum radius of squares to detect
+	 * @param borderProportion
+	 *            Proportion of a cell's border that must be present in the
+	 *            edge image for the cell to contain a square
+	 */
+	public LatticeDetector(int minRadius, int maxRadius, double borderProportion) {
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+		this.borderProportion = borderProportion;
+	}
+
+	/**
+	 * Fits a lattice to the edge image and finds the cells containing squares.
+	 * When no lattice is fitted, the pitch, side length and origin are -1.
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 * @return Squares in the occupied cells of the lattice, row by row, or an
+	 *         empty list if no lattice could be fitted
+	 */
+	public List<Square> detect(EdgeBitmap edges) {
+		int width = edges.getWidth();
+		int height = edges.getHeight();
+		clearLattice();
+		int[] columnProfile = columnProfile(edges);
+		int[] rowProfile = rowProfile(edges);
+
+		ArrayList<Square> squares = new ArrayList<>();
+		// the cells of the board are square, so both profiles share a pitch
+		int pitch = findPitch(columnProfile, rowProfile);
+		if (pitch == -1) {
+			return squares;
+		}
+		columnPitch = pitch;
+		rowPitch = pitch;
+
+		// squares have the same side length in both directions
+		int[] columnFold = fold(columnProfile, columnPitch);
+		int[] rowFold = fold(rowProfile, rowPitch);
+		int bestScore = -1;
+		for (int side = 2 * minRadius + 1; side <= 2 * maxRadius + 1; side += 2) {
+			if (side > columnPitch || side > rowPitch) {
+				break;
+			}
+			int columnPhase = findPhase(columnFold, side);
+			int rowPhase = findPhase(rowFold, side);
+			int score = sidePairScore(columnFold, columnPhase, side) + sidePairScore(rowFold, rowPhase, side);
+			if (score > bestScore) {
+				bestScore = score;
+				sideLength = side;
+				originX = columnPhase;
+				originY = rowPhase;
+			}
+		}
+		if (bestScore == -1) {
+			clearLattice();
+			return squares;
+		}
+
+		for (int y = originY; y + sideLength <= height; y += rowPitch) {
+			for (int x = originX; x + sideLength <= width; x += columnPitch) {
+				if (borderPresent(edges, x, y) >= borderProportion) {
+					squares.add(new Square(x, y, sideLength));
+				}
+			}
+		}
+		return squares;
+	}
+
+	/**
+	 * Forgets the lattice found by the last detection
+	 */
+	private void clearLattice() {
+		columnPitch = -1;
+		rowPitch = -1;
+		sideLength = -1;
+		originX = -1;
+		originY = -1;
+	}
+
+	/**
+	 * Counts the edge pixels in each column of an edge image
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 * @return Number of edge pixels indexed by column
+	 */
+	static int[] columnProfile(EdgeBitmap edges) {
+		int[] profile = new int[edges.getWidth()];
+		for (int x = 0; x < profile.length; x++) {
+			profile[x] = edges.countColumn(x, 0, edges.getHeight() - 1);
+		}
+		return profile;
+	}
+
+	/**
+	 * Counts the edge pixels in each row of an edge image
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 * @return Number of edge pixels indexed by row
+	 */
+	static int[] rowProfile(EdgeBitmap edges) {
+		int[] profile = new int[edges.getHeight()];
+		for (int y = 0; y < profile.length; y++) {
+			profile[y] = edges.countRow(y, 0, edges.getWidth() - 1);
+		}
+		return profile;
+	}
+
+	/**
+	 * Finds the period shared by the column and row profiles, from the sum of
+	 * their normalized autocorrelations between the smallest and twice the
+	 * largest square size. A lattice correlates almost as strongly at
+	 * multiples of its pitch, so the fundamental is chosen the same way as by
+	 * the {@link RadiusEstimator}.
+	 *
+	 * @param columnProfile
+	 *            Number of edge pixels in each column
+	 * @param rowProfile
+	 *            Number of edge pixels in each row
+	 * @return Pitch of the lattice, or -1 if the image is too small or its
+	 *         profiles don't repeat
+	 */
+	private int findPitch(int[] columnProfile, int[] rowProfile) {
+		int minLag = 2 * minRadius + 1;
+		int maxLag = Math.min(Math.min(columnProfile.length, rowProfile.length) / 2, 2 * (2 * maxRadius + 1) - 1);
+		if (minLag > maxLag) {
+			return -1;
+		}
+		double[] columnCorrelation = autocorrelation(columnProfile, minLag, maxLag);
+		double[] rowCorrelation = autocorrelation(rowProfile, minLag, maxLag);
+		double[] sum = new double[maxLag - minLag + 1];
+		for (int lag = minLag; lag <= maxLag; lag++) {
+			sum[lag - minLag] = columnCorrelation[lag - minLag] + rowCorrelation[lag - minLag];
+		}
+		int pitch = RadiusEstimator.fundamentalLag(sum, minLag);
+		// a blank or aperiodic image doesn't correlate at any lag
+		return sum[pitch - minLag] > 0 ? pitch : -1;
+	}
+
+	/**
+	 * Computes the autocorrelation of a profile for a range of lags,
+	 * normalized by its variance so profiles of different lengths can be
+	 * compared
+	 *
+	 * @param profile
+	 *            Number of edge pixels in each row or column
+	 * @param minLag
+	 *            Smallest lag, inclusive
+	 * @param maxLag
+	 *            Largest lag, inclusive
+	 * @return Correlation indexed by <code>lag - minLag</code>
+	 */
+	static double[] autocorrelation(int[] profile, int minLag, int maxLag) {
+		double mean = 0;
+		for (int count : profile) {
+			mean += count;
+		}
+		mean /= profile.length;
+		double variance = 0;
+		for (int count : profile) {
+			variance += (count - mean) * (count - mean);
+		}
+		variance /= profile.length;
+
+		double[] correlation = new double[maxLag - minLag + 1];
+		if (variance == 0) {
+			// blank image, no period
+			return correlation;
+		}
+		for (int lag = minLag; lag <= maxLag; lag++) {
+			double sum = 0;
+			for (int i = 0; i + lag < profile.length; i++) {
+				sum += (profile[i] - mean) * (profile[i + lag] - mean);
+			}
+			correlation[lag - minLag] = sum / (profile.length - lag) / variance;
+		}
+		return correlation;
+	}
+
+	/**
+	 * Sums a profile over every period, so position <code>i</code> holds the
+	 * total of all entries at <code>i</code> modulo the pitch
+	 *
+	 * @param profile
+	 *            Number of edge pixels in each row or column
+	 * @param pitch
+	 *            Period of the lattice
+	 * @return Folded profile
+	 */
+	private static int[] fold(int[] profile, int pitch) {
+		int[] folded = new int[pitch];
+		for (int i = 0; i < profile.length; i++) {
+			folded[i % pitch] += profile[i];
+		}
+		return folded;
+	}
+
+	/**
+	 * Finds the offset of the first side of the squares within one period
+	 *
+	 * @param folded
+	 *            Folded profile
+	 * @param side
+	 *            Side length of squares
+	 * @return Offset with the most edge pixels on both sides of a square
+	 */
+	private static int findPhase(int[] folded, int side) {
+		int bestPhase = 0;
+		int bestScore = -1;
+		for (int phase = 0; phase < folded.length; phase++) {
+			int score = sidePairScore(folded, phase, side);
+			if (score > bestScore) {
+				bestScore = score;
+				bestPhase = phase;
+			}
+		}
+		return bestPhase;
+	}
+
+	/**
+	 * Counts the edge pixels on both sides of the squares of a folded profile
+	 *
+	 * @param folded
+	 *            Folded profile
+	 * @param phase
+	 *            Offset of the first side
+	 * @param side
+	 *            Side length of squares
+	 * @return
+	 */
+	private static int sidePairScore(int[] folded, int phase, int side) {
+		return folded[phase] + folded[(phase + side - 1) % folded.length];
+	}
+
+	/**
+	 * Measures how much of the border of a lattice cell is present. Each side
+	 * may be off by a pixel, so the best of three neighboring lines is used.
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 * @param x
+	 *            Left side of cell
+	 * @param y
+	 *            Top side of cell
+	 * @return Proportion of border pixels that are edges
+	 */
+	private double borderPresent(EdgeBitmap edges, int x, int y) {
+		int last = sideLength - 1;
+		int count = bestRow(edges, y, x, x + last) + bestRow(edges, y + last, x, x + last)
+				+ bestColumn(edges, x, y, y + last) + bestColumn(edges, x + last, y, y + last);
+		return count / (4.0 * sideLength);
+	}
+
+	/**
+	 * Counts the edge pixels of a horizontal side and the rows next to it
+	 *
+	 * @return Largest count of the three rows
+	 */
+	private static int bestRow(EdgeBitmap edges, int y, int fromX, int toX) {
+		int best = 0;
+		for (int row = Math.max(0, y - 1); row <= Math.min(edges.getHeight() - 1, y + 1); row++) {
+			best = Math.max(best, edges.countRow(row, fromX, toX));
+		}
+		return best;
+	}
+
+	/**
+	 * Counts the edge pixels of a vertical side and the columns next to it
+	 *
+	 * @return Largest count of the three columns
+	 */
+	private static int bestColumn(EdgeBitmap edges, int x, int fromY, int toY) {
+		int best = 0;
+		for (int column = Math.max(0, x - 1); column <= Math.min(edges.getWidth() - 1, x + 1); column++) {
+			best = Math.max(best, edges.countColumn(column, fromY, toY));
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the horizontal pitch found by the last detection
+	 *
+	 * @return -1 if no lattice was found
+	 */
+	public int getColumnPitch() {
+		return columnPitch;
+	}
+
+	/**
+	 * Gets the vertical pitch found by the last detection
+	 *
+	 * @return -1 if no lattice was found
+	 */
+	public int getRowPitch() {
+		return rowPitch;
+	}
+
+	/**
+	 * Gets the side length of squares found by the last detection
+	 *
+	 * @return -1 if no lattice was found
+	 */
+	public int getSideLength() {
+		return sideLength;
+	}
+
+	/**
+	 * Gets the left side of the first column found by the last detection
+	 *
+	 * @return -1 if no lattice was found
+	 */
+	public int getOriginX() {
+		return originX;
+	}
+
+	/**
+	 * Gets the top side of the first row found by the last detection
+	 *
+	 * @return -1 if no lattice was found
+	 */
+	public int getOriginY() {
+		return originY;
+	}
+}
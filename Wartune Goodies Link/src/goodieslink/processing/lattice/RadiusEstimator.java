@@ -0,0 +1,158 @@
+package goodieslink.processing.lattice;
+
+import goodieslink.processing.edge.EdgeBitmap;
+
+/**
+ * Estimates the radius of the icons on the game board from the periodicity of
+ * the edge image, so the square Hough transform only has to search a narrow
+ * band of radii. The board is a regular lattice, so the column and row
+ * profiles of the edge image repeat with the pitch of the icons, the same
+ * period the {@link LatticeDetector} fits.
+ * <br>
+ * A wide radius range allows lags of several pitches, and the autocorrelation
+ * of a lattice is nearly as strong at every multiple of its pitch. The
+ * smallest lag dividing the strongest one whose correlation is almost as high
+ * is taken as the pitch. Icon frames are separated by about a pixel, so the
+ * side of an icon's frame is one less than the pitch.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class RadiusEstimator {
+	/**
+	 * Proportion of the strongest correlation a lag dividing it must reach to
+	 * be taken as the pitch instead
+	 */
+	public static final double HARMONIC_RATIO = 0.8;
+
+	/**
+	 * Radius constraints of the search
+	 */
+	private int minRadius, maxRadius;
+	/**
+	 * Pitch found by the last estimate
+	 */
+	private int pitch;
+	/**
+	 * Sum of the normalized column and row autocorrelations at the pitch
+	 */
+	private double correlation;
+
+	/**
+	 * Creates an estimator searching radii in a wide range
+	 *
+	 * @param minRadius
+	 *            Smallest radius an icon could have
+	 * @param maxRadius
+	 *            Largest radius an icon could have
+	 */
+	public RadiusEstimator(int minRadius, int maxRadius) {
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+	}
+
+	/**
+	 * Estimates the radius of the icons in an edge image
+	 *
+	 * @param edges
+	 *            Bit-packed edge image
+	 * @return Estimated radius, within the radius constraints, or -1 if the
+	 *         image has no periodic structure or is too small
+	 */
+	public int estimateRadius(EdgeBitmap edges) {
+		pitch = -1;
+		correlation = 0;
+		int[] columnProfile = LatticeDetector.columnProfile(edges);
+		int[] rowProfile = LatticeDetector.rowProfile(edges);
+		int minLag = 2 * minRadius + 1;
+		int maxLag = Math.min(Math.min(columnProfile.length, rowProfile.length) / 2, 2 * (2 * maxRadius + 1) - 1);
+		if (minLag > maxLag) {
+			return -1;
+		}
+		double[] columnCorrelation = LatticeDetector.autocorrelation(columnProfile, minLag, maxLag);
+		double[] rowCorrelation = LatticeDetector.autocorrelation(rowProfile, minLag, maxLag);
+		double[] sum = new double[maxLag - minLag + 1];
+		for (int lag = minLag; lag <= maxLag; lag++) {
+			sum[lag - minLag] = columnCorrelation[lag - minLag] + rowCorrelation[lag - minLag];
+		}
+		int lag = fundamentalLag(sum, minLag);
+		// every lag at least as strong as the pitch is uncorrelated too
+		if (sum[lag - minLag] <= 0) {
+			return -1;
+		}
+		pitch = lag;
+		correlation = sum[pitch - minLag];
+		int radius = (pitch - 2) / 2;
+		return Math.max(minRadius, Math.min(maxRadius, radius));
+	}
+
+	/**
+	 * Finds the pitch of a lattice from the correlations of a range of lags:
+	 * the strongest lag, or the smallest lag dividing it whose correlation is
+	 * at least {@link #HARMONIC_RATIO} of the strongest
+	 *
+	 * @param sum
+	 *            Correlations indexed by <code>lag - minLag</code>, at least
+	 *            one
+	 * @param minLag
+	 *            Smallest lag of the correlations
+	 * @return Fundamental lag
+	 */
+	static int fundamentalLag(double[] sum, int minLag) {
+		int bestLag = minLag;
+		for (int lag = minLag + 1; lag < minLag + sum.length; lag++) {
+			if (sum[lag - minLag] > sum[bestLag - minLag]) {
+				bestLag = lag;
+			}
+		}
+		// prefer the fundamental over a multiple of it
+		for (int divisor = bestLag / minLag; divisor >= 2; divisor--) {
+			int lag = strongestNear(sum, minLag, Math.round((float) bestLag / divisor));
+			if (lag != -1 && sum[lag - minLag] >= HARMONIC_RATIO * sum[bestLag - minLag]) {
+				return lag;
+			}
+		}
+		return bestLag;
+	}
+
+	/**
+	 * Finds the lag with the strongest correlation within a pixel of a lag,
+	 * since dividing a multiple of the pitch may round the wrong way
+	 *
+	 * @param sum
+	 *            Correlations indexed by <code>lag - minLag</code>
+	 * @param minLag
+	 *            Smallest lag of the correlations
+	 * @param lag
+	 *            Lag to search around
+	 * @return Strongest lag, or -1 if none are within the searched lags
+	 */
+	private static int strongestNear(double[] sum, int minLag, int lag) {
+		int best = -1;
+		for (int l = Math.max(minLag, lag - 1); l <= Math.min(minLag + sum.length - 1, lag + 1); l++) {
+			if (best == -1 || sum[l - minLag] > sum[best - minLag]) {
+				best = l;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the pitch of the lattice found by the last estimate
+	 *
+	 * @return Pitch, or -1 if none was found
+	 */
+	public int getPitch() {
+		return pitch;
+	}
+
+	/**
+	 * Gets the sum of the normalized column and row autocorrelations at the
+	 * pitch found by the last estimate, up to 2 for a perfect lattice
+	 *
+	 * @return
+	 */
+	public double getCorrelation() {
+		return correlation;
+	}
+}
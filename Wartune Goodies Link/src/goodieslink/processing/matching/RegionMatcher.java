@@ -2,8 +2,8 @@ package goodieslink.processing.matching;
 
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 
+import goodieslink.processing.PixelBuffer;
 import goodieslink.processing.Square;
 
 /**
@@ -33,6 +33,11 @@ public class RegionMatcher {
 	 */
 	byte[] pixels;
 
+	/**
+	 * Number of bytes per pixel in the pixel data
+	 */
+	int pixelSize;
+
 	/**
 	 * Whether this matcher has an image associated with it
 	 */
@@ -54,7 +59,9 @@ public class RegionMatcher {
 		image = source;
 		measureAlgorithm = similarityAlgorithm;
 		maxOffset = pixelTolerance;
-		pixels = ((DataBufferByte) image.getData().getDataBuffer()).getData();
+		PixelBuffer buffer = PixelBuffer.wrap(image);
+		pixels = buffer.getPixels();
+		pixelSize = buffer.getPixelSize();
 		initialized = true;
 	}
 
@@ -73,7 +80,10 @@ public class RegionMatcher {
 	public void setImage(BufferedImage source) {
 		// update image and remember to save updated pixel data
 		this.image = source;
-		pixels = ((DataBufferByte) image.getData().getDataBuffer()).getData();
+		// share the raster, getData() would copy it
+		PixelBuffer buffer = PixelBuffer.wrap(image);
+		pixels = buffer.getPixels();
+		pixelSize = buffer.getPixelSize();
 		initialized = true;
 	}
 
@@ -98,7 +108,6 @@ public class RegionMatcher {
 			// pixel data each call
 			// byte[] pixels = ((DataBufferByte)
 			// image.getData().getDataBuffer()).getData();
-			int pixelSize = image.getColorModel().getNumComponents();
 
 			// attempt to match the image with every possible horizontal and
 			// vertical shift
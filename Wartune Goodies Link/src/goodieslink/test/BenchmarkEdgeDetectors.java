@@ -0,0 +1,84 @@
+package goodieslink.test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.opencv.core.Core;
+
+import goodieslink.processing.edge.ColorKeyEdgeDetector;
+import goodieslink.processing.edge.EdgeDetector;
+import goodieslink.processing.edge.OpenCVEdgeDetector;
+import goodieslink.processing.edge.TiledCannyEdgeDetector;
+
+/**
+ * Short program that times each stage of the edge detectors on the screenshot
+ * in the project directory: the pure Java detector with the gray frame
+ * converted in a separate pass or fused into the gradient pass, on one thread
+ * and on every processor, the frame colour key, and OpenCV's copy, conversion
+ * and Canny chain when the native library can be loaded.
+ * 
+ * @author Jonathan Schram
+ *
+ */
+public class BenchmarkEdgeDetectors {
+	private static final int WARMUP = 50;
+	private static final int RUNS = 50;
+
+	public static void main(String[] args) throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File("openCV imread.png"));
+		System.out.println("openCV imread.png (" + screenshot.getWidth() + "x" + screenshot.getHeight() + ")");
+
+		int[] threadCounts = { 1, Runtime.getRuntime().availableProcessors() };
+		for (int threads : threadCounts) {
+			for (boolean fused : new boolean[] { false, true }) {
+				TiledCannyEdgeDetector detector = new TiledCannyEdgeDetector();
+				detector.setThreadCount(threads);
+				detector.setFused(fused);
+				time((fused ? "fused" : "separate") + ", " + threads + " threads", detector, screenshot);
+			}
+		}
+		time("colour key", new ColorKeyEdgeDetector(), screenshot);
+
+		try {
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		} catch (UnsatisfiedLinkError e) {
+			System.out.println("OpenCV not loaded, skipping");
+			return;
+		}
+		time("OpenCV", new OpenCVEdgeDetector(), screenshot);
+	}
+
+	/**
+	 * Prints the average time of each stage and of a whole frame
+	 */
+	private static void time(String name, EdgeDetector detector, BufferedImage frame) {
+		for (int i = 0; i < WARMUP; i++) {
+			detector.detect(frame);
+		}
+		long[] stageTimes = null;
+		long total = 0;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			detector.detect(frame);
+			total += System.nanoTime() - start;
+			Map<String, Long> times = detector.getStageTimes();
+			if (stageTimes == null) {
+				stageTimes = new long[times.size()];
+			}
+			int s = 0;
+			for (long time : times.values()) {
+				stageTimes[s++] += time;
+			}
+		}
+		StringBuilder line = new StringBuilder(String.format("  %-20s %8.3f ms:", name, total / 1e6 / RUNS));
+		int s = 0;
+		for (String stage : detector.getStageTimes().keySet()) {
+			line.append(String.format(" %s %.3f", stage, stageTimes[s++] / 1e6 / RUNS));
+		}
+		System.out.println(line);
+	}
+}
@@ -0,0 +1,80 @@
+package goodieslink.test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.edge.EdgeRowScanner;
+import goodieslink.processing.edge.EdgeRowScanner.Kernel;
+import goodieslink.processing.hough.DetectionEngine;
+import goodieslink.processing.hough.SquareTransform;
+
+/**
+ * Short program that times each edge scanning kernel on the edge images in
+ * the project directory: packing an {@link EdgeBitmap}, and a whole square
+ * Hough transform with the {@link DetectionEngine#INCREMENTAL_SCAN} and
+ * {@link DetectionEngine#SPARSE_EDGES} engines, which find the edges of rows
+ * with the kernel.
+ * 
+ * @author Jonathan Schram
+ *
+ */
+public class BenchmarkEdgeKernels {
+	private static final int WARMUP = 50;
+	private static final int RUNS = 50;
+
+	public static void main(String[] args) throws IOException {
+		String[] files = { "cropped OpenCV image.png", "edge image OpenCV.png" };
+		System.out.println("Preferred kernel: " + EdgeRowScanner.preferredKernel(1));
+		for (String file : files) {
+			BufferedImage edgeImage = ImageIO.read(new File(file));
+			byte[] pixels = ((DataBufferByte) edgeImage.getRaster().getDataBuffer()).getData();
+			int width = edgeImage.getWidth();
+			int height = edgeImage.getHeight();
+			System.out.println(file + " (" + width + "x" + height + ")");
+
+			for (Kernel kernel : Kernel.values()) {
+				EdgeRowScanner scanner = EdgeRowScanner.create(pixels, 1, kernel);
+				long packTime = 0;
+				long countTime = 0;
+				int edges = 0;
+				for (int i = 0; i < WARMUP + RUNS; i++) {
+					long start = System.nanoTime();
+					EdgeBitmap.fromPixels(scanner, width, height);
+					long packed = System.nanoTime();
+					for (int y = 0; y < height; y++) {
+						edges += scanner.countEdges(y * width, width);
+					}
+					if (i >= WARMUP) {
+						packTime += packed - start;
+						countTime += System.nanoTime() - packed;
+					}
+				}
+				System.out.printf("  %-7s pack bitmap %8.3f ms, count rows %8.3f ms (%d edges)%n", kernel,
+						packTime / 1e6 / RUNS, countTime / 1e6 / RUNS, edges / (WARMUP + RUNS));
+			}
+
+			DetectionEngine[] engines = { DetectionEngine.INCREMENTAL_SCAN, DetectionEngine.SPARSE_EDGES };
+			for (DetectionEngine engine : engines) {
+				for (Kernel kernel : Kernel.values()) {
+					SquareTransform st = new SquareTransform(edgeImage, 19, 23);
+					st.setEngine(engine);
+					st.setEdgeKernel(kernel);
+					for (int i = 0; i < WARMUP / 5; i++) {
+						st.process();
+					}
+					long start = System.nanoTime();
+					for (int i = 0; i < RUNS / 5; i++) {
+						st.process();
+					}
+					System.out.printf("  %-7s %-16s %8.3f ms%n", kernel, engine,
+							(System.nanoTime() - start) / 1e6 / (RUNS / 5));
+				}
+			}
+		}
+	}
+}
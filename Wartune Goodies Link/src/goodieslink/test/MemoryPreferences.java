@@ -0,0 +1,95 @@
+package goodieslink.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.prefs.AbstractPreferences;
+
+/**
+ * Preferences node kept in memory, so tests of the cached settings never read
+ * or write the user's real preferences. Nothing is persisted, so flushing and
+ * syncing do nothing.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class MemoryPreferences extends AbstractPreferences {
+	/**
+	 * Values of this node
+	 */
+	private Map<String, String> values = new HashMap<String, String>();
+	/**
+	 * Child nodes created so far
+	 */
+	private Map<String, MemoryPreferences> children = new HashMap<String, MemoryPreferences>();
+
+	/**
+	 * Creates an empty root node
+	 */
+	public MemoryPreferences() {
+		this(null, "");
+	}
+
+	/**
+	 * Creates an empty child node
+	 *
+	 * @param parent
+	 *            Parent node
+	 * @param name
+	 *            Name of the node relative to its parent
+	 */
+	private MemoryPreferences(MemoryPreferences parent, String name) {
+		super(parent, name);
+	}
+
+	@Override
+	protected void putSpi(String key, String value) {
+		values.put(key, value);
+	}
+
+	@Override
+	protected String getSpi(String key) {
+		return values.get(key);
+	}
+
+	@Override
+	protected void removeSpi(String key) {
+		values.remove(key);
+	}
+
+	@Override
+	protected void removeNodeSpi() {
+		values.clear();
+		// so the parent no longer lists it
+		if (parent() != null) {
+			((MemoryPreferences) parent()).children.remove(name());
+		}
+	}
+
+	@Override
+	protected String[] keysSpi() {
+		return values.keySet().toArray(new String[values.size()]);
+	}
+
+	@Override
+	protected String[] childrenNamesSpi() {
+		return children.keySet().toArray(new String[children.size()]);
+	}
+
+	@Override
+	protected AbstractPreferences childSpi(String name) {
+		MemoryPreferences child = children.get(name);
+		if (child == null) {
+			child = new MemoryPreferences(this, name);
+			children.put(name, child);
+		}
+		return child;
+	}
+
+	@Override
+	protected void syncSpi() {
+	}
+
+	@Override
+	protected void flushSpi() {
+	}
+}
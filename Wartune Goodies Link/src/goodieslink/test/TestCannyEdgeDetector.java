@@ -0,0 +1,133 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+import org.junit.Test;
+
+import goodieslink.processing.edge.CannyEdgeDetector;
+
+/**
+ * JUnit test case to confirm that the hysteresis of the floating point Canny
+ * edge detector follows edges spanning a whole screen without running out of
+ * stack, as it did when following each pixel recursively
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class TestCannyEdgeDetector {
+
+	private static final int WIDTH = 1920;
+	private static final int HEIGHT = 1080;
+	/**
+	 * Rows between the lines of the synthetic grids
+	 */
+	private static final int SPACING = 16;
+	/**
+	 * Stack of the thread the detector runs on, much smaller than the
+	 * hundreds of thousands of frames a recursive trace of the serpentine
+	 * needs
+	 */
+	private static final long STACK_SIZE = 256 * 1024;
+
+	@Test
+	public void testSerpentine() throws InterruptedException {
+		int[] edges = detectOnSmallStack(serpentine());
+		// both sides of every line are one traced edge
+		for (int y = SPACING; y < HEIGHT - SPACING; y += SPACING) {
+			assertTrue("line " + y, countEdges(edges, WIDTH / 2, y - SPACING / 2, y + SPACING / 2) >= 2);
+		}
+		assertEquals(0, countEdges(edges, WIDTH / 2, 0, SPACING / 2));
+	}
+
+	@Test
+	public void testGrid() throws InterruptedException {
+		int[] edges = detectOnSmallStack(grid());
+		for (int y = SPACING; y < HEIGHT - SPACING; y += SPACING) {
+			for (int x = SPACING; x < WIDTH - SPACING; x += SPACING) {
+				assertTrue(x + "," + y, countEdges(edges, x + SPACING / 2, y - SPACING / 2, y + SPACING / 2) >= 2);
+			}
+		}
+	}
+
+	/**
+	 * Runs the detector on a thread with a small stack
+	 *
+	 * @param image
+	 *            Image to find the edges of
+	 * @return Pixels of the edge image, -1 for an edge
+	 */
+	private static int[] detectOnSmallStack(final BufferedImage image) throws InterruptedException {
+		final CannyEdgeDetector detector = new CannyEdgeDetector();
+		final Throwable[] failure = new Throwable[1];
+		Thread thread = new Thread(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					detector.setSourceImage(image);
+					detector.process();
+				} catch (Throwable t) {
+					failure[0] = t;
+				}
+			}
+		}, "canny", STACK_SIZE);
+		thread.start();
+		thread.join();
+		assertNull("Detection failed", failure[0]);
+		return ((DataBufferInt) detector.getEdgesImage().getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Counts the edges of a column between two rows
+	 */
+	private static int countEdges(int[] edges, int x, int startY, int endY) {
+		int count = 0;
+		for (int y = startY; y < endY; y++) {
+			if (edges[y * WIDTH + x] == -1) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Creates a full screen image of horizontal lines joined alternately at
+	 * their right and left ends, so their edges form one path around the whole
+	 * screen
+	 */
+	private static BufferedImage serpentine() {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		for (int y = SPACING; y < HEIGHT - SPACING; y++) {
+			int band = (y - SPACING) / SPACING;
+			int joint = band % 2 == 0 ? WIDTH - SPACING - 1 : SPACING;
+			for (int x = SPACING; x < WIDTH - SPACING; x++) {
+				if ((y - SPACING) % SPACING == 0 || x == joint) {
+					pixels[y * WIDTH + x] = (byte) 255;
+				}
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Creates a full screen image of a grid of lines
+	 */
+	private static BufferedImage grid() {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				if (x % SPACING == 0 || y % SPACING == 0) {
+					pixels[y * WIDTH + x] = (byte) 255;
+				}
+			}
+		}
+		return image;
+	}
+}
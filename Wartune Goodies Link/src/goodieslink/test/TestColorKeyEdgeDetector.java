@@ -0,0 +1,93 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.processing.Square;
+import goodieslink.processing.edge.ColorKeyEdgeDetector;
+import goodieslink.processing.edge.FrameColorModel;
+import goodieslink.processing.hough.GridFilter;
+import goodieslink.processing.hough.SquareTransform;
+
+/**
+ * JUnit test case to confirm that the colours of the icon frames alone find
+ * every tile of the board in a screenshot
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class TestColorKeyEdgeDetector {
+
+	private static final String SCREENSHOT = "openCV imread.png";
+	/**
+	 * Upper left corner of the first tile, and the pitch and number of tiles
+	 * along each axis of the board in the screenshot
+	 */
+	private static final int BOARD_X = 525, BOARD_Y = 219, PITCH = 44, COLUMNS = 12, ROWS = 6;
+
+	@Test
+	public void testTable() {
+		FrameColorModel model = new FrameColorModel();
+		assertFalse(model.matches(0, 0, 0));
+		model.addColor(100, 50, 200, 4);
+		assertTrue(model.matches(100, 50, 200));
+		assertTrue(model.matches(96, 46, 204));
+		assertFalse(model.matches(100, 50, 180));
+		assertFalse(model.matches(50, 100, 200));
+		assertEquals(FrameColorModel.TABLE_SIZE, model.getTable().length);
+
+		model.clear();
+		assertFalse(model.matches(100, 50, 200));
+	}
+
+	@Test
+	public void testBoard() throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File(SCREENSHOT));
+		ColorKeyEdgeDetector detector = new ColorKeyEdgeDetector();
+		detector.detect(screenshot);
+
+		SquareTransform transform = new SquareTransform(detector.getEdgeBitmap(null), 19, 21);
+		transform.process();
+		List<Square> squares = transform.getBoxes(0.85, new GridFilter(20, 7));
+		assertEquals(COLUMNS * ROWS, squares.size());
+		boolean[] found = new boolean[COLUMNS * ROWS];
+		for (Square square : squares) {
+			assertEquals(41, square.getSideLength());
+			int column = (square.getX() - BOARD_X) / PITCH;
+			int row = (square.getY() - BOARD_Y) / PITCH;
+			assertEquals(BOARD_X + column * PITCH, square.getX());
+			assertEquals(BOARD_Y + row * PITCH, square.getY());
+			found[row * COLUMNS + column] = true;
+		}
+		for (int i = 0; i < found.length; i++) {
+			assertTrue("tile " + i, found[i]);
+		}
+	}
+
+	@Test
+	public void testPixelFormats() throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File(SCREENSHOT));
+		ColorKeyEdgeDetector detector = new ColorKeyEdgeDetector();
+		detector.detect(screenshot);
+		byte[] expected = detector.getMask().clone();
+		assertArrayEquals(expected, detector.getEdgeImage(null).getPixels());
+
+		BufferedImage abgr = new BufferedImage(screenshot.getWidth(), screenshot.getHeight(),
+				BufferedImage.TYPE_4BYTE_ABGR);
+		abgr.getGraphics().drawImage(screenshot, 0, 0, null);
+		detector.detect(abgr);
+		assertArrayEquals(expected, detector.getMask());
+		assertEquals(1, detector.getAllocationCount());
+	}
+}
@@ -0,0 +1,136 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.processing.Square;
+import goodieslink.processing.contour.ContourSquareFinder;
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.edge.TiledCannyEdgeDetector;
+import goodieslink.processing.hough.DetectionEngine;
+import goodieslink.processing.hough.GridFilter;
+import goodieslink.processing.hough.SquareTransform;
+
+/**
+ * JUnit test case to confirm that labelling connected edge components finds
+ * the same squares as the square Hough transform, and the squares it misses
+ * when an icon is partially covered, without taking the frame of the board for
+ * a square
+ * 
+ * @author Jonathan Schram
+ *
+ */
+public class TestContourSquareFinder {
+
+	@Test
+	public void testCroppedBoard() throws IOException {
+		EdgeBitmap edges = EdgeBitmap.fromImage(ImageIO.read(new File("cropped OpenCV image.png")));
+		ContourSquareFinder finder = new ContourSquareFinder(19, 23);
+		List<Square> contours = finder.find(edges, new GridFilter(21, 21));
+
+		SquareTransform st = new SquareTransform(edges, 19, 23);
+		st.setEngine(DetectionEngine.BITMAP_POPCOUNT);
+		st.process();
+		List<Square> hough = st.getBoxes(.86, new GridFilter(21, 21));
+		assertEquals(72, hough.size());
+
+		// cells enclosed only by grid lines running across the whole board
+		// form one large component, so a few are missed
+		int matched = 0;
+		for (Square s : hough) {
+			if (hasNearbySquare(contours, s, 6)) {
+				matched++;
+			}
+		}
+		assertTrue("Matched " + matched, matched >= 64);
+		assertTrue(contours.size() <= hough.size());
+	}
+
+	@Test
+	public void testOccludedSquare() {
+		EdgeBitmap edges = new EdgeBitmap(160, 120);
+		Square covered = new Square(20, 20, 43);
+		Square above = new Square(45, 40, 43);
+		drawBorder(edges, covered, above);
+		drawBorder(edges, above, null);
+
+		// too much of the covered border is hidden for the square Hough
+		// transform
+		SquareTransform st = new SquareTransform(edges, 19, 23);
+		st.setEngine(DetectionEngine.BITMAP_POPCOUNT);
+		st.process();
+		List<Square> hough = st.getBoxes(.86, new GridFilter(21, 21));
+		assertEquals(1, hough.size());
+		assertTrue(hasNearbySquare(hough, above, 1));
+
+		// both borders are one component, found along its straight runs
+		ContourSquareFinder finder = new ContourSquareFinder(19, 23);
+		List<Square> contours = finder.find(edges, new GridFilter(21, 21));
+		assertEquals(1, finder.getComponentCount());
+		assertEquals(2, contours.size());
+		assertTrue(hasNearbySquare(contours, covered, 0));
+		assertTrue(hasNearbySquare(contours, above, 0));
+	}
+
+	@Test
+	public void testCoveredIcon() throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File("Goodies link edge detection/case square not detected.png"));
+		BufferedImage bgr = new BufferedImage(screenshot.getWidth(), screenshot.getHeight(),
+				BufferedImage.TYPE_3BYTE_BGR);
+		bgr.getGraphics().drawImage(screenshot, 0, 0, null);
+		TiledCannyEdgeDetector detector = new TiledCannyEdgeDetector();
+		detector.detect(bgr);
+		EdgeBitmap edges = detector.getEdgeBitmap(null);
+
+		List<Square> contours = new ContourSquareFinder(19, 23).find(edges, new GridFilter(21, 21));
+		// the partially covered potion
+		assertTrue(hasNearbySquare(contours, new Square(774, 419, 41), 2));
+		// the grid lines along the frame of the board
+		assertFalse(hasNearbySquare(contours, new Square(970, 675, 45), 6));
+	}
+
+	/**
+	 * Draws the border of a square into an edge image, leaving out the part
+	 * covered by another square
+	 */
+	private static void drawBorder(EdgeBitmap edges, Square s, Square cover) {
+		int last = s.getSideLength() - 1;
+		for (int i = 0; i <= last; i++) {
+			setUncovered(edges, s.getX() + i, s.getY(), cover);
+			setUncovered(edges, s.getX() + i, s.getY() + last, cover);
+			setUncovered(edges, s.getX(), s.getY() + i, cover);
+			setUncovered(edges, s.getX() + last, s.getY() + i, cover);
+		}
+	}
+
+	private static void setUncovered(EdgeBitmap edges, int x, int y, Square cover) {
+		if (cover == null || !cover.contains(x, y)) {
+			edges.set(x, y);
+		}
+	}
+
+	/**
+	 * Determines whether a list contains a square with a center close to the
+	 * given square
+	 */
+	private static boolean hasNearbySquare(List<Square> squares, Square target, double tolerance) {
+		for (Square s : squares) {
+			double dx = s.getCenterX() - target.getCenterX();
+			double dy = s.getCenterY() - target.getCenterY();
+			if (Math.sqrt(dx * dx + dy * dy) <= tolerance) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,97 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.processing.Square;
+import goodieslink.processing.edge.EdgeRowScanner;
+import goodieslink.processing.edge.EdgeRowScanner.Kernel;
+import goodieslink.processing.hough.DetectionEngine;
+import goodieslink.processing.hough.GridFilter;
+import goodieslink.processing.hough.SquareTransform;
+
+/**
+ * JUnit test case to confirm that every edge scanning kernel finds the same
+ * edges as comparing one byte at a time
+ * 
+ * @author Jonathan Schram
+ *
+ */
+public class TestEdgeRowScanner {
+
+	@Test
+	public void testRandomRuns() {
+		Random random = new Random(16);
+		byte[] pixels = new byte[1000];
+		for (int i = 0; i < pixels.length; i++) {
+			// mostly empty, with values close to an edge
+			int choice = random.nextInt(8);
+			pixels[i] = (byte) (choice == 0 ? 255 : choice == 1 ? 254 : choice == 2 ? 127 : 0);
+		}
+		EdgeRowScanner scalar = EdgeRowScanner.create(pixels, 1, Kernel.SCALAR);
+		EdgeRowScanner swar = EdgeRowScanner.create(pixels, 1, Kernel.SWAR);
+		assertEquals(Kernel.SWAR, swar.getKernel());
+		for (int start = 0; start < 200; start++) {
+			// runs ending at the end of the array can't read whole words
+			for (int length = 1; length <= 64; length++) {
+				assertEquals(scalar.edgeMask(start, length), swar.edgeMask(start, length));
+				int end = pixels.length - start - length;
+				assertEquals(scalar.edgeMask(end, length), swar.edgeMask(end, length));
+			}
+		}
+		assertEquals(scalar.countEdges(3, 990), swar.countEdges(3, 990));
+
+		int[] scalarCounts = new int[1000];
+		int[] swarCounts = new int[1000];
+		scalar.addEdges(5, 900, scalarCounts, 0, 2);
+		swar.addEdges(5, 900, swarCounts, 0, 2);
+		for (int i = 0; i < scalarCounts.length; i++) {
+			assertEquals(scalarCounts[i], swarCounts[i]);
+		}
+
+		// only single byte pixels can be read a word at a time
+		assertEquals(Kernel.SCALAR, EdgeRowScanner.create(pixels, 3, Kernel.SWAR).getKernel());
+	}
+
+	@Test
+	public void testSameSquares() throws IOException {
+		BufferedImage edgeImage = ImageIO.read(new File("cropped OpenCV image.png"));
+		byte[] pixels = ((DataBufferByte) edgeImage.getRaster().getDataBuffer()).getData();
+		int edgeCount = 0;
+		for (byte pixel : pixels) {
+			if (pixel == -1) {
+				edgeCount++;
+			}
+		}
+		assertEquals(edgeCount, EdgeRowScanner.create(pixels, 1, Kernel.SWAR).countEdges(0, pixels.length));
+
+		DetectionEngine[] engines = { DetectionEngine.INCREMENTAL_SCAN, DetectionEngine.SPARSE_EDGES,
+				DetectionEngine.BITMAP_POPCOUNT };
+		for (DetectionEngine engine : engines) {
+			List<Square> expected = detect(edgeImage, engine, Kernel.SCALAR);
+			List<Square> actual = detect(edgeImage, engine, Kernel.SWAR);
+			assertEquals(engine.toString(), expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).toString(), actual.get(i).toString());
+			}
+		}
+	}
+
+	private static List<Square> detect(BufferedImage edgeImage, DetectionEngine engine, Kernel kernel) {
+		SquareTransform st = new SquareTransform(edgeImage, 19, 23);
+		st.setEngine(engine);
+		st.setEdgeKernel(kernel);
+		st.process();
+		return st.getBoxes(.86, new GridFilter(21, 21));
+	}
+}
@@ -0,0 +1,81 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.controller.FrameCache;
+
+/**
+ * JUnit test case to confirm that frames are hashed with xxHash64, that any
+ * changed icon changes the hash of a frame, and that the cache drops the
+ * least recently used frame
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class TestFrameCache {
+
+	private static final String SCREENSHOT = "openCV imread.png";
+
+	@Test
+	public void testReferenceHashes() {
+		assertEquals(0xEF46DB3751D8E999L, FrameCache.hash(new byte[0], 0));
+		assertEquals(0x44BC2CF5AD770999L, FrameCache.hash("abc".getBytes(StandardCharsets.US_ASCII), 0));
+		assertEquals(0xFBCEA83C8A378BF1L, FrameCache.hash(
+				"Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII), 0));
+	}
+
+	@Test
+	public void testFrameHash() throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File(SCREENSHOT));
+		BufferedImage copy = ImageIO.read(new File(SCREENSHOT));
+		long hash = FrameCache.hash(screenshot);
+		assertEquals(hash, FrameCache.hash(copy));
+
+		// blank out the smallest icon the detectors look for
+		int side = 2 * 18 + 1;
+		for (int y = 300; y < 300 + side; y++) {
+			for (int x = 600; x < 600 + side; x++) {
+				copy.setRGB(x, y, 0);
+			}
+		}
+		assertNotEquals(hash, FrameCache.hash(copy));
+		assertNotEquals(FrameCache.hash(screenshot, 1), FrameCache.hash(copy, 1));
+	}
+
+	@Test
+	public void testLeastRecentlyUsed() {
+		FrameCache<String> cache = new FrameCache<>(2);
+		cache.put(1, "first");
+		cache.put(2, "second");
+		assertEquals("first", cache.get(1));
+		cache.put(3, "third");
+		assertNull(cache.get(2));
+		assertEquals("first", cache.get(1));
+		assertEquals("third", cache.get(3));
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		cache.clear();
+		assertNull(cache.get(1));
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testCombine() {
+		long hash = FrameCache.hash(new byte[] { 1, 2, 3 }, 0);
+		assertEquals(FrameCache.combine(hash, 72), FrameCache.combine(hash, 72));
+		assertNotEquals(FrameCache.combine(hash, 72), FrameCache.combine(hash, 70));
+	}
+}
@@ -0,0 +1,128 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.prefs.Preferences;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.controller.DetectionContext;
+import goodieslink.controller.GoodieAgent;
+import goodieslink.controller.RadiusCalibration;
+import goodieslink.processing.Square;
+import goodieslink.processing.edge.ColorKeyEdgeDetector;
+import goodieslink.processing.hough.DetectionEngine;
+import goodieslink.processing.hough.GridFilter;
+import goodieslink.processing.hough.SquareTransform;
+
+/**
+ * JUnit test case to confirm that the agent detects the board of a saved
+ * screenshot, that its squares can be detected again from another thread, and
+ * that its calibrated radius band fits within one tile of the colour key mask
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class TestGoodieAgent {
+
+	private static final String SCREENSHOT = "openCV imread.png";
+	/**
+	 * Upper left corner of the first tile, and the pitch and number of tiles
+	 * along each axis of the board in the screenshot
+	 */
+	private static final int BOARD_X = 525, BOARD_Y = 219, PITCH = 44, COLUMNS = 12, ROWS = 6;
+
+	@Test
+	public void testRedetectFromAnotherThread() throws IOException, InterruptedException {
+		final GoodieAgent agent = new GoodieAgent(null, 0.86, 19, 23, 20, 4, 10);
+		agent.setDetectionEngine(DetectionEngine.INTEGRAL_IMAGE);
+		agent.setLowestDetectionThreshold(0.7);
+		agent.setFrame(ImageIO.read(new File(SCREENSHOT)));
+		agent.detectSquares();
+		int detected = agent.countRemaining();
+		assertTrue(detected > 0);
+
+		// a threshold slider runs on the UI thread while another one detects
+		final int[] counts = new int[3];
+		Thread slider = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				counts[0] = agent.redetectSquares();
+				agent.setSquareDetectionThreshold(0.5);
+				counts[1] = agent.redetectSquares();
+				agent.setSquareDetectionThreshold(0.99);
+				counts[2] = agent.redetectSquares();
+			}
+		});
+		slider.start();
+		slider.join();
+		assertEquals(detected, counts[0]);
+		// below the lowest detection threshold
+		assertEquals(-1, counts[1]);
+		assertTrue(counts[2] < detected);
+
+		// the detecting thread takes the new squares with its next screenshot
+		agent.processScreen();
+		assertEquals(counts[2], agent.countRemaining());
+
+		// a new detection replaces them
+		agent.setSquareDetectionThreshold(0.86);
+		agent.detectSquares();
+		agent.processScreen();
+		assertEquals(detected, agent.countRemaining());
+	}
+
+	@Test
+	public void testColorKeyCalibratedBand() throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File(SCREENSHOT));
+		Preferences preferences = new MemoryPreferences();
+		String edgeDetector = System.getProperty(DetectionContext.EDGE_DETECTOR_PROPERTY);
+		System.setProperty(DetectionContext.EDGE_DETECTOR_PROPERTY, "COLORKEY");
+		try {
+			// the default radius range of the agent
+			GoodieAgent agent = new GoodieAgent(null, 0.86, 15, 30, 20, 4, 10);
+			agent.setRadiusCalibration(new RadiusCalibration(preferences, 15, 30));
+			agent.setFrame(screenshot);
+			agent.detectSquares();
+			agent.releaseDetectionContext();
+			// 22 would fit squares spanning two tiles
+			assertEquals(19, agent.getMinSquareRadius());
+			assertEquals(21, agent.getMaxSquareRadius());
+			assertEquals(COLUMNS * ROWS, agent.countRemaining());
+
+			// a later session loads the same band
+			GoodieAgent later = new GoodieAgent(null, 0.86, 15, 30, 20, 4, 10);
+			later.setRadiusCalibration(new RadiusCalibration(preferences, 15, 30));
+			later.setFrame(screenshot);
+			later.detectSquares();
+			later.releaseDetectionContext();
+			assertEquals(21, later.getMaxSquareRadius());
+		} finally {
+			if (edgeDetector == null) {
+				System.clearProperty(DetectionContext.EDGE_DETECTOR_PROPERTY);
+			} else {
+				System.setProperty(DetectionContext.EDGE_DETECTOR_PROPERTY, edgeDetector);
+			}
+		}
+
+		// every square the band finds in the mask is a whole tile
+		ColorKeyEdgeDetector detector = new ColorKeyEdgeDetector();
+		detector.detect(screenshot);
+		SquareTransform transform = new SquareTransform(detector.getEdgeBitmap(null), 19, 21);
+		transform.process();
+		List<Square> squares = transform.getBoxes(0.86, new GridFilter(20, 20));
+		assertEquals(COLUMNS * ROWS, squares.size());
+		for (Square square : squares) {
+			assertEquals(41, square.getSideLength());
+			assertEquals(0, (square.getX() - BOARD_X) % PITCH);
+			assertEquals(0, (square.getY() - BOARD_Y) % PITCH);
+		}
+	}
+}
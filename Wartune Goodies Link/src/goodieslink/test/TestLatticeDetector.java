@@ -0,0 +1,124 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.processing.Square;
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.hough.DetectionEngine;
+import goodieslink.processing.hough.GridFilter;
+import goodieslink.processing.hough.SquareTransform;
+import goodieslink.processing.lattice.LatticeDetector;
+
+/**
+ * JUnit test case to confirm that fitting a lattice finds the same board cells
+ * as the square Hough transform
+ * 
+ * @author Jonathan Schram
+ *
+ */
+public class TestLatticeDetector {
+
+	@Test
+	public void testCroppedBoard() throws IOException {
+		BufferedImage edgeImage = ImageIO.read(new File("cropped OpenCV image.png"));
+		LatticeDetector detector = new LatticeDetector(19, 23);
+		List<Square> lattice = detector.detect(EdgeBitmap.fromImage(edgeImage));
+
+		assertEquals(44, detector.getColumnPitch());
+		assertEquals(44, detector.getRowPitch());
+		assertEquals(41, detector.getSideLength());
+		// 12 columns by 6 rows
+		assertEquals(72, lattice.size());
+
+		SquareTransform st = new SquareTransform(edgeImage, 19, 23);
+		st.setEngine(DetectionEngine.INTEGRAL_IMAGE);
+		st.process();
+		List<Square> hough = st.getBoxes(.86, new GridFilter(20, 7));
+		assertEquals(hough.size(), lattice.size());
+		for (Square s : hough) {
+			assertTrue(s.toString(), hasNearbySquare(lattice, s, 3));
+		}
+	}
+
+	@Test
+	public void testFullScreen() throws IOException {
+		BufferedImage edgeImage = ImageIO.read(new File("edge image OpenCV.png"));
+		LatticeDetector detector = new LatticeDetector(19, 23);
+		List<Square> lattice = detector.detect(EdgeBitmap.fromImage(edgeImage));
+
+		assertEquals(44, detector.getColumnPitch());
+		// only the board is found, not the other squares on the screen
+		assertEquals(72, lattice.size());
+		for (Square s : lattice) {
+			assertTrue(s.toString(), s.getX() > 500 && s.getY() > 200 && s.getY() < 500);
+		}
+	}
+
+	@Test
+	public void testAlternatingIcons() {
+		// an extra edge in the icons of every other row and column makes twice
+		// the pitch correlate slightly more strongly than the pitch
+		EdgeBitmap edges = new EdgeBitmap(800, 500);
+		for (int row = 0; row < 10; row++) {
+			for (int column = 0; column < 17; column++) {
+				int x = 10 + column * 44;
+				int y = 10 + row * 44;
+				for (int i = 0; i < 41; i++) {
+					edges.set(x + i, y);
+					edges.set(x + i, y + 40);
+					edges.set(x, y + i);
+					edges.set(x + 40, y + i);
+					if (row % 2 == 0 && column % 2 == 0) {
+						edges.set(x + 8, y + i);
+						edges.set(x + i, y + 8);
+					}
+				}
+			}
+		}
+		// the wide search range allows lags of twice the pitch
+		LatticeDetector detector = new LatticeDetector(15, 30);
+		List<Square> lattice = detector.detect(edges);
+		assertEquals(44, detector.getColumnPitch());
+		assertEquals(17 * 10, lattice.size());
+	}
+
+	@Test
+	public void testNoLattice() throws IOException {
+		LatticeDetector detector = new LatticeDetector(19, 23);
+		detector.detect(EdgeBitmap.fromImage(ImageIO.read(new File("cropped OpenCV image.png"))));
+		assertEquals(44, detector.getColumnPitch());
+
+		// nothing from the previous frame is reported for a blank one
+		assertTrue(detector.detect(new EdgeBitmap(400, 300)).isEmpty());
+		assertEquals(-1, detector.getColumnPitch());
+		assertEquals(-1, detector.getRowPitch());
+		assertEquals(-1, detector.getSideLength());
+		assertEquals(-1, detector.getOriginX());
+		assertEquals(-1, detector.getOriginY());
+	}
+
+	/**
+	 * Determines whether a list contains a square with a center close to the
+	 * given square
+	 */
+	private static boolean hasNearbySquare(List<Square> squares, Square target, double tolerance) {
+		for (Square s : squares) {
+			double dx = s.getCenterX() - target.getCenterX();
+			double dy = s.getCenterY() - target.getCenterY();
+			if (Math.sqrt(dx * dx + dy * dy) <= tolerance) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,74 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.processing.PixelBuffer;
+import goodieslink.processing.hough.DetectionEngine;
+import goodieslink.processing.hough.SquareTransform;
+import goodieslink.processing.matching.DifferenceSquaredMeasure;
+import goodieslink.processing.matching.RegionMatcher;
+
+/**
+ * JUnit test case to confirm that the vision pipeline reads images without
+ * copying their pixels
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class TestPixelBuffer {
+
+	@Test
+	public void testSharedRaster() {
+		BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_3BYTE_BGR);
+		PixelBuffer.resetBytesCopied();
+		PixelBuffer buffer = PixelBuffer.wrap(image);
+
+		assertTrue(buffer.getPixels() == ((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+		assertEquals(3, buffer.getPixelSize());
+		assertEquals(0, PixelBuffer.getBytesCopied());
+
+		// an image of another format must be converted
+		BufferedImage intImage = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+		intImage.setRGB(5, 7, 0x123456);
+		PixelBuffer converted = PixelBuffer.wrap(intImage);
+		assertEquals(40 * 30 * 3, PixelBuffer.getBytesCopied());
+		int offset = (7 * 40 + 5) * 3;
+		assertEquals(0x56, converted.getPixels()[offset] & 0xff);
+		assertEquals(0x34, converted.getPixels()[offset + 1] & 0xff);
+		assertEquals(0x12, converted.getPixels()[offset + 2] & 0xff);
+	}
+
+	@Test
+	public void testReuse() {
+		PixelBuffer first = new PixelBuffer(40, 30, BufferedImage.TYPE_BYTE_GRAY);
+		assertTrue(first == PixelBuffer.reuse(first, 40, 30, BufferedImage.TYPE_BYTE_GRAY));
+		assertTrue(first != PixelBuffer.reuse(first, 41, 30, BufferedImage.TYPE_BYTE_GRAY));
+		assertTrue(first != PixelBuffer.reuse(first, 40, 30, BufferedImage.TYPE_3BYTE_BGR));
+		assertTrue(PixelBuffer.reuse(null, 40, 30, BufferedImage.TYPE_BYTE_GRAY) != null);
+	}
+
+	@Test
+	public void testNoCopiesWhileDetecting() throws IOException {
+		BufferedImage edgeImage = ImageIO.read(new File("cropped OpenCV image.png"));
+		BufferedImage screen = ImageIO.read(new File("cropped sample image.png"));
+		// decoded images are stored as bytes, so nothing needs converting
+		PixelBuffer.resetBytesCopied();
+
+		SquareTransform st = new SquareTransform(edgeImage, 19, 23);
+		st.setEngine(DetectionEngine.INTEGRAL_IMAGE);
+		st.process();
+		RegionMatcher matcher = new RegionMatcher(new DifferenceSquaredMeasure(), 2);
+		matcher.setImage(screen);
+		assertEquals(0, PixelBuffer.getBytesCopied());
+	}
+}
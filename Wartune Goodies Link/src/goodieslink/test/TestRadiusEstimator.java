@@ -0,0 +1,87 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.controller.RadiusCalibration;
+import goodieslink.processing.Square;
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.hough.DetectionEngine;
+import goodieslink.processing.hough.GridFilter;
+import goodieslink.processing.hough.SquareTransform;
+import goodieslink.processing.lattice.RadiusEstimator;
+
+/**
+ * JUnit test case to confirm that the icon radius estimated from a wide search
+ * range gives a band that detects the same squares as the hand tuned radii
+ * 
+ * @author Jonathan Schram
+ *
+ */
+public class TestRadiusEstimator {
+
+	@Test
+	public void testCroppedBoard() throws IOException {
+		EdgeBitmap edges = EdgeBitmap.fromImage(ImageIO.read(new File("cropped OpenCV image.png")));
+		// a wide range allows lags of several pitches
+		RadiusEstimator estimator = new RadiusEstimator(10, 40);
+		assertEquals(21, estimator.estimateRadius(edges));
+		assertEquals(44, estimator.getPitch());
+
+		SquareTransform st = new SquareTransform(edges, 21 - RadiusCalibration.DEFAULT_MARGIN,
+				21 + RadiusCalibration.DEFAULT_MARGIN);
+		st.setEngine(DetectionEngine.BITMAP_POPCOUNT);
+		st.process();
+		List<Square> squares = st.getBoxes(.86, new GridFilter(21, 21));
+		assertEquals(72, squares.size());
+	}
+
+	@Test
+	public void testBlankImage() {
+		RadiusEstimator estimator = new RadiusEstimator(15, 30);
+		assertEquals(-1, estimator.estimateRadius(new EdgeBitmap(300, 200)));
+		assertEquals(-1, estimator.getPitch());
+	}
+
+	@Test
+	public void testCachedBand() throws IOException, BackingStoreException {
+		EdgeBitmap edges = EdgeBitmap.fromImage(ImageIO.read(new File("cropped OpenCV image.png")));
+		// never touches the user's real preferences
+		Preferences preferences = new MemoryPreferences().node("radiusCalibration");
+		try {
+			RadiusCalibration calibration = new RadiusCalibration(preferences, 15, 30);
+			calibration.clear(edges.getWidth(), edges.getHeight());
+			assertTrue(!calibration.load(edges.getWidth(), edges.getHeight()));
+			assertTrue(calibration.calibrate(edges));
+			assertEquals(19, calibration.getMinRadius());
+			assertEquals(23, calibration.getMaxRadius());
+			// unconfirmed estimates aren't cached
+			assertTrue(!new RadiusCalibration(preferences, 15, 30).load(edges.getWidth(), edges.getHeight()));
+			calibration.save(edges.getWidth(), edges.getHeight());
+
+			// a later session loads the band without estimating
+			RadiusCalibration later = new RadiusCalibration(preferences, 15, 30);
+			assertTrue(later.load(edges.getWidth(), edges.getHeight()));
+			assertEquals(19, later.getMinRadius());
+			assertEquals(23, later.getMaxRadius());
+			assertTrue(!later.load(edges.getWidth() + 1, edges.getHeight()));
+
+			// the band is kept within a narrower search range
+			RadiusCalibration narrower = new RadiusCalibration(preferences, 20, 30);
+			assertTrue(narrower.load(edges.getWidth(), edges.getHeight()));
+			assertEquals(20, narrower.getMinRadius());
+		} finally {
+			preferences.removeNode();
+		}
+	}
+}
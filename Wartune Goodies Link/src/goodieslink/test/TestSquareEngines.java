@@ -0,0 +1,512 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.processing.Square;
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.edge.OrientedEdges;
+import goodieslink.processing.hough.Accumulator;
+import goodieslink.processing.hough.DetectionEngine;
+import goodieslink.processing.hough.GridFilter;
+import goodieslink.processing.hough.IntVoteStorage;
+import goodieslink.processing.hough.OffHeapVoteStorage;
+import goodieslink.processing.hough.PeakFilter;
+import goodieslink.processing.hough.ScoreIndex;
+import goodieslink.processing.hough.SquareTransform;
+import goodieslink.processing.hough.VoteQuery;
+import goodieslink.processing.lattice.LatticeDetector;
+
+/**
+ * JUnit test case to confirm that every square detection engine finds exactly
+ * the same squares as the original window scan. Uses the edge images saved
+ * from OpenCV so no native library is required.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class TestSquareEngines {
+
+	private static final String[] EDGE_IMAGES = { "cropped OpenCV image.png", "edge image OpenCV.png" };
+
+	@Test
+	public void testIntegralImage() throws IOException {
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.WINDOW_SCAN);
+			SquareTransform integral = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE);
+
+			assertSameSquares(imageFilename, reference.getBoxes(.85), integral.getBoxes(.85));
+			assertSameSquares(imageFilename, reference.getBoxes(.85, new GridFilter(20, 7)),
+					integral.getBoxes(.85, new GridFilter(20, 7)));
+		}
+	}
+
+	@Test
+	public void testSparseEdges() throws IOException {
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE);
+			SquareTransform sparse = detect(edgeImage, DetectionEngine.SPARSE_EDGES);
+			assertSameVotes(imageFilename, reference.getAccumulator(), sparse.getAccumulator());
+
+			SquareTransform sparseBands = new SquareTransform(edgeImage, 19, 23);
+			sparseBands.setEngine(DetectionEngine.SPARSE_EDGES);
+			sparseBands.setThreadCount(3);
+			sparseBands.setBandHeight(5);
+			sparseBands.process();
+			assertSameVotes(imageFilename, reference.getAccumulator(), sparseBands.getAccumulator());
+		}
+	}
+
+	@Test
+	public void testBitmapPopcount() throws IOException {
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE);
+			SquareTransform packed = detect(edgeImage, DetectionEngine.BITMAP_POPCOUNT);
+			assertSameVotes(imageFilename, reference.getAccumulator(), packed.getAccumulator());
+
+			// bitmap of the white pixels of a Canny edge detector style image
+			BufferedImage argbImage = new BufferedImage(edgeImage.getWidth(), edgeImage.getHeight(),
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics g = argbImage.getGraphics();
+			g.drawImage(edgeImage, 0, 0, null);
+			g.dispose();
+			SquareTransform bitmap = new SquareTransform(EdgeBitmap.fromImage(argbImage), 19, 23);
+			bitmap.setThreadCount(2);
+			bitmap.process();
+			assertSameVotes(imageFilename, reference.getAccumulator(), bitmap.getAccumulator());
+			assertSameSquares(imageFilename, reference.getBoxes(.85, new GridFilter(20, 7)),
+					bitmap.getBoxes(.85, new GridFilter(20, 7)));
+		}
+	}
+
+	@Test
+	public void testIncrementalScan() throws IOException {
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE);
+			SquareTransform incremental = detect(edgeImage, DetectionEngine.INCREMENTAL_SCAN);
+			assertSameVotes(imageFilename, reference.getAccumulator(), incremental.getAccumulator());
+
+			// each band slides its own window
+			SquareTransform bands = new SquareTransform(edgeImage, 19, 23);
+			bands.setEngine(DetectionEngine.INCREMENTAL_SCAN);
+			bands.setThreadCount(3);
+			bands.setBandHeight(9);
+			bands.process();
+			assertSameVotes(imageFilename, reference.getAccumulator(), bands.getAccumulator());
+
+			// the pyramid skips centers, so the window is rebuilt
+			SquareTransform pyramid = new SquareTransform(edgeImage, 19, 23);
+			pyramid.setEngine(DetectionEngine.INCREMENTAL_SCAN);
+			pyramid.setPyramid(true);
+			pyramid.setMinimumBorderProportion(.85);
+			pyramid.process();
+			assertSameSquares(imageFilename, reference.getBoxes(.85), pyramid.getBoxes(.85));
+		}
+	}
+
+	@Test
+	public void testEarlyRejection() throws IOException {
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE);
+			for (DetectionEngine engine : new DetectionEngine[] { DetectionEngine.WINDOW_SCAN,
+					DetectionEngine.INCREMENTAL_SCAN, DetectionEngine.BITMAP_POPCOUNT }) {
+				SquareTransform rejecting = new SquareTransform(edgeImage, 19, 23);
+				rejecting.setEngine(engine);
+				rejecting.setEarlyRejection(true);
+				rejecting.setMinimumBorderProportion(.85);
+				rejecting.setThreadCount(2);
+				rejecting.process();
+				assertEquals(edgeImage.getWidth() * edgeImage.getHeight(),
+						rejecting.getScannedCenterCount() + rejecting.getSkippedCenterCount());
+				assertTrue(rejecting.getSkippedCenterCount() > 0);
+				assertSameSquares(imageFilename, reference.getBoxes(.85), rejecting.getBoxes(.85));
+				assertSameSquares(imageFilename, reference.getBoxes(.86, new GridFilter(20, 7)),
+						rejecting.getBoxes(.86, new GridFilter(20, 7)));
+			}
+		}
+	}
+
+	@Test
+	public void testStreamingCandidates() throws IOException {
+		SquareTransform streaming = new SquareTransform((BufferedImage) null, 19, 23);
+		streaming.setEngine(DetectionEngine.INTEGRAL_IMAGE);
+		streaming.setStreaming(true);
+		streaming.setMinimumBorderProportion(.85);
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE);
+			streaming.setImage(edgeImage);
+			streaming.setThreadCount(1);
+			streaming.process();
+			assertNull(streaming.getAccumulator());
+			assertSameSquares(imageFilename, reference.getBoxes(.85), streaming.getBoxes(.85));
+			assertSameSquares(imageFilename, reference.getBoxes(.9), streaming.getBoxes(.9));
+			assertSameSquares(imageFilename, reference.getBoxes(.85, new GridFilter(20, 7)),
+					streaming.getBoxes(.85, new GridFilter(20, 7)));
+			assertTrue(streaming.getCandidates().getMemoryUsage() < reference.getAccumulator().getMemoryUsage() / 100);
+
+			streaming.setThreadCount(3);
+			streaming.setBandHeight(11);
+			streaming.process();
+			assertSameSquares(imageFilename, reference.getBoxes(.85), streaming.getBoxes(.85));
+		}
+	}
+
+	@Test
+	public void testScoreIndex() throws IOException {
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform st = new SquareTransform(edgeImage, 19, 23);
+			st.setEngine(DetectionEngine.INTEGRAL_IMAGE);
+			st.setMinimumBorderProportion(.7);
+			st.process();
+			ScoreIndex index = st.getScoreIndex();
+
+			SquareTransform streaming = new SquareTransform(edgeImage, 19, 23);
+			streaming.setEngine(DetectionEngine.INTEGRAL_IMAGE);
+			streaming.setStreaming(true);
+			streaming.setMinimumBorderProportion(.7);
+			streaming.process();
+
+			for (double threshold = .7; threshold <= 1; threshold += .01) {
+				String message = imageFilename + " at " + threshold;
+				List<Square> expected = st.getAccumulator().getPeaks(threshold);
+				assertSameSquares(message, expected, index.getPeaks(threshold));
+				assertEquals(message, expected.size(), index.countPeaks(threshold));
+				assertSameSquares(message, expected, streaming.getBoxes(threshold));
+			}
+			// lower thresholds still scan the accumulator
+			assertSameSquares(imageFilename, st.getAccumulator().getPeaks(.6), st.getBoxes(.6));
+
+			// the index answers vote queries for the bins it holds
+			VoteQuery votes = st.getAccumulator().new AccumulatorVoteQuery();
+			for (Square s : st.getAccumulator().getPeaks(.6)) {
+				int radius = (s.getSideLength() - 1) / 2;
+				int x = s.getX() + radius;
+				int y = s.getY() + radius;
+				int expected = votes.getVotes(x, y, radius);
+				boolean indexed = expected >= Accumulator.voteThreshold(.7, radius);
+				assertEquals(s.toString(), indexed ? expected : -1, index.getVotes(x, y, radius));
+			}
+		}
+	}
+
+	@Test
+	public void testOrientedVoting() throws IOException {
+		BufferedImage edgeImage = ImageIO.read(new File("edge image OpenCV.png"));
+		BufferedImage grayImage = ImageIO.read(new File("openCV bw.png"));
+		byte[] gray = ((DataBufferByte) grayImage.getRaster().getDataBuffer()).getData();
+		EdgeBitmap edges = EdgeBitmap.fromImage(edgeImage);
+		OrientedEdges oriented = OrientedEdges.fromGray(gray, edges);
+
+		SquareTransform unoriented = new SquareTransform(edges, 19, 23);
+		unoriented.process();
+		SquareTransform st = new SquareTransform(edges, 19, 23);
+		st.setOrientedEdges(oriented);
+		st.process();
+
+		// fewer false peaks, but every cell of the board is still found
+		assertTrue(st.getBoxes(.85).size() < unoriented.getBoxes(.85).size());
+		List<Square> squares = st.getBoxes(.85, new GridFilter(21, 21));
+		List<Square> board = new LatticeDetector(19, 23).detect(edges);
+		assertEquals(72, board.size());
+		for (Square cell : board) {
+			boolean found = false;
+			for (Square s : squares) {
+				double dx = s.getCenterX() - cell.getCenterX();
+				double dy = s.getCenterY() - cell.getCenterY();
+				// the lattice is fitted to a slightly larger side length
+				found |= Math.sqrt(dx * dx + dy * dy) <= 6;
+			}
+			assertTrue(cell.toString(), found);
+		}
+	}
+
+	@Test
+	public void testVoteThreshold() {
+		double[] proportions = { 0, .1, .5, .85, .86, .9, .95, 1 };
+		for (double proportion : proportions) {
+			for (int radius = 1; radius < 200; radius++) {
+				int threshold = Accumulator.voteThreshold(proportion, radius);
+				assertTrue(threshold / (double) (radius << 3) >= proportion);
+				assertTrue((threshold - 1) / (double) (radius << 3) < proportion);
+			}
+		}
+	}
+
+	@Test
+	public void testPyramid() throws IOException {
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE);
+			for (double threshold : new double[] { .85, .86 }) {
+				SquareTransform pyramid = new SquareTransform(edgeImage, 19, 23);
+				pyramid.setEngine(DetectionEngine.BITMAP_POPCOUNT);
+				pyramid.setPyramid(true);
+				pyramid.setMinimumBorderProportion(threshold);
+				pyramid.process();
+				assertTrue(pyramid.getRefinedCenterCount() < edgeImage.getWidth() * edgeImage.getHeight());
+				assertSameSquares(imageFilename, reference.getBoxes(threshold), pyramid.getBoxes(threshold));
+				assertSameSquares(imageFilename, reference.getBoxes(threshold, new GridFilter(20, 7)),
+						pyramid.getBoxes(threshold, new GridFilter(20, 7)));
+			}
+		}
+	}
+
+	@Test
+	public void testGridConsolidation() throws IOException {
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			List<Square> peaks = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE).getBoxes(.7);
+			for (double spacing : new double[] { 0, 7, 20, 20.5, 45 }) {
+				GridFilter filter = new GridFilter(spacing, 7);
+				assertSameSquares(imageFilename + " spacing " + spacing,
+						Accumulator.consolidate(peaks, lastOfGroup(filter, false), null),
+						Accumulator.consolidate(peaks, lastOfGroup(filter, true), null));
+			}
+		}
+
+		// random peaks, some off the top left of the image
+		Random random = new Random(42);
+		List<Square> peaks = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			peaks.add(new Square(random.nextInt(600) - 50, random.nextInt(400) - 50, 30 + random.nextInt(15)));
+		}
+		GridFilter filter = new GridFilter(13.3, 4);
+		assertSameSquares("random", Accumulator.consolidate(peaks, lastOfGroup(filter, false), null),
+				Accumulator.consolidate(peaks, lastOfGroup(filter, true), null));
+	}
+
+	@Test
+	public void testReusedShortAccumulator() throws IOException {
+		SquareTransform reused = new SquareTransform((BufferedImage) null, 19, 23);
+		reused.setCellType(Accumulator.CellType.SHORT);
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.WINDOW_SCAN);
+			reused.setImage(edgeImage);
+			reused.process();
+
+			assertSameSquares(imageFilename, reference.getBoxes(.85), reused.getBoxes(.85));
+		}
+		// the bins had to grow once for the larger second image
+		assertEquals(2, reused.getAccumulator().getFrameCount());
+		assertEquals(2, reused.getAccumulator().getAllocationCount());
+	}
+
+	@Test
+	public void testOffHeapAccumulator() throws IOException {
+		SquareTransform offHeap = new SquareTransform((BufferedImage) null, 19, 23);
+		offHeap.setCellType(Accumulator.CellType.OFF_HEAP_SHORT);
+		offHeap.setThreadCount(3);
+		for (String imageFilename : EDGE_IMAGES) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = detect(edgeImage, DetectionEngine.WINDOW_SCAN);
+			offHeap.setImage(edgeImage);
+			offHeap.process();
+
+			assertSameVotes(imageFilename, reference.getAccumulator(), offHeap.getAccumulator());
+			assertSameSquares(imageFilename, reference.getBoxes(.85, new GridFilter(20, 7)),
+					offHeap.getBoxes(.85, new GridFilter(20, 7)));
+		}
+		Accumulator bins = offHeap.getAccumulator();
+		assertEquals(2L * bins.getWidth() * bins.getHeight() * 5, bins.getMemoryUsage());
+		offHeap.close();
+		assertEquals(0, bins.getMemoryUsage());
+
+		// votes spanning several small chunks, including a partial last one
+		int capacity = 1000;
+		IntVoteStorage expected = new IntVoteStorage(capacity);
+		OffHeapVoteStorage chunked = new OffHeapVoteStorage(capacity, 4, 64);
+		Random random = new Random(7);
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 5000; i++) {
+				int index = random.nextInt(capacity);
+				int count = random.nextInt(200) - 20;
+				expected.add(index, count);
+				chunked.add(index, count);
+			}
+			for (int i = 0; i < capacity; i++) {
+				assertEquals("bin " + i, expected.get(i), chunked.get(i));
+			}
+			expected.clear(capacity - 3);
+			chunked.clear(capacity - 3);
+		}
+		chunked.close();
+	}
+
+	@Test
+	public void testReusedFrameBuffers() throws IOException {
+		SquareTransform reused = new SquareTransform((BufferedImage) null, 19, 23);
+		reused.setEngine(DetectionEngine.INTEGRAL_IMAGE);
+		reused.setEarlyRejection(true);
+		reused.setMinimumBorderProportion(.85);
+		// shrinking back to the first image reuses the larger tables
+		String[] frames = { EDGE_IMAGES[0], EDGE_IMAGES[1], EDGE_IMAGES[0] };
+		for (String imageFilename : frames) {
+			BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+			SquareTransform reference = new SquareTransform(edgeImage, 19, 23);
+			reference.setEngine(DetectionEngine.INTEGRAL_IMAGE);
+			reference.setEarlyRejection(true);
+			reference.setMinimumBorderProportion(.85);
+			reference.process();
+			reused.setImage(edgeImage);
+			reused.process();
+
+			assertSameVotes(imageFilename, reference.getAccumulator(), reused.getAccumulator());
+			assertEquals(imageFilename, reference.getSkippedCenterCount(), reused.getSkippedCenterCount());
+		}
+	}
+
+	@Test
+	public void testParallelBands() throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			for (String imageFilename : EDGE_IMAGES) {
+				BufferedImage edgeImage = ImageIO.read(new File(imageFilename));
+				SquareTransform serial = detect(edgeImage, DetectionEngine.INTEGRAL_IMAGE);
+
+				SquareTransform forkJoin = new SquareTransform(edgeImage, 19, 23);
+				forkJoin.setEngine(DetectionEngine.INTEGRAL_IMAGE);
+				forkJoin.setThreadCount(4);
+				forkJoin.setBandHeight(7);
+				forkJoin.process();
+				assertSameVotes(imageFilename, serial.getAccumulator(), forkJoin.getAccumulator());
+
+				SquareTransform supplied = new SquareTransform(edgeImage, 19, 23);
+				supplied.setExecutor(pool);
+				supplied.setBandHeight(50);
+				supplied.process();
+				assertSameVotes(imageFilename, serial.getAccumulator(), supplied.getAccumulator());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelPeaks() throws IOException {
+		double[] proportions = { .3, .5, .7, .85, .86, 1, 1.2, Double.NaN };
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			for (String imageFilename : EDGE_IMAGES) {
+				Accumulator acc = detect(ImageIO.read(new File(imageFilename)), DetectionEngine.INTEGRAL_IMAGE)
+						.getAccumulator();
+				for (double proportion : proportions) {
+					String message = imageFilename + " at " + proportion;
+					List<Square> expected = dividedPeaks(acc, proportion);
+					assertSameSquares(message, expected, acc.getPeaks(proportion));
+					assertSameSquares(message, expected, acc.getPeaks(proportion, pool, 3));
+					assertSameSquares(message, expected, acc.getPeaks(proportion, pool, 7));
+					assertSameSquares(message, expected, acc.getPeaks(proportion, pool, acc.getWidth() + 5));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Finds the peaks of an accumulator by dividing the votes of every bin by
+	 * its perimeter, the way peaks were found before integer thresholds
+	 */
+	static List<Square> dividedPeaks(Accumulator acc, double borderProportion) {
+		VoteQuery votes = acc.new AccumulatorVoteQuery();
+		List<Square> peaks = new ArrayList<>();
+		for (int x = 0; x < acc.getWidth(); x++) {
+			for (int y = 0; y < acc.getHeight(); y++) {
+				for (int r = acc.getMinRadius(); r <= acc.getMaxRadius(); r++) {
+					if (votes.getVotes(x, y, r) / (double) (r << 3) >= borderProportion) {
+						peaks.add(new Square(x - r, y - r, 1 + 2 * r));
+					}
+				}
+			}
+		}
+		return peaks;
+	}
+
+	/**
+	 * Checks that every bin of two accumulators holds the same number of votes
+	 */
+	static void assertSameVotes(String message, Accumulator expected, Accumulator actual) {
+		VoteQuery expectedVotes = expected.new AccumulatorVoteQuery();
+		VoteQuery actualVotes = actual.new AccumulatorVoteQuery();
+		for (int x = 0; x < expected.getWidth(); x++) {
+			for (int y = 0; y < expected.getHeight(); y++) {
+				for (int r = expected.getMinRadius(); r <= expected.getMaxRadius(); r++) {
+					if (expectedVotes.getVotes(x, y, r) != actualVotes.getVotes(x, y, r)) {
+						assertEquals(message + " (" + x + ", " + y + ", " + r + ")", expectedVotes.getVotes(x, y, r),
+								actualVotes.getVotes(x, y, r));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wraps a filter so it picks the last square of each group, which checks
+	 * the order of the group too. Without the search radius every pair of
+	 * peaks is compared.
+	 */
+	static PeakFilter<Square> lastOfGroup(final PeakFilter<Square> filter, final boolean useSearchRadius) {
+		return new PeakFilter<Square>() {
+			@Override
+			public boolean areSimilar(Square s1, Square s2) {
+				return filter.areSimilar(s1, s2);
+			}
+
+			@Override
+			public Square chooseBest(List<Square> shapes, VoteQuery vq) {
+				return shapes.get(shapes.size() - 1);
+			}
+
+			@Override
+			public double getSearchRadius() {
+				return useSearchRadius ? filter.getSearchRadius() : Double.POSITIVE_INFINITY;
+			}
+		};
+	}
+
+	/**
+	 * Runs the square transform on an edge image with the radius constraints
+	 * used by the game
+	 */
+	static SquareTransform detect(BufferedImage edgeImage, DetectionEngine engine) {
+		SquareTransform st = new SquareTransform(edgeImage, 19, 23);
+		st.setEngine(engine);
+		st.process();
+		return st;
+	}
+
+	/**
+	 * Checks that two lists contain squares with the same dimensions in the
+	 * same order
+	 */
+	static void assertSameSquares(String message, List<Square> expected, List<Square> actual) {
+		assertEquals(message, expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(message, expected.get(i).toString(), actual.get(i).toString());
+		}
+	}
+}
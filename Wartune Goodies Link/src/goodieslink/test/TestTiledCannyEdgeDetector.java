@@ -0,0 +1,124 @@
+package goodieslink.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import goodieslink.processing.PixelBuffer;
+import goodieslink.processing.edge.EdgeBitmap;
+import goodieslink.processing.edge.TiledCannyEdgeDetector;
+
+/**
+ * JUnit test case to confirm that the pure Java edge detector finds exactly
+ * the same gray frame and edges as OpenCV, using a screenshot and the images
+ * OpenCV produced from it so no native library is required.
+ *
+ * @author Jonathan Schram
+ *
+ */
+public class TestTiledCannyEdgeDetector {
+
+	private static final String SCREENSHOT = "openCV imread.png";
+	private static final String OPENCV_GRAY = "openCV bw.png";
+	private static final String OPENCV_EDGES = "edge image OpenCV.png";
+
+	@Test
+	public void testOpenCVEdges() throws IOException {
+		TiledCannyEdgeDetector detector = new TiledCannyEdgeDetector();
+		detector.detect(ImageIO.read(new File(SCREENSHOT)));
+		assertArrayEquals(pixels(ImageIO.read(new File(OPENCV_GRAY))), detector.getGray());
+		assertArrayEquals(pixels(ImageIO.read(new File(OPENCV_EDGES))), detector.getEdges());
+
+		// edges of the gray frame are the same
+		detector.detect(ImageIO.read(new File(OPENCV_GRAY)));
+		assertArrayEquals(pixels(ImageIO.read(new File(OPENCV_EDGES))), detector.getEdges());
+	}
+
+	@Test
+	public void testTiles() throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File(SCREENSHOT));
+		byte[] expected = pixels(ImageIO.read(new File(OPENCV_EDGES)));
+		int[][] configurations = { { 1, 1 }, { 2, 7 }, { 3, 64 }, { 4, 1000 } };
+		for (int[] configuration : configurations) {
+			TiledCannyEdgeDetector detector = new TiledCannyEdgeDetector();
+			detector.setThreadCount(configuration[0]);
+			detector.setTileHeight(configuration[1]);
+			detector.detect(screenshot);
+			assertArrayEquals(configuration[0] + " threads, tile height " + configuration[1], expected,
+					detector.getEdges());
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			TiledCannyEdgeDetector detector = new TiledCannyEdgeDetector();
+			detector.setExecutor(pool);
+			detector.setThreadCount(5);
+			detector.setTileHeight(33);
+			detector.detect(screenshot);
+			assertArrayEquals("executor", expected, detector.getEdges());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSeparatePasses() throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File(SCREENSHOT));
+		TiledCannyEdgeDetector detector = new TiledCannyEdgeDetector();
+		detector.setFused(false);
+		detector.setThreadCount(3);
+		detector.setTileHeight(17);
+		detector.detect(screenshot);
+		assertArrayEquals(pixels(ImageIO.read(new File(OPENCV_GRAY))), detector.getGray());
+		assertArrayEquals(pixels(ImageIO.read(new File(OPENCV_EDGES))), detector.getEdges());
+		assertTrue(detector.getStageTimes().get("gray") > 0);
+
+		detector.setFused(true);
+		detector.detect(screenshot);
+		assertArrayEquals(pixels(ImageIO.read(new File(OPENCV_EDGES))), detector.getEdges());
+		assertEquals(0, (long) detector.getStageTimes().get("gray"));
+	}
+
+	@Test
+	public void testReusedBuffers() throws IOException {
+		BufferedImage screenshot = ImageIO.read(new File(SCREENSHOT));
+		BufferedImage expected = ImageIO.read(new File(OPENCV_EDGES));
+		TiledCannyEdgeDetector detector = new TiledCannyEdgeDetector();
+		detector.setThreadCount(2);
+		detector.detect(screenshot);
+		long allocations = detector.getAllocationCount();
+		PixelBuffer edgeImage = detector.getEdgeImage(null);
+		EdgeBitmap bitmap = detector.getEdgeBitmap(null);
+
+		detector.detect(screenshot);
+		assertEquals(allocations, detector.getAllocationCount());
+		assertSame(edgeImage, detector.getEdgeImage(edgeImage));
+		assertSame(bitmap, detector.getEdgeBitmap(bitmap));
+		assertArrayEquals(pixels(expected), edgeImage.getPixels());
+		EdgeBitmap expectedBitmap = EdgeBitmap.fromImage(expected);
+		for (int y = 0; y < bitmap.getHeight(); y++) {
+			assertEquals("row " + y, expectedBitmap.countRow(y, 0, bitmap.getWidth() - 1),
+					bitmap.countRow(y, 0, bitmap.getWidth() - 1));
+		}
+	}
+
+	/**
+	 * Gets the pixels of a grayscale image
+	 */
+	static byte[] pixels(BufferedImage image) {
+		assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+		return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+	}
+}
@@ -4,6 +4,7 @@ import java.io.File;
 
 import org.apache.commons.lang3.SystemUtils;
 
+import goodieslink.controller.DetectionContext;
 import goodieslink.ui.javafx.GoodieStatusWindow;
 import javafx.application.Application;
 import javafx.stage.Stage;
@@ -17,6 +18,21 @@ import javafx.stage.Stage;
 public class GoodiesLauncher extends Application {
 
 	static {
+		// the pure Java edge detector finds the same edges, so the native
+		// library is only loaded when it is asked for
+		if (System.getProperty(DetectionContext.EDGE_DETECTOR_PROPERTY, "JAVA").trim().equalsIgnoreCase("OPENCV")) {
+			loadOpenCV();
+		} else {
+			System.out.println("Using pure Java edge detection, set -D" + DetectionContext.EDGE_DETECTOR_PROPERTY
+					+ "=OPENCV to use OpenCV");
+		}
+	}
+
+	/**
+	 * Loads the native OpenCV library for this platform. Detection falls back
+	 * to pure Java edge detection if it can't be loaded.
+	 */
+	private static void loadOpenCV() {
 		String libraryRootRelative = "lib/native";
 		String libraryRootAbsolute = new File(libraryRootRelative).getAbsolutePath();
 		int bits = Integer.parseInt(System.getProperty("sun.arch.data.model"));
@@ -24,24 +40,28 @@ public class GoodiesLauncher extends Application {
 		System.out.println(bits + ", " + os);
 		System.out.println(SystemUtils.OS_ARCH);
 
-		if (SystemUtils.IS_OS_LINUX) {
-			if (bits == 64) {
-				// only have x64 version for Linux
-				System.out.println("Loading " + libraryRootAbsolute + "/linux64/libopencv_java2410.so");
-				System.load(libraryRootAbsolute + "/linux64/libopencv_java2410.so");
-			}
-		} else if (SystemUtils.IS_OS_WINDOWS) {
-			if (bits == 64) {
-				System.out.println("Loading " + libraryRootAbsolute + "/windows64/opencv_java2410.dll");
-				System.load(libraryRootAbsolute + "/windows64/opencv_java2410.dll");
-			} else {
-				System.out.println("Loading " + libraryRootAbsolute + "/windows32/opencv_java2410.dll");
-				System.load(libraryRootAbsolute + "/windows32/opencv_java2410.dll");
+		try {
+			if (SystemUtils.IS_OS_LINUX) {
+				if (bits == 64) {
+					// only have x64 version for Linux
+					System.out.println("Loading " + libraryRootAbsolute + "/linux64/libopencv_java2410.so");
+					System.load(libraryRootAbsolute + "/linux64/libopencv_java2410.so");
+				}
+			} else if (SystemUtils.IS_OS_WINDOWS) {
+				if (bits == 64) {
+					System.out.println("Loading " + libraryRootAbsolute + "/windows64/opencv_java2410.dll");
+					System.load(libraryRootAbsolute + "/windows64/opencv_java2410.dll");
+				} else {
+					System.out.println("Loading " + libraryRootAbsolute + "/windows32/opencv_java2410.dll");
+					System.load(libraryRootAbsolute + "/windows32/opencv_java2410.dll");
+				}
+			} else if (SystemUtils.IS_OS_MAC) {
+				// have no mac library
 			}
-		} else if (SystemUtils.IS_OS_MAC) {
-			// have no mac library
+			System.out.println("Done loading library");
+		} catch (UnsatisfiedLinkError e) {
+			System.out.println("Could not load OpenCV, using pure Java edge detection: " + e.getMessage());
 		}
-		System.out.println("Done loading library");
 	}
 
 	public static void main(String[] args) {
@@ -66,46 +66,52 @@ public class GoodieStatusWindow extends Stage {
 					} catch (InterruptedException e) {
 						e.printStackTrace();
 					}
-					// agent must make these calls in this order to
-					// initialize
-					agent.setScreenRegion(captureRegion);
-					agent.captureScreen();
-					outputConsole.getDebugStream().sendText("Took screenshot");
-					agent.detectSquares();
-					outputConsole.getDebugStream().sendText("Detected squares");
-					while (!agent.isDone() && !stopOperation) {
-						if (agent.hasMatch()) {
-							// match was found so put a delay here before
-							// clicking again
-							agent.delayBetweenClicks();
-						}
-						boolean success = agent.clickOnMatch();
-						Platform.runLater(new Runnable() {
-							@Override
-							public void run() {
-								// try to see if the user wants to quit
-								requestFocus();
+					try {
+						// agent must make these calls in this order to
+						// initialize
+						agent.setScreenRegion(captureRegion);
+						agent.captureScreen();
+						outputConsole.getDebugStream().sendText("Took screenshot");
+						agent.detectSquares();
+						outputConsole.getDebugStream().sendText("Detected squares");
+						while (!agent.isDone() && !stopOperation) {
+							if (agent.hasMatch()) {
+								// match was found so put a delay here before
+								// clicking again
+								agent.delayBetweenClicks();
 							}
-						});
-						if (!success) {
-							// was no match, detect icons again
-							outputConsole.getDebugStream()
-									.sendText("Could not click on match, taking another screenshot");
-							agent.detectIcons();
-							outputConsole.getDebugStream().sendText("Attempting to find another match");
-
-						} else {
-							outputConsole.getDebugStream().sendText("Match found");
-							final int remaining = agent.countRemaining();
-							// submit count remaining to status
-							// label
+							boolean success = agent.clickOnMatch();
 							Platform.runLater(new Runnable() {
 								@Override
 								public void run() {
-									setCountRemainingText(remaining);
+									// try to see if the user wants to quit
+									requestFocus();
 								}
 							});
+							if (!success) {
+								// was no match, detect icons again
+								outputConsole.getDebugStream()
+										.sendText("Could not click on match, taking another screenshot");
+								agent.detectIcons();
+								outputConsole.getDebugStream().sendText("Attempting to find another match");
+
+							} else {
+								outputConsole.getDebugStream().sendText("Match found");
+								final int remaining = agent.countRemaining();
+								// submit count remaining to status
+								// label
+								Platform.runLater(new Runnable() {
+									@Override
+									public void run() {
+										setCountRemainingText(remaining);
+									}
+								});
+							}
 						}
+					} finally {
+						// the next run detects on a new thread, and the pool
+						// mustn't outlive a failed one
+						agent.releaseDetectionContext();
 					}
 					started = false;
 					outputConsole.getDebugStream().sendText("Finished clicks");
@@ -154,7 +160,9 @@ public class GoodieStatusWindow extends Stage {
 		// lowered threshold so that if part of a square is missing it will
 		// still be found
 		// raised it a little
-		agent = new GoodieAgent(0.86, 19, 23, 20, 4, 10);
+		// radii for any browser zoom, narrowed to the icons on the first frame
+		agent = new GoodieAgent(0.86, 15, 30, 20, 4, 10);
+		agent.setRadiusCalibration(true);
 		agent.setDebugStream(outputConsole.getDebugStream());
 		agent.setLogger(imageLogger);
 		agent.setDecorator(decorator);